@@ -26,6 +26,13 @@ function init() {
     new Packages.org.openrefine.extensions.files.importer.FilesImportingController()
   );
 
+  var RefineServlet = Packages.com.google.refine.RefineServlet;
+  RefineServlet.registerCommand(
+    module,
+    "refresh-files-project",
+    new Packages.org.openrefine.extensions.files.commands.RefreshFilesProjectCommand()
+  );
+
   // Script files to inject into /index page
   ClientSideResourceManager.addPaths(
     "index/scripts",
@@ -46,5 +53,13 @@ function init() {
     ]
   );
 
+  // Script files to inject into /project page
+  ClientSideResourceManager.addPaths(
+    "project/scripts",
+    module,
+    [
+      "scripts/project-injection.js"
+    ]
+  );
 
 }
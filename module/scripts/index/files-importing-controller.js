@@ -160,6 +160,38 @@ Refine.FilesImportingController.prototype.getOptions = function() {
     return def;
   };
   options.fileContentColumn = parseIntDefault(0, 0);
+  if (this._options) {
+    options.previewLimit = this._options.previewLimit || 100;
+  }
+
+  if (this._parsingPanelElmts) {
+    var elmts = this._parsingPanelElmts;
+    options.checksumAlgorithm = elmts.checksumAlgorithmSelect.val();
+    options.quickFingerprint = elmts.quickFingerprintCheckbox[0].checked;
+    options.quickFingerprintThresholdMB = parseIntDefault(elmts.quickFingerprintThresholdInput.val(), 0);
+    options.quickFingerprintBlockSizeKB = parseIntDefault(elmts.quickFingerprintBlockSizeInput.val(), 64);
+    options.lockPolicy = elmts.lockPolicySelect.val();
+    options.lockTimeoutMs = parseIntDefault(elmts.lockTimeoutInput.val(), 1000);
+    options.maxDepth = parseIntDefault(elmts.maxDepthInput.val(), 1);
+    options.includeGlobs = elmts.includeGlobsInput.val();
+    options.excludeGlobs = elmts.excludeGlobsInput.val();
+    options.followSymlinks = elmts.followSymlinksCheckbox[0].checked;
+    options.skipHidden = elmts.skipHiddenCheckbox[0].checked;
+    options.detectMimeType = elmts.detectMimeTypeCheckbox[0].checked;
+    options.contentSnippet = elmts.contentSnippetCheckbox[0].checked;
+    options.contentSnippetLength = parseIntDefault(elmts.contentSnippetLengthInput.val(), 256);
+    options.listArchiveEntries = elmts.listArchiveEntriesCheckbox[0].checked;
+    options.diffMode = elmts.diffModeCheckbox[0].checked;
+    options.duplicatesMode = elmts.duplicatesModeCheckbox[0].checked;
+    options.saveSnapshot = elmts.saveSnapshotCheckbox[0].checked;
+    if (elmts.snapshotSelect.val()) {
+      options.snapshotId = elmts.snapshotSelect.val();
+    }
+    options.metadataConcurrency = parseIntDefault(elmts.metadataConcurrencyInput.val(), 0);
+    options.metadataOpsPerSecond = parseIntDefault(elmts.metadataOpsPerSecondInput.val(), 0);
+    options.readConcurrency = parseIntDefault(elmts.readConcurrencyInput.val(), 0);
+    options.readMBPerSecond = parseIntDefault(elmts.readMBPerSecondInput.val(), 0);
+  }
 
   return options;
 };
@@ -175,6 +207,64 @@ Refine.FilesImportingController.prototype._showParsingPanel = function() {
   this._parsingPanelElmts.commons_proj_name.html($.i18n('files-parsing/proj-name'));
   $('#or-import-projtags').html($.i18n('files-parsing/project-tags'));
   this._parsingPanelElmts.createProjectButton.html($.i18n('files-parsing/create-proj'));
+  this._parsingPanelElmts.checksumAlgorithmLabel.text($.i18n('files-parsing/checksum-algorithm'));
+  this._parsingPanelElmts.checksumNoneOption.text($.i18n('files-parsing/checksum-none'));
+
+  this._parsingPanelElmts.quickFingerprintLabel.text($.i18n('files-parsing/quick-fingerprint'));
+  this._parsingPanelElmts.quickFingerprintThresholdLabel.text($.i18n('files-parsing/quick-fingerprint-threshold'));
+  this._parsingPanelElmts.quickFingerprintBlockSizeLabel.text($.i18n('files-parsing/quick-fingerprint-block-size'));
+  this._parsingPanelElmts.lockPolicyLabel.text($.i18n('files-parsing/lock-policy'));
+  this._parsingPanelElmts.lockPolicyAlwaysOption.text($.i18n('files-parsing/lock-policy-always'));
+  this._parsingPanelElmts.lockPolicyTryOption.text($.i18n('files-parsing/lock-policy-try'));
+  this._parsingPanelElmts.lockPolicyNeverOption.text($.i18n('files-parsing/lock-policy-never'));
+  this._parsingPanelElmts.lockTimeoutLabel.text($.i18n('files-parsing/lock-timeout'));
+  this._parsingPanelElmts.maxDepthLabel.text($.i18n('files-parsing/max-depth'));
+  this._parsingPanelElmts.includeGlobsLabel.text($.i18n('files-parsing/include-globs'));
+  this._parsingPanelElmts.excludeGlobsLabel.text($.i18n('files-parsing/exclude-globs'));
+  this._parsingPanelElmts.followSymlinksLabel.text($.i18n('files-parsing/follow-symlinks'));
+  this._parsingPanelElmts.skipHiddenLabel.text($.i18n('files-parsing/skip-hidden'));
+  this._parsingPanelElmts.detectMimeTypeLabel.text($.i18n('files-parsing/detect-mime-type'));
+  this._parsingPanelElmts.contentSnippetLabel.text($.i18n('files-parsing/content-snippet'));
+  this._parsingPanelElmts.listArchiveEntriesLabel.text($.i18n('files-parsing/list-archive-entries'));
+  this._parsingPanelElmts.diffModeLabel.text($.i18n('files-parsing/diff-mode'));
+  this._parsingPanelElmts.duplicatesModeLabel.text($.i18n('files-parsing/duplicates-mode'));
+  this._parsingPanelElmts.saveSnapshotLabel.text($.i18n('files-parsing/save-snapshot'));
+  this._parsingPanelElmts.snapshotLabel.text($.i18n('files-parsing/snapshot'));
+  this._parsingPanelElmts.snapshotNoneOption.text($.i18n('files-parsing/snapshot-none'));
+  this._parsingPanelElmts.scanLimitsLabel.text($.i18n('files-parsing/scan-limits'));
+  this._parsingPanelElmts.metadataConcurrencyLabel.text($.i18n('files-parsing/metadata-concurrency'));
+  this._parsingPanelElmts.metadataOpsPerSecondLabel.text($.i18n('files-parsing/metadata-ops-per-second'));
+  this._parsingPanelElmts.readConcurrencyLabel.text($.i18n('files-parsing/read-concurrency'));
+  this._parsingPanelElmts.readMBPerSecondLabel.text($.i18n('files-parsing/read-mb-per-second'));
+  this._parsingPanelElmts.commons_updating.text($.i18n('files-parsing/updating'));
+  this._parsingPanelElmts.cancelScanButton.text($.i18n('files-parsing/cancel-scan'));
+
+  this._parsingPanelElmts.checksumAlgorithmSelect.val(this._options.checksumAlgorithm || "sha256");
+  this._parsingPanelElmts.quickFingerprintCheckbox.prop('checked', !!this._options.quickFingerprint);
+  this._parsingPanelElmts.quickFingerprintThresholdInput.val(this._options.quickFingerprintThresholdMB || 0);
+  this._parsingPanelElmts.quickFingerprintBlockSizeInput.val(this._options.quickFingerprintBlockSizeKB || 64);
+  this._parsingPanelElmts.lockPolicySelect.val(this._options.lockPolicy || "always");
+  this._parsingPanelElmts.lockTimeoutInput.val(this._options.lockTimeoutMs || 1000);
+  this._parsingPanelElmts.maxDepthInput.val("maxDepth" in this._options ? this._options.maxDepth : 1);
+  this._parsingPanelElmts.includeGlobsInput.val(this._options.includeGlobs || "");
+  this._parsingPanelElmts.excludeGlobsInput.val(this._options.excludeGlobs || "");
+  this._parsingPanelElmts.followSymlinksCheckbox.prop('checked', !!this._options.followSymlinks);
+  this._parsingPanelElmts.skipHiddenCheckbox.prop('checked', this._options.skipHidden === true);
+  this._parsingPanelElmts.detectMimeTypeCheckbox.prop('checked', this._options.detectMimeType === true);
+  this._parsingPanelElmts.contentSnippetCheckbox.prop('checked', this._options.contentSnippet === true);
+  this._parsingPanelElmts.contentSnippetLengthInput.val(this._options.contentSnippetLength || 256);
+  this._parsingPanelElmts.listArchiveEntriesCheckbox.prop('checked', this._options.listArchiveEntries === true);
+  this._parsingPanelElmts.diffModeCheckbox.prop('checked', this._options.diffMode === true);
+  this._parsingPanelElmts.duplicatesModeCheckbox.prop('checked', this._options.duplicatesMode === true);
+  this._parsingPanelElmts.saveSnapshotCheckbox.prop('checked', this._options.saveSnapshot === true);
+  this._loadSnapshots();
+  this._parsingPanelElmts.metadataConcurrencyInput.val(this._options.metadataConcurrency || 0);
+  this._parsingPanelElmts.metadataOpsPerSecondInput.val(this._options.metadataOpsPerSecond || 0);
+  this._parsingPanelElmts.readConcurrencyInput.val(this._options.readConcurrency || 0);
+  this._parsingPanelElmts.readMBPerSecondInput.val(this._options.readMBPerSecond || 0);
+  this._parsingPanelElmts.optionsPanel.find('select, input').not('.files-scan-limit').on('change', function() { self._updatePreview(); });
+  // limits are changed on the running scan rather than starting it over
+  this._parsingPanelElmts.optionsPanel.find('.files-scan-limit').on('change', function() { self._updateScanLimits(); });
 
   $("#tagsInput").select2({
     data: Refine.TagsManager._getAllProjectTags() ,
@@ -208,7 +298,10 @@ Refine.FilesImportingController.prototype._showParsingPanel = function() {
   $(window).resize(this._parsingPanelResizer);
   this._parsingPanelResizer();
 
+  this._parsingPanelElmts.cancelScanButton.click(function() { self._cancelScan(); });
+
   this._parsingPanelElmts.startOverButton.click(function() {
+    self._stopPollingScan();
     // explicitly cancel the import job
     Refine.CreateProjectUI.cancelImportingJob(self._jobID);
 
@@ -228,10 +321,41 @@ Refine.FilesImportingController.prototype._showParsingPanel = function() {
   this._updatePreview();
 };
 
+Refine.FilesImportingController.prototype._loadSnapshots = function() {
+  var self = this;
+  Refine.wrapCSRF(function(token) {
+    $.post(
+        "command/core/importing-controller?" + $.param({
+        "controller": "files/files-importing-controller",
+        "jobID": self._jobID,
+        "subCommand": "list-snapshots",
+        "csrf_token": token
+        }),
+        null,
+        function(result) {
+        if (result.status != "ok") {
+            return;
+        }
+        $.each(result.snapshots, function(i, snapshot) {
+            $('<option>')
+                .val(snapshot.id)
+                .text($.i18n('files-parsing/snapshot-option', snapshot.directories.join(", "),
+                    new Date(snapshot.created).toLocaleString(), snapshot.rows))
+                .appendTo(self._parsingPanelElmts.snapshotSelect);
+        });
+        },
+        "json"
+    );
+  });
+};
+
 Refine.FilesImportingController.prototype._updatePreview = function() {
   var self = this;
 
+  this._stopPollingScan();
   this._parsingPanelElmts.dataPanel.hide();
+  this._parsingPanelElmts.scanProgressMessage.empty();
+  this._parsingPanelElmts.cancelScanButton.show();
   this._parsingPanelElmts.progressPanel.show();
 
   Refine.wrapCSRF(function(token) {
@@ -247,12 +371,7 @@ Refine.FilesImportingController.prototype._updatePreview = function() {
         },
         function(result) {
         if (result.status == "ok") {
-            self._getPreviewData(function(projectData) {
-            self._parsingPanelElmts.progressPanel.hide();
-            self._parsingPanelElmts.dataPanel.show();
-
-            new Refine.PreviewTable(projectData, self._parsingPanelElmts.dataPanel.unbind().empty());
-            });
+            self._pollScan();
         } else {
             self._parsingPanelElmts.progressPanel.hide();
             alert('Errors :\n' +
@@ -264,6 +383,114 @@ Refine.FilesImportingController.prototype._updatePreview = function() {
   });
 };
 
+// The scan runs in the background on the server, follow it through the job status
+Refine.FilesImportingController.prototype._pollScan = function() {
+  var self = this;
+  var elmts = this._parsingPanelElmts;
+
+  var showPreview = function() {
+    self._getPreviewData(function(projectData) {
+      elmts.progressPanel.hide();
+      elmts.dataPanel.show();
+
+      new Refine.PreviewTable(projectData, elmts.dataPanel.unbind().empty());
+    });
+  };
+
+  var poll = function() {
+    $.post(
+      "command/core/get-importing-job-status?" + $.param({ "jobID": self._jobID }),
+      null,
+      function(data) {
+        if (!data || !("job" in data)) {
+          self._stopPollingScan();
+          elmts.progressPanel.hide();
+          alert((data && data.message) || "Unknown error");
+          return;
+        }
+        var config = data.job.config;
+        var scanProgress = config.scanProgress || {};
+        if (config.state == "error") {
+          self._stopPollingScan();
+          elmts.progressPanel.hide();
+          alert(Refine.CreateProjectUI.composeErrorMessage(data.job));
+        } else if (scanProgress.cancelled) {
+          self._stopPollingScan();
+          elmts.scanProgressMessage.text($.i18n('files-parsing/scan-cancelled'));
+          elmts.cancelScanButton.hide();
+        } else if (scanProgress.done) {
+          self._stopPollingScan();
+          showPreview();
+        } else {
+          var message = $.i18n('files-parsing/scan-progress',
+              scanProgress.filesDone || 0,
+              scanProgress.filesSeen || 0,
+              Math.floor((scanProgress.bytesHashed || 0) / (1024 * 1024)));
+          if (scanProgress.etaSeconds >= 0) {
+            message += ", " + $.i18n('files-parsing/scan-eta', scanProgress.etaSeconds);
+          }
+          elmts.scanProgressMessage.text(message + " \u2014 " + (scanProgress.currentDirectory || ""));
+        }
+      },
+      "json"
+    );
+  };
+
+  this._scanTimerID = window.setInterval(poll, 500);
+  poll();
+};
+
+Refine.FilesImportingController.prototype._stopPollingScan = function() {
+  if (this._scanTimerID) {
+    window.clearInterval(this._scanTimerID);
+    delete this._scanTimerID;
+  }
+};
+
+Refine.FilesImportingController.prototype._cancelScan = function() {
+  var self = this;
+  Refine.wrapCSRF(function(token) {
+    $.post(
+        "command/core/importing-controller?" + $.param({
+        "controller": "files/files-importing-controller",
+        "jobID": self._jobID,
+        "subCommand": "cancel-scan",
+        "csrf_token": token
+        }),
+        null,
+        function(result) {
+        if (result.status == "error") {
+            alert(result.message);
+        }
+        },
+        "json"
+    );
+  });
+};
+
+Refine.FilesImportingController.prototype._updateScanLimits = function() {
+  var self = this;
+  Refine.wrapCSRF(function(token) {
+    $.post(
+        "command/core/importing-controller?" + $.param({
+        "controller": "files/files-importing-controller",
+        "jobID": self._jobID,
+        "subCommand": "update-scan-limits",
+        "csrf_token": token
+        }),
+        {
+        "options" : JSON.stringify(self.getOptions())
+        },
+        function(result) {
+        if (result.status == "error") {
+            alert(result.message);
+        }
+        },
+        "json"
+    );
+  });
+};
+
 Refine.FilesImportingController.prototype._getPreviewData = function(callback, numRows) {
   var self = this;
   var result = {};
@@ -282,7 +509,7 @@ Refine.FilesImportingController.prototype._getPreviewData = function(callback, n
         "command/core/get-rows?" + $.param({
           "importingJobID" : self._jobID,
           "start" : 0,
-          "limit" : numRows || 100 // More than we parse for preview anyway
+          "limit" : numRows || (self._options && self._options.previewLimit) || 100
         }),
         null,
         function(data) {
@@ -305,6 +532,7 @@ Refine.FilesImportingController.prototype._createProject = function() {
   }
 
   var self = this;
+  this._stopPollingScan();
   var options = this.getOptions();
   var projectTags = $("#tagsInput").val();
   console.log("tags -> " + projectTags);
@@ -350,6 +578,7 @@ Refine.FilesImportingController.prototype._createProject = function() {
             self._createProjectUI.showImportProgressPanel($.i18n('files-import/creating'), function() {
             // stop the timed polling
             window.clearInterval(timerID);
+            $('#files-read-limits').remove();
 
             // explicitly cancel the import job
             // Refine.CreateProjectUI.cancelImportingJob(jobID);
@@ -359,6 +588,7 @@ Refine.FilesImportingController.prototype._createProject = function() {
 
             self._createProjectUI.showSourceSelectionPanel();
             });
+            self._showReadLimits();
         }
         },
         "json"
@@ -366,6 +596,27 @@ Refine.FilesImportingController.prototype._createProject = function() {
   });
 };
 
+// File contents are only read while the project is created, so their limits can be changed from its progress
+Refine.FilesImportingController.prototype._showReadLimits = function() {
+  var self = this;
+  var elmts = this._parsingPanelElmts;
+  var panel = $('<div>').attr('id', 'files-read-limits').addClass('files-importing-read-limits')
+      .text($.i18n('files-parsing/scan-limits'));
+  var addLimit = function(labelKey, input) {
+    var copy = $('<input type="number" min="0">').attr('size', input.attr('size')).val(input.val());
+    // the limits of the parsing panel are sent, with this one changed
+    copy.on('change', function() {
+      input.val(copy.val());
+      self._updateScanLimits();
+    });
+    $('<label>').text($.i18n(labelKey)).append(' ', copy).appendTo(panel);
+  };
+  addLimit('files-parsing/read-concurrency', elmts.readConcurrencyInput);
+  addLimit('files-parsing/read-mb-per-second', elmts.readMBPerSecondInput);
+  $('#files-read-limits').remove();
+  panel.insertAfter('#create-project-progress-memory');
+};
+
 Refine.TagsManager = {};
 Refine.TagsManager.allProjectTags = [];
 
@@ -51,26 +51,28 @@ Refine.LocalDirectorySourceUI.prototype.attachUI = function (bodyDiv) {
     });
   }
 
-  function getDirectoryHierarchy(rootPath) {
-    var dismiss = DialogSystem.showBusy(($.i18n('files-import/fetchingDirectoryDetails')));
-
+  // Fetches one level of subdirectories of the path, starting after the cursor if any
+  function fetchDirectoryNode(path, cursor, callback) {
     Refine.wrapCSRF(function (token) {
+      var params = {
+        "controller": "files/files-importing-controller",
+        "subCommand": "directory-hierarchy",
+        "dirPath": path,
+        "levels": 1,
+        "csrf_token": token
+      };
+      if (cursor) {
+        params.cursor = cursor;
+      }
       $.post(
-        "command/core/importing-controller?" + $.param({
-          "controller": "files/files-importing-controller",
-          "subCommand": "directory-hierarchy",
-          "dirPath": rootPath,
-          "csrf_token": token
-        }),
+        "command/core/importing-controller?" + $.param(params),
         null,
         function (data) {
-          dismiss();
-          if (!(data)) {
+          if (!(data) || data.code == "error") {
             window.alert($.i18n('files-import/fetch-directory-details-failed'));
+            callback(null);
           } else {
-            var treeData = [JSON.parse(data)];
-            renderTreeView(treeData);
-            $("#directoryTreePanel").show();
+            callback(data);
           }
         },
         "json"
@@ -78,6 +80,18 @@ Refine.LocalDirectorySourceUI.prototype.attachUI = function (bodyDiv) {
     });
   }
 
+  function getDirectoryHierarchy(rootPath) {
+    var dismiss = DialogSystem.showBusy(($.i18n('files-import/fetchingDirectoryDetails')));
+
+    fetchDirectoryNode(rootPath, null, function (node) {
+      dismiss();
+      if (node) {
+        renderTreeView([node]);
+        $("#directoryTreePanel").show();
+      }
+    });
+  }
+
   this._elmts.driveselector.on('change', function () {
     const selectedValue = $(this).val();
     if (selectedValue) {
@@ -112,56 +126,89 @@ Refine.LocalDirectorySourceUI.prototype.attachUI = function (bodyDiv) {
     const $treeContainer = $("#directory-tree");
     $treeContainer.empty();
 
-    function buildTree(nodes, isRoot = false) {
-      const $ul = $("<ul></ul>");
-      if (!isRoot) {
-        $ul.hide();
-      }
+    // Appends the children of a node, and a link to the next page of them if there is one
+    function appendChildren($ul, node) {
+      (node.children || []).forEach((child) => {
+        $ul.append(buildTreeItem(child));
+      });
 
-      nodes.forEach((node) => {
-        const $li = $("<li></li>");
-        const hasChildren = node.children && node.children.length > 0 ? true : false;
-
-        const $label = $(`
-                <label>
-                    <input type="checkbox" class="directory-checkbox" value="${node.path}">
-                    ${node.name}
-                </label>
-            `);
-
-        if (hasChildren) {
-          const $toggle = $("<span class='toggle'>></span>");
-          $toggle.on("click", function () {
-            const $childUl = $li.children("ul");
-            if ($childUl.is(":visible")) {
-              $childUl.slideUp();
-              $toggle.text(">");
-            } else {
-              $childUl.slideDown();
-              $toggle.text("v");
+      if (node.nextCursor) {
+        const $more = $("<li class='directory-tree-more'></li>");
+        const $link = $("<a href='javascript:{}'></a>").text($.i18n('files-import/load-more'));
+        $link.on("click", function () {
+          $more.text($.i18n('files-import/loading'));
+          fetchDirectoryNode(node.path, node.nextCursor, function (page) {
+            $more.remove();
+            if (page) {
+              appendChildren($ul, page);
             }
           });
+        });
+        $ul.append($more.append($link));
+      }
+    }
 
-          $li.append($toggle);
-        } else {
-          const $toggle = $("<span class='notoggle'>-</span>");
-          $li.append($toggle);
+    function buildTreeItem(node, isRoot = false) {
+      const $li = $("<li></li>");
+      const $label = $(`
+              <label>
+                  <input type="checkbox" class="directory-checkbox">
+              </label>
+          `);
+      $label.find("input").val(node.path);
+      $label.append(document.createTextNode(node.name));
+
+      if (node.hasChildren) {
+        const $childUl = $("<ul></ul>");
+        let loaded = node.children !== undefined;
+        if (loaded) {
+          appendChildren($childUl, node);
         }
-
-        $li.append($label);
-
-        if (hasChildren) {
-          const $subTree = buildTree(node.children);
-          $li.append($subTree);
+        if (!isRoot) {
+          $childUl.hide();
         }
 
-        $ul.append($li);
-      });
+        const $toggle = $("<span class='toggle'></span>").text(isRoot ? "v" : ">");
+        $toggle.on("click", function () {
+          if ($childUl.is(":visible")) {
+            $childUl.slideUp();
+            $toggle.text(">");
+          } else if (loaded) {
+            $childUl.slideDown();
+            $toggle.text("v");
+          } else {
+            // children are only fetched the first time the node is expanded
+            $toggle.text("…");
+            fetchDirectoryNode(node.path, null, function (fetched) {
+              if (fetched) {
+                loaded = true;
+                appendChildren($childUl, fetched);
+                $childUl.slideDown();
+                $toggle.text("v");
+              } else {
+                $toggle.text(">");
+              }
+            });
+          }
+        });
+
+        $li.append($toggle);
+        $li.append($label);
+        $li.append($childUl);
+      } else {
+        const $toggle = $("<span class='notoggle'>-</span>");
+        $li.append($toggle);
+        $li.append($label);
+      }
 
-      return $ul;
+      return $li;
     }
 
-    $treeContainer.append(buildTree(tree, true));
+    const $ul = $("<ul></ul>");
+    tree.forEach((node) => {
+      $ul.append(buildTreeItem(node, true));
+    });
+    $treeContainer.append($ul);
   }
 
 };
@@ -6,4 +6,63 @@ All rights reserved.
 
 // This file is added to the /project page
 
-var SampleExtension = {};
\ No newline at end of file
+//Internationalization init
+var lang = navigator.language.split("-")[0]
+		|| navigator.userLanguage.split("-")[0];
+var dictionary = "";
+$.ajax({
+	url : "command/core/load-language?",
+	type : "POST",
+	async : false,
+	data : {
+	  module : "files"
+	},
+	success : function(data) {
+		dictionary = data['dictionary'];
+                lang = data['lang'];
+	}
+});
+$.i18n().load(dictionary, lang);
+// End internationalization
+
+var FilesExtension = {};
+
+// Only projects listing the files of local directories one by one can be refreshed,
+// not those comparing two directories or grouping duplicate files. The import options
+// are read from the project metadata the page has already loaded.
+FilesExtension.isRefreshable = function() {
+  var metadata = theProject.metadata || {};
+  var importOptions = metadata.importOptionMetadata || [];
+  for (var i = importOptions.length - 1; i >= 0; i--) {
+    if (importOptions[i].directoryJsonValue) {
+      return !importOptions[i].diffMode && !importOptions[i].duplicatesMode;
+    }
+  }
+  return false;
+};
+
+FilesExtension.refreshFromDisk = function() {
+  if (!FilesExtension.isRefreshable()) {
+    alert($.i18n('files-project/not-refreshable'));
+    return;
+  }
+  Refine.postProcess(
+    "files",
+    "refresh-files-project",
+    {},
+    {},
+    { modelsChanged: true }
+  );
+};
+
+ExtensionBar.addExtensionMenu({
+  "id": "files",
+  "label": $.i18n('files-project/menu'),
+  "submenu": [
+    {
+      "id": "files/refresh",
+      "label": $.i18n('files-project/refresh'),
+      "click": FilesExtension.refreshFromDisk
+    }
+  ]
+});
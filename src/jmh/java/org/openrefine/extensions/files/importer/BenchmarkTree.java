@@ -0,0 +1,114 @@
+package org.openrefine.extensions.files.importer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic directory trees the benchmarks run on.
+ * <p>
+ * Trees are generated under "files-extension-benchmarks" in the temporary
+ * directory, or in the directory given by the "benchmark.dir" system property,
+ * and kept there once complete, so that each fork does not spend minutes writing
+ * the same files again. Delete the directory to generate them again.
+ */
+public class BenchmarkTree {
+    private static final String COMPLETE_MARKER = ".complete";
+
+    public enum Layout {
+        /** 100,000 files of 1 KB, 1,000 per directory */
+        SMALL_FILES(100_000, 1024, 0, 100),
+        /** 1,000 files of 2 MB, large enough to be hashed through memory-mapped windows */
+        LARGE_FILES(1_000, 2 * 1024 * 1024, 0, 1),
+        /** 4,095 directories nested 12 levels deep, each one with 4 files of 4 KB */
+        DEEP_TREE(4 * 4_095, 4 * 1024, 12, 0);
+
+        final int fileCount;
+        final int fileSize;
+        // number of levels of a binary tree of directories, or 0 for flat subdirectories
+        final int depth;
+        final int subdirectories;
+
+        Layout(int fileCount, int fileSize, int depth, int subdirectories) {
+            this.fileCount = fileCount;
+            this.fileSize = fileSize;
+            this.depth = depth;
+            this.subdirectories = subdirectories;
+        }
+
+        long getTotalBytes() {
+            return (long) fileCount * fileSize;
+        }
+    }
+
+    /** Returns the root of the tree with the given layout, generating it if needed */
+    static Path create(Layout layout) throws IOException {
+        String baseDir = System.getProperty("benchmark.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "files-extension-benchmarks").toString());
+        Path root = Paths.get(baseDir, layout.name().toLowerCase());
+        if (Files.exists(root.resolve(COMPLETE_MARKER))) {
+            return root;
+        }
+        Files.createDirectories(root);
+        // same contents on every run, and no two files alike
+        SplittableRandom random = new SplittableRandom(layout.ordinal());
+        byte[] content = new byte[Math.min(layout.fileSize, 1024 * 1024)];
+        List<Path> directories = getDirectories(root, layout);
+        int filesPerDirectory = layout.fileCount / directories.size();
+        for (Path directory : directories) {
+            Files.createDirectories(directory);
+            for (int i = 0; i < filesPerDirectory; i++) {
+                try (OutputStream output = Files.newOutputStream(directory.resolve("file-" + i + ".bin"))) {
+                    for (int written = 0; written < layout.fileSize; written += content.length) {
+                        random.nextBytes(content);
+                        output.write(content, 0, Math.min(content.length, layout.fileSize - written));
+                    }
+                }
+            }
+        }
+        Files.createFile(root.resolve(COMPLETE_MARKER));
+        return root;
+    }
+
+    /** Returns the regular files of the tree, in no particular order */
+    static List<Path> listFiles(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(path -> Files.isRegularFile(path) && !path.getFileName().toString().equals(COMPLETE_MARKER))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /** Returns the directories of the tree, parents before their children */
+    static List<Path> listDirectories(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+    }
+
+    private static List<Path> getDirectories(Path root, Layout layout) {
+        List<Path> directories = new ArrayList<>();
+        if (layout.depth > 0) {
+            addBinaryTree(root, layout.depth, directories);
+        } else {
+            for (int i = 0; i < layout.subdirectories; i++) {
+                directories.add(root.resolve("dir-" + i));
+            }
+        }
+        return directories;
+    }
+
+    private static void addBinaryTree(Path directory, int levels, List<Path> directories) {
+        directories.add(directory);
+        if (levels > 1) {
+            addBinaryTree(directory.resolve("a"), levels - 1, directories);
+            addBinaryTree(directory.resolve("b"), levels - 1, directories);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.openrefine.extensions.files.importer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FilesImporter#calculateFileChecksum} alone, on a single thread
+ * and without locking, so that the numbers are those of reading and hashing the
+ * files.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChecksumBenchmark {
+
+    @Param({"SMALL_FILES", "LARGE_FILES"})
+    public BenchmarkTree.Layout layout;
+
+    @Param({"sha256", "sha1", "md5", "crc32c", "xxh64"})
+    public String algorithm;
+
+    private ChecksumAlgorithm checksumAlgorithm;
+    private List<Path> files;
+    private long[] sizes;
+
+    @Setup(Level.Trial)
+    public void createTree() throws Exception {
+        checksumAlgorithm = ChecksumAlgorithm.fromId(algorithm);
+        files = BenchmarkTree.listFiles(BenchmarkTree.create(layout));
+        sizes = new long[files.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Files.size(files.get(i));
+        }
+    }
+
+    /** Hashes every file of the tree */
+    @Benchmark
+    public void calculateFileChecksum(ScanCounters counters, Blackhole blackhole) throws Exception {
+        for (int i = 0; i < files.size(); i++) {
+            blackhole.consume(FilesImporter.calculateFileChecksum(files.get(i), checksumAlgorithm, LockPolicy.NEVER, 0));
+            counters.files++;
+            counters.bytes += sizes[i];
+        }
+    }
+}
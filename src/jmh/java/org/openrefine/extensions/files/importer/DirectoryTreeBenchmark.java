@@ -0,0 +1,73 @@
+package org.openrefine.extensions.files.importer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FilesImporter#generateDirectoryTree}, as called when the
+ * directory navigation expands a directory, with the listings served by the
+ * {@link DirectoryListingCache} and with the directories listed again.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DirectoryTreeBenchmark {
+
+    @Param({"SMALL_FILES", "DEEP_TREE"})
+    public BenchmarkTree.Layout layout;
+
+    @Param({"1", "3"})
+    public int levels;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private Path root;
+    private List<Path> directories;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = BenchmarkTree.create(layout);
+        directories = BenchmarkTree.listDirectories(root);
+    }
+
+    /** Drops the cached listings of the tree before each call */
+    @State(Scope.Thread)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void invalidate(DirectoryTreeBenchmark benchmark) {
+            for (Path directory : benchmark.directories) {
+                DirectoryListingCache.getInstance().invalidate(directory);
+            }
+        }
+    }
+
+    @Benchmark
+    public void cachedListings() throws IOException {
+        FilesImporter.generateDirectoryTree(root.toString(), levels, null, pageSize, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void uncachedListings(ColdCache coldCache) throws IOException {
+        FilesImporter.generateDirectoryTree(root.toString(), levels, null, pageSize, OutputStream.nullOutputStream());
+    }
+}
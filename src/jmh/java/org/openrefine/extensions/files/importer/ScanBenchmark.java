@@ -0,0 +1,134 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.ProjectManager;
+import com.google.refine.ProjectMetadata;
+import com.google.refine.io.FileProjectManager;
+import com.google.refine.model.Project;
+import com.google.refine.util.ParsingUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of an import on the synthetic trees: listing the files and
+ * reading their attributes, as the preview does, hashing them as well, as the
+ * project creation does, and building the project rows on top of that, with or
+ * without looking for duplicate files.
+ * <p>
+ * The checksum cache is disabled, so every file is read on every operation, from
+ * the page cache once the first iteration has read it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+
+    @Param({"SMALL_FILES", "LARGE_FILES", "DEEP_TREE"})
+    public BenchmarkTree.Layout layout;
+
+    @Param({"4"})
+    public int scanThreads;
+
+    private Path root;
+    private final List<Long> projectIds = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = BenchmarkTree.create(layout);
+        // projects read their metadata from the project manager when they are updated
+        if (ProjectManager.singleton == null) {
+            FileProjectManager.initialize(Files.createTempDirectory("files-extension-workspace").toFile());
+        }
+    }
+
+    /** Forgets the projects of the iteration, which the project manager would keep in memory */
+    @TearDown(Level.Iteration)
+    public void deleteProjects() {
+        projectIds.forEach(ProjectManager.singleton::deleteProject);
+        projectIds.clear();
+    }
+
+    /** Lists the tree and reads the attributes of every file, without reading any file */
+    @Benchmark
+    public void listFiles(ScanCounters counters, Blackhole blackhole) throws IOException {
+        scan(ChecksumAlgorithm.NONE, counters, blackhole);
+    }
+
+    /** Lists the tree and computes the SHA-256 checksum of every file */
+    @Benchmark
+    public void scanWithChecksums(ScanCounters counters, Blackhole blackhole) throws IOException {
+        scan(ChecksumAlgorithm.SHA256, counters, blackhole);
+    }
+
+    /** Creates the rows of a project, with SHA-256 checksums, as the import does */
+    @Benchmark
+    public Project loadData(ScanCounters counters) throws Exception {
+        Project project = createProject();
+        FilesImporter.loadData(project, getOptions(ChecksumAlgorithm.SHA256));
+        counters.files += project.rows.size();
+        counters.bytes += layout.getTotalBytes();
+        return project;
+    }
+
+    /**
+     * Creates the rows of a project looking for duplicates, which holds the records
+     * of the whole tree until they are all read; the GC profiler shows their cost
+     */
+    @Benchmark
+    public Project loadDuplicates(ScanCounters counters) throws Exception {
+        Project project = createProject();
+        ObjectNode options = getOptions(ChecksumAlgorithm.SHA256);
+        options.put("duplicatesMode", true);
+        FilesImporter.loadData(project, options);
+        counters.files += project.rows.size();
+        return project;
+    }
+
+    private Project createProject() {
+        Project project = new Project();
+        ProjectManager.singleton.registerProject(project, new ProjectMetadata());
+        projectIds.add(project.id);
+        return project;
+    }
+
+    private void scan(ChecksumAlgorithm algorithm, ScanCounters counters, Blackhole blackhole) throws IOException {
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(getOptions(algorithm)))) {
+            scanner.scan(record -> {
+                counters.add(record);
+                blackhole.consume(record);
+            });
+        }
+    }
+
+    private ObjectNode getOptions(ChecksumAlgorithm algorithm) {
+        ObjectNode options = ParsingUtilities.mapper.createObjectNode();
+        options.putArray("directoryJsonValue").addObject().put("directory", root.toString());
+        options.put("maxDepth", ScanOptions.UNLIMITED_DEPTH);
+        options.put("scanThreads", scanThreads);
+        options.put("checksumAlgorithm", algorithm.getId());
+        options.put("useChecksumCache", false);
+        return options;
+    }
+}
@@ -0,0 +1,29 @@
+package org.openrefine.extensions.files.importer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Files and bytes processed by a benchmark, which JMH reports as rates next to
+ * the operation rate: "files" in files/s and "bytes" in bytes/s.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ScanCounters {
+    public long files;
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        files = 0;
+        bytes = 0;
+    }
+
+    void add(FileRecord record) {
+        files++;
+        bytes += Math.max(0, record.getSize());
+    }
+}
@@ -0,0 +1,69 @@
+package org.openrefine.extensions.files.commands;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.history.HistoryEntry;
+import com.google.refine.model.Project;
+import com.google.refine.model.changes.MassRowChange;
+import com.google.refine.process.LongRunningProcess;
+import org.openrefine.extensions.files.importer.FileScanner;
+import org.openrefine.extensions.files.importer.FilesRefresher;
+import org.openrefine.extensions.files.importer.ScanOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-scans the directories of a files project in the background and applies the
+ * added, changed and removed rows as a single history entry, which can be undone
+ * like any other operation. The rows are built from the scanned files and the rows
+ * of the project as they are once the scan is complete, so edits made meanwhile
+ * are kept.
+ */
+public class RefreshFilesProcess extends LongRunningProcess implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger("RefreshFilesProcess");
+
+    private final Project project;
+    private final ScanOptions scanOptions;
+    private final long historyEntryID;
+
+    public RefreshFilesProcess(Project project, ObjectNode importOptions) {
+        super("Refresh files from disk");
+        this.project = project;
+        this.scanOptions = ScanOptions.fromJson(importOptions);
+        this.historyEntryID = HistoryEntry.allocateID();
+    }
+
+    @Override
+    protected Runnable getRunnable() {
+        return this;
+    }
+
+    @Override
+    public void run() {
+        try (FileScanner scanner = new FileScanner(scanOptions)) {
+            FilesRefresher.Scan scan = FilesRefresher.scan(project, scanner, () -> {
+                if (_canceled) {
+                    scanner.cancel();
+                }
+                // unknown until every directory is listed
+                _progress = Math.max(0, scanner.getProgress().getPercent());
+            });
+            if (!_canceled) {
+                synchronized (project) {
+                    FilesRefresher.Result result = FilesRefresher.buildRows(project, scan);
+                    String description = String.format("Refresh files from disk: %d added, %d changed, %d removed",
+                            result.added, result.changed, result.removed);
+                    HistoryEntry historyEntry = new HistoryEntry(historyEntryID, project, description, null,
+                            new MassRowChange(result.rows));
+                    project.history.addEntry(historyEntry);
+                }
+                _progress = 100;
+                project.processManager.onDoneProcess(this);
+            }
+        } catch (Exception e) {
+            if (!_canceled) {
+                logger.error("Refresh of project {} failed", project.id, e);
+                project.processManager.onFailedProcess(this, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.openrefine.extensions.files.commands;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.commands.Command;
+import com.google.refine.commands.HttpUtilities;
+import com.google.refine.model.Project;
+import org.openrefine.extensions.files.importer.FilesRefresher;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Refreshes a project created from local directories with the current state of
+ * those directories. Diff and duplicates projects are refused.
+ */
+public class RefreshFilesProjectCommand extends Command {
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (!hasValidCSRFToken(request)) {
+            respondCSRFError(response);
+            return;
+        }
+
+        try {
+            Project project = getProject(request);
+            ObjectNode importOptions = FilesRefresher.getImportOptions(getProjectMetadata(request));
+            if (importOptions == null) {
+                HttpUtilities.respond(response, "error", "This project was not created from local directories");
+                return;
+            }
+            if (!FilesRefresher.isRefreshable(importOptions)) {
+                HttpUtilities.respond(response, "error", "Diff and duplicates projects cannot be refreshed, they have to be created again");
+                return;
+            }
+            performProcessAndRespond(request, response, project, new RefreshFilesProcess(project, importOptions));
+        } catch (Exception e) {
+            respondException(response, e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.openrefine.extensions.files.importer;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Lists the entries of archives without extracting them.
+ * <p>
+ * Zip files (and jar, war and ear files) are listed from their central directory,
+ * which holds the sizes, times and CRCs of all entries at the end of the file.
+ * Tar files are listed by reading the header of each entry and skipping its data,
+ * which seeks over it in an uncompressed tar; a compressed tar has no index, so it
+ * is decompressed but its data is not kept. A gzip file holds a single entry,
+ * whose name and time are in its header and whose CRC and size are in its last
+ * bytes.
+ * <p>
+ * Entries are identified by the path of their archive followed by "!" and their
+ * name, as in "backup.zip!/docs/report.pdf". Directory entries are not listed.
+ */
+class ArchiveEntryReader {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_FLAG_EXTRA = 4;
+    private static final int GZIP_FLAG_NAME = 8;
+
+    private enum Format {
+        ZIP, TAR, TAR_GZ, GZIP
+    }
+
+    private static Format getFormat(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip") || name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".ear")) {
+            return Format.ZIP;
+        } else if (name.endsWith(".tar")) {
+            return Format.TAR;
+        } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return Format.TAR_GZ;
+        } else if (name.endsWith(".gz")) {
+            return Format.GZIP;
+        }
+        return null;
+    }
+
+    static boolean isArchive(String fileName) {
+        return getFormat(fileName) != null;
+    }
+
+    /** Returns the records of the entries of the archive, in the order they are stored */
+    static List<FileRecord> readEntries(FileRecord archive) throws IOException {
+        Format format = getFormat(archive.getFileName());
+        if (format == null) {
+            return new ArrayList<>();
+        }
+        switch (format) {
+            case ZIP:
+                return readZipEntries(archive.getPath());
+            case GZIP:
+                return readGzipEntry(archive.getPath());
+            default:
+                try (InputStream input = new BufferedInputStream(Files.newInputStream(archive.getPath()))) {
+                    return readTarEntries(archive.getPath(), format == Format.TAR_GZ ? new GZIPInputStream(input) : input);
+                }
+        }
+    }
+
+    private static List<FileRecord> readZipEntries(Path archive) throws IOException {
+        List<FileRecord> entries = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                FileRecord entry = createEntry(archive, zipEntry.getName(), zipEntry.getSize(),
+                        zipEntry.getTime(), "", "");
+                if (entry != null) {
+                    entry.setCompressedSize(zipEntry.getCompressedSize());
+                    entry.setCrc(zipEntry.getCrc() < 0 ? null : String.format("%08x", zipEntry.getCrc()));
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static List<FileRecord> readTarEntries(Path archive, InputStream input) throws IOException {
+        List<FileRecord> entries = new ArrayList<>();
+        TarArchiveInputStream tarInput = new TarArchiveInputStream(input);
+        TarArchiveEntry tarEntry;
+        while ((tarEntry = tarInput.getNextEntry()) != null) {
+            if (!tarEntry.isFile()) {
+                continue;
+            }
+            FileRecord entry = createEntry(archive, tarEntry.getName(), tarEntry.getSize(),
+                    tarEntry.getModTime().getTime(), tarEntry.getUserName(),
+                    FileMetadataReader.toPermissions(tarEntry.getMode()));
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static List<FileRecord> readGzipEntry(Path archive) throws IOException {
+        List<FileRecord> entries = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+            if (size < 18 || channel.read(header, 0) < 10 || (header.getShort(0) & 0xffff) != GZIP_MAGIC) {
+                throw new IOException("Not in gzip format");
+            }
+            int flags = header.get(3);
+            long modifiedTime = (header.getInt(4) & 0xffffffffL) * 1000;
+
+            String name = null;
+            if ((flags & GZIP_FLAG_NAME) != 0) {
+                name = readGzipName(channel, (flags & GZIP_FLAG_EXTRA) != 0);
+            }
+            if (name == null || name.isEmpty()) {
+                String fileName = archive.getFileName().toString();
+                name = fileName.substring(0, fileName.length() - ".gz".length());
+            }
+
+            // the trailer of the last member: CRC-32 and size modulo 2^32 of the uncompressed data
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(trailer, size - 8);
+            FileRecord entry = createEntry(archive, name, trailer.getInt(4) & 0xffffffffL,
+                    modifiedTime == 0 ? -1 : modifiedTime, "", "");
+            if (entry != null) {
+                entry.setCompressedSize(size);
+                entry.setCrc(String.format("%08x", trailer.getInt(0) & 0xffffffffL));
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /** Reads the zero-terminated original file name following the fixed header and the extra field */
+    private static String readGzipName(FileChannel channel, boolean hasExtraField) throws IOException {
+        long position = 10;
+        if (hasExtraField) {
+            ByteBuffer extraLength = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(extraLength, position);
+            position += 2 + (extraLength.getShort(0) & 0xffff);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        channel.read(buffer, position);
+        for (int i = 0; i < buffer.position(); i++) {
+            if (buffer.get(i) == 0) {
+                return new String(buffer.array(), 0, i, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    private static FileRecord createEntry(Path archive, String name, long size, long lastModifiedTime,
+                                          String author, String permissions) {
+        Path path;
+        try {
+            path = Paths.get(archive + "!", name);
+        } catch (InvalidPathException e) {
+            // an entry name which cannot be a path on this system
+            return null;
+        }
+        Path fileName = path.getFileName();
+        FileRecord entry = new FileRecord(path, fileName == null ? name : fileName.toString(), size,
+                lastModifiedTime, -1, author == null ? "" : author, permissions);
+        entry.setArchivePath(archive);
+        return entry;
+    }
+}
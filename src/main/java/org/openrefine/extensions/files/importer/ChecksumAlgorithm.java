@@ -0,0 +1,59 @@
+package org.openrefine.extensions.files.importer;
+
+import java.util.function.Supplier;
+
+/**
+ * Checksum algorithms which can be selected in the import options. The id is used
+ * both in the options and as the header of the checksum column.
+ */
+public enum ChecksumAlgorithm {
+    NONE("none", null),
+    SHA256("sha256", () -> FileHasher.messageDigest("SHA-256")),
+    SHA1("sha1", () -> FileHasher.messageDigest("SHA-1")),
+    MD5("md5", () -> FileHasher.messageDigest("MD5")),
+    CRC32C("crc32c", FileHasher::crc32c),
+    XXH64("xxh64", FileHasher::xxHash64);
+
+    private final String id;
+    private final Supplier<FileHasher> hasherFactory;
+
+    ChecksumAlgorithm(String id, Supplier<FileHasher> hasherFactory) {
+        this.id = id;
+        this.hasherFactory = hasherFactory;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getColumnName() {
+        return id;
+    }
+
+    public boolean isEnabled() {
+        return hasherFactory != null;
+    }
+
+    public FileHasher newHasher() {
+        if (hasherFactory == null) {
+            throw new IllegalStateException("Checksums are disabled");
+        }
+        return hasherFactory.get();
+    }
+
+    /**
+     * Looks an algorithm up by id, ignoring case and dashes so that JDK names such as
+     * "SHA-256" are accepted too. Unknown or missing names fall back to SHA-256.
+     */
+    public static ChecksumAlgorithm fromId(String id) {
+        if (id != null) {
+            String normalized = id.replace("-", "").toLowerCase();
+            for (ChecksumAlgorithm algorithm : values()) {
+                if (algorithm.id.equals(normalized)) {
+                    return algorithm;
+                }
+            }
+        }
+        return SHA256;
+    }
+}
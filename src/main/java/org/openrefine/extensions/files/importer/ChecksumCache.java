@@ -0,0 +1,218 @@
+package org.openrefine.extensions.files.importer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of file checksums, stored in the OpenRefine workspace.
+ * <p>
+ * Entries are keyed by algorithm, absolute path and file key (inode) and are only
+ * reused when the size and last modification time of the file are unchanged, so a
+ * re-scan of an unchanged tree only needs to stat the files. The cache is bounded
+ * both in entries and in estimated heap size, and evicts the least recently used
+ * entries. The size limit defaults to {@value #DEFAULT_MAX_MB}MB and can be changed
+ * with the {@value #MAX_MB_PREFERENCE} preference. A single instance is shared by all
+ * import jobs; it is written back atomically so that a crash or a concurrent save
+ * never leaves a truncated cache file behind.
+ */
+public class ChecksumCache {
+    private static final Logger logger = LoggerFactory.getLogger("ChecksumCache");
+    private static final String CACHE_FILE_NAME = "checksum-cache.bin";
+    private static final int FORMAT_MAGIC = 0x4f524643; // "ORFC"
+    private static final int FORMAT_VERSION = 1;
+    public static final int DEFAULT_MAX_ENTRIES = 200_000;
+    public static final long DEFAULT_MAX_MB = 32;
+    public static final String MAX_MB_PREFERENCE = "files.checksumCacheMaxMB";
+    // estimated heap cost of an entry besides its strings: map node, value and string headers
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private static ChecksumCache instance;
+
+    private final File cacheFile;
+    private final int maxEntries;
+    private final long maxBytes;
+    private long bytes = 0;
+    private final LinkedHashMap<String, CachedChecksum> entries;
+    private final Object saveLock = new Object();
+    private boolean dirty = false;
+
+    private static class CachedChecksum {
+        final long size;
+        final long lastModified;
+        final String checksum;
+
+        CachedChecksum(long size, long lastModified, String checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Returns the cache of the current workspace, or null when OpenRefine runs
+     * without a file-based workspace.
+     */
+    public static synchronized ChecksumCache getInstance() {
+        if (instance == null) {
+            File dataDir = FilesImporter.getExtensionDataDir();
+            if (dataDir == null) {
+                return null;
+            }
+            long maxMB = FilesImporter.getLongPreference(MAX_MB_PREFERENCE, DEFAULT_MAX_MB);
+            instance = new ChecksumCache(new File(dataDir, CACHE_FILE_NAME), DEFAULT_MAX_ENTRIES, maxMB * 1024 * 1024);
+        }
+        return instance;
+    }
+
+    public ChecksumCache(File cacheFile, int maxEntries) {
+        this(cacheFile, maxEntries, Long.MAX_VALUE);
+    }
+
+    public ChecksumCache(File cacheFile, int maxEntries, long maxBytes) {
+        this.cacheFile = cacheFile;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        load();
+    }
+
+    private static long entryBytes(String key, CachedChecksum entry) {
+        return ENTRY_OVERHEAD_BYTES + key.length() + entry.checksum.length();
+    }
+
+    private void putEntry(String key, CachedChecksum entry) {
+        CachedChecksum previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= entryBytes(key, previous);
+        }
+        bytes += entryBytes(key, entry);
+        Iterator<Map.Entry<String, CachedChecksum>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            Map.Entry<String, CachedChecksum> mapEntry = eldest.next();
+            bytes -= entryBytes(mapEntry.getKey(), mapEntry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static String key(Path path, BasicFileAttributes attrs, String algorithm) {
+        Object fileKey = attrs.fileKey();
+        return algorithm + '\0' + path.toAbsolutePath() + '\0' + (fileKey == null ? "" : fileKey.toString());
+    }
+
+    private static long lastModified(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the cached checksum of the file, or null if it is unknown or the file
+     * changed since it was computed.
+     */
+    public synchronized String get(Path path, BasicFileAttributes attrs, String algorithm) {
+        CachedChecksum entry = entries.get(key(path, attrs, algorithm));
+        if (entry != null && entry.size == attrs.size() && entry.lastModified == lastModified(attrs)) {
+            return entry.checksum;
+        }
+        return null;
+    }
+
+    public synchronized void put(Path path, BasicFileAttributes attrs, String algorithm, String checksum) {
+        putEntry(key(path, attrs, algorithm), new CachedChecksum(attrs.size(), lastModified(attrs), checksum));
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the cache back to the workspace if it changed. The entries are copied
+     * under the lock and written outside of it, so scans are not blocked by the I/O.
+     */
+    public void save() {
+        synchronized (saveLock) {
+            List<Map.Entry<String, CachedChecksum>> snapshot;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                snapshot = new ArrayList<>(entries.entrySet());
+                dirty = false;
+            }
+            Path target = cacheFile.toPath();
+            Path tempFile = null;
+            try {
+                tempFile = Files.createTempFile(target.getParent(), CACHE_FILE_NAME, ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    out.writeInt(FORMAT_MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(snapshot.size());
+                    // least recently used first, so that loading restores the access order
+                    for (Map.Entry<String, CachedChecksum> mapEntry : snapshot) {
+                        CachedChecksum entry = mapEntry.getValue();
+                        out.writeUTF(mapEntry.getKey());
+                        out.writeLong(entry.size);
+                        out.writeLong(entry.lastModified);
+                        out.writeUTF(entry.checksum);
+                    }
+                }
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // the entries are written again on the next save
+                synchronized (this) {
+                    dirty = true;
+                }
+                logger.warn("--- checksumCache. Failed to save checksum cache: " + e.getMessage());
+            } finally {
+                // only left behind when the write or the move failed
+                if (tempFile != null) {
+                    try {
+                        Files.deleteIfExists(tempFile);
+                    } catch (IOException e) {
+                        logger.info("--- checksumCache. Failed to delete " + tempFile + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (!cacheFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != FORMAT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                logger.info("--- checksumCache. Ignoring checksum cache with unknown format: " + cacheFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String checksum = in.readUTF();
+                putEntry(key, new CachedChecksum(size, lastModified, checksum));
+            }
+        } catch (IOException e) {
+            logger.info("--- checksumCache. Failed to load checksum cache: " + e.getMessage());
+            entries.clear();
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.openrefine.extensions.files.importer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of the subdirectories of directories, used by the directory
+ * browser so that expanding the same folders again does not list them again.
+ * <p>
+ * Each cached directory is registered with a {@link WatchService}, and its entry
+ * is dropped as soon as a file is created or deleted in it. Where a directory
+ * cannot be watched, its entry expires after a fixed time instead. The cache is
+ * bounded by the total number of cached names and evicts the least recently used
+ * directories. Directories with more subdirectories than a per-directory limit are
+ * not cached: only the fact that they are too large is, and callers list them one
+ * page at a time instead. Concurrent requests for a directory which is being listed
+ * wait for that listing rather than starting their own.
+ */
+public class DirectoryListingCache {
+    private static final Logger logger = LoggerFactory.getLogger("DirectoryListingCache");
+    public static final int DEFAULT_MAX_NAMES = 200_000;
+    public static final int DEFAULT_MAX_DIRECTORY_NAMES = 10_000;
+    public static final long DEFAULT_UNWATCHED_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /** Order of the directories in listings, case-insensitive with a case-sensitive tie-break */
+    public static final Comparator<String> NAME_ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private static DirectoryListingCache instance;
+
+    private final int maxNames;
+    private final int maxDirectoryNames;
+    private final long unwatchedTtlMillis;
+    private final LinkedHashMap<Path, Listing> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final WatchService watchService;
+    private long cachedNames = 0;
+
+    private static class Listing {
+        // null for a directory with too many subdirectories to be cached
+        final CompletableFuture<List<String>> names = new CompletableFuture<>();
+        WatchKey watchKey;
+        // 0 while the directory is watched
+        long expiresAt;
+        // number of names accounted for in the cache size, 0 until the listing is stored
+        int weight;
+    }
+
+    public static synchronized DirectoryListingCache getInstance() {
+        if (instance == null) {
+            instance = new DirectoryListingCache(DEFAULT_MAX_NAMES, DEFAULT_MAX_DIRECTORY_NAMES, DEFAULT_UNWATCHED_TTL_MILLIS);
+        }
+        return instance;
+    }
+
+    public DirectoryListingCache(int maxNames, long unwatchedTtlMillis) {
+        this(maxNames, DEFAULT_MAX_DIRECTORY_NAMES, unwatchedTtlMillis);
+    }
+
+    public DirectoryListingCache(int maxNames, int maxDirectoryNames, long unwatchedTtlMillis) {
+        this.maxNames = maxNames;
+        this.maxDirectoryNames = Math.min(maxNames, maxDirectoryNames);
+        this.unwatchedTtlMillis = unwatchedTtlMillis;
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.info("--- directoryHierarchy - Directory changes cannot be watched, cached listings expire instead: " + e.getMessage());
+        }
+        this.watchService = service;
+        if (service != null) {
+            // started once the field is set, as the thread reads it
+            Thread watcher = new Thread(this::processEvents, "files-directory-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Returns the names of the subdirectories of the directory, sorted in
+     * {@link #NAME_ORDER}. Directories which cannot be read have no subdirectories.
+     *
+     * @return the names, or null if the directory has more subdirectories than are
+     *         cached for a single directory, in which case it has to be listed directly
+     */
+    public List<String> getSubdirectories(Path dir) {
+        Path key = dir.toAbsolutePath().normalize();
+        Listing listing;
+        boolean load = false;
+        synchronized (this) {
+            listing = entries.get(key);
+            if (listing != null && listing.expiresAt != 0 && listing.expiresAt < System.currentTimeMillis()) {
+                remove(key);
+                listing = null;
+            }
+            if (listing == null) {
+                listing = new Listing();
+                listing.expiresAt = Long.MAX_VALUE; // not expiring while it is being loaded
+                entries.put(key, listing);
+                load = true;
+            }
+        }
+        if (load) {
+            load(key, listing);
+        }
+        return listing.names.join();
+    }
+
+    /** Drops the cached listing of the directory, if any */
+    public synchronized void invalidate(Path dir) {
+        remove(dir.toAbsolutePath().normalize());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void load(Path dir, Listing listing) {
+        // watch before listing, so that a change made during the listing is not missed
+        WatchKey watchKey = null;
+        if (watchService != null) {
+            try {
+                watchKey = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException | UnsupportedOperationException e) {
+                // too many watches or a file system without change notifications
+            }
+        }
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                if (Files.isDirectory(child)) {
+                    if (names.size() == maxDirectoryNames) {
+                        // only remember that the directory is too large
+                        names = null;
+                        break;
+                    }
+                    names.add(child.getFileName().toString());
+                }
+            }
+        } catch (Exception e) {
+            // do nothing - Security exception
+        }
+        if (names != null) {
+            names.sort(NAME_ORDER);
+        }
+
+        synchronized (this) {
+            listing.watchKey = watchKey;
+            listing.expiresAt = watchKey != null ? 0 : System.currentTimeMillis() + unwatchedTtlMillis;
+            if (entries.get(dir) == listing) {
+                listing.weight = (names == null ? 0 : names.size()) + 1;
+                cachedNames += listing.weight;
+                evict();
+            } else if (watchKey != null && !entries.containsKey(dir)) {
+                // invalidated while it was being listed, and not reloaded since
+                // (a reload registers the directory again and gets the same key)
+                watchKey.cancel();
+            }
+        }
+        listing.names.complete(names == null ? null : Collections.unmodifiableList(names));
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Listing>> iterator = entries.entrySet().iterator();
+        while (cachedNames > maxNames && iterator.hasNext()) {
+            Listing eldest = iterator.next().getValue();
+            if (eldest.weight == 0) {
+                continue;
+            }
+            iterator.remove();
+            release(eldest);
+        }
+    }
+
+    private void remove(Path dir) {
+        Listing listing = entries.remove(dir);
+        if (listing != null && listing.weight > 0) {
+            release(listing);
+        }
+    }
+
+    private void release(Listing listing) {
+        cachedNames -= listing.weight;
+        if (listing.watchKey != null) {
+            listing.watchKey.cancel();
+        }
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                watchKey.pollEvents();
+                // cancels the key, unless the directory is being listed again and still needs it
+                invalidate((Path) watchKey.watchable());
+                watchKey.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the watcher thread only stops with the JVM
+        }
+    }
+}
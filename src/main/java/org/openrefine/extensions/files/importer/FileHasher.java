@@ -0,0 +1,73 @@
+package org.openrefine.extensions.files.importer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * Incremental hash over the content of a file, created by {@link ChecksumAlgorithm#newHasher()}.
+ * Cryptographic digests, JDK checksums and xxHash64 are all used through this interface.
+ */
+public interface FileHasher {
+
+    void update(ByteBuffer buffer);
+
+    default void update(byte[] bytes, int offset, int length) {
+        update(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /** Returns the hash of the data seen so far, most significant byte first. */
+    byte[] digest();
+
+    static FileHasher messageDigest(String algorithm) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+        return new FileHasher() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                messageDigest.update(buffer);
+            }
+
+            @Override
+            public byte[] digest() {
+                return messageDigest.digest();
+            }
+        };
+    }
+
+    static FileHasher crc32c() {
+        CRC32C crc = new CRC32C();
+        return new FileHasher() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                crc.update(buffer);
+            }
+
+            @Override
+            public byte[] digest() {
+                return ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.BIG_ENDIAN).putInt((int) crc.getValue()).array();
+            }
+        };
+    }
+
+    static FileHasher xxHash64() {
+        XxHash64 xxHash = new XxHash64(0);
+        return new FileHasher() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                xxHash.update(buffer);
+            }
+
+            @Override
+            public byte[] digest() {
+                return ByteBuffer.allocate(Long.BYTES).order(ByteOrder.BIG_ENDIAN).putLong(xxHash.getValue()).array();
+            }
+        };
+    }
+}
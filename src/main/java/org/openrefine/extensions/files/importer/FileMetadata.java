@@ -0,0 +1,95 @@
+package org.openrefine.extensions.files.importer;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Attributes of a file as read by {@link FileMetadataReader} with a single call,
+ * including the owner and permissions when the file store provides them.
+ */
+public class FileMetadata implements BasicFileAttributes {
+    private final FileTime lastModifiedTime;
+    private final FileTime lastAccessTime;
+    private final FileTime creationTime;
+    private final boolean regularFile;
+    private final boolean directory;
+    private final boolean symbolicLink;
+    private final boolean other;
+    private final long size;
+    private final Object fileKey;
+    // numeric owner and mode, or -1 when the file store does not expose them
+    final int uid;
+    final int mode;
+    // resolved owner and permissions for file stores without numeric ones, or null
+    final String ownerName;
+    final String permissions;
+
+    FileMetadata(BasicFileAttributes attrs, int uid, int mode, String ownerName, String permissions) {
+        this(attrs.lastModifiedTime(), attrs.lastAccessTime(), attrs.creationTime(), attrs.isRegularFile(),
+                attrs.isDirectory(), attrs.isSymbolicLink(), attrs.isOther(), attrs.size(), attrs.fileKey(),
+                uid, mode, ownerName, permissions);
+    }
+
+    FileMetadata(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime creationTime,
+                 boolean regularFile, boolean directory, boolean symbolicLink, boolean other,
+                 long size, Object fileKey, int uid, int mode, String ownerName, String permissions) {
+        this.lastModifiedTime = lastModifiedTime;
+        this.lastAccessTime = lastAccessTime;
+        this.creationTime = creationTime;
+        this.regularFile = regularFile;
+        this.directory = directory;
+        this.symbolicLink = symbolicLink;
+        this.other = other;
+        this.size = size;
+        this.fileKey = fileKey;
+        this.uid = uid;
+        this.mode = mode;
+        this.ownerName = ownerName;
+        this.permissions = permissions;
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return lastAccessTime;
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return creationTime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return regularFile;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return symbolicLink;
+    }
+
+    @Override
+    public boolean isOther() {
+        return other;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Object fileKey() {
+        return fileKey;
+    }
+}
@@ -0,0 +1,152 @@
+package org.openrefine.extensions.files.importer;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the metadata of scanned files with one attribute call per file.
+ * <p>
+ * On Unix file stores the numeric owner and mode are read together with the basic
+ * attributes, and turned into names through caches, so that neither an owner lookup
+ * nor a permissions call is made for every file. Other POSIX stores get their
+ * attributes in one {@link PosixFileAttributes} read. The capabilities of a file
+ * store are checked once per store. An instance is meant to be used for one scan
+ * and is safe to share between its threads.
+ */
+public class FileMetadataReader {
+    private static final String unixAttributes = "unix:size,lastModifiedTime,lastAccessTime,creationTime,"
+            + "isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey,mode,uid";
+    private static final String[] permissionStrings = new String[01000];
+
+    static {
+        String letters = "rwxrwxrwx";
+        for (int mode = 0; mode < permissionStrings.length; mode++) {
+            StringBuilder permissions = new StringBuilder(9);
+            for (int bit = 0; bit < 9; bit++) {
+                permissions.append((mode & (0400 >> bit)) != 0 ? letters.charAt(bit) : '-');
+            }
+            permissionStrings[mode] = permissions.toString();
+        }
+    }
+
+    /** Attribute views supported by a file store */
+    public static class StoreFeatures {
+        static final StoreFeatures BASIC = new StoreFeatures(false, false);
+
+        final boolean unix;
+        final boolean posix;
+
+        StoreFeatures(boolean unix, boolean posix) {
+            this.unix = unix;
+            this.posix = posix;
+        }
+    }
+
+    private final Map<FileStore, StoreFeatures> storeFeatures = new ConcurrentHashMap<>();
+    private final Map<Integer, String> ownerNamesByUid = new ConcurrentHashMap<>();
+    private final Map<UserPrincipal, String> ownerNamesByPrincipal = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the features of the file store holding the given directory. The store
+     * is looked up per directory, since the entries of a directory share its store,
+     * and its capabilities are only checked the first time the store is seen.
+     */
+    public StoreFeatures getStoreFeatures(Path directory) {
+        return getStoreFeatures(getFileStore(directory));
+    }
+
+    /** Returns the features of the file store, or the basic ones if it is null */
+    public StoreFeatures getStoreFeatures(FileStore store) {
+        if (store == null) {
+            return StoreFeatures.BASIC;
+        }
+        return storeFeatures.computeIfAbsent(store, s -> new StoreFeatures(
+                s.supportsFileAttributeView("unix"),
+                s.supportsFileAttributeView(PosixFileAttributeView.class)));
+    }
+
+    /** Returns the file store holding the file or directory, or null if it cannot be found */
+    public FileStore getFileStore(Path path) {
+        try {
+            return Files.getFileStore(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public FileMetadata read(Path file, StoreFeatures features, LinkOption... options) throws IOException {
+        if (features.unix) {
+            Map<String, Object> attrs = Files.readAttributes(file, unixAttributes, options);
+            return new FileMetadata(
+                    (FileTime) attrs.get("lastModifiedTime"),
+                    (FileTime) attrs.get("lastAccessTime"),
+                    (FileTime) attrs.get("creationTime"),
+                    (Boolean) attrs.get("isRegularFile"),
+                    (Boolean) attrs.get("isDirectory"),
+                    (Boolean) attrs.get("isSymbolicLink"),
+                    (Boolean) attrs.get("isOther"),
+                    (Long) attrs.get("size"),
+                    attrs.get("fileKey"),
+                    (Integer) attrs.get("uid"),
+                    (Integer) attrs.get("mode"),
+                    null,
+                    null);
+        } else if (features.posix) {
+            PosixFileAttributes attrs = Files.readAttributes(file, PosixFileAttributes.class, options);
+            String ownerName = ownerNamesByPrincipal.computeIfAbsent(attrs.owner(), UserPrincipal::getName);
+            return new FileMetadata(attrs, -1, -1, ownerName, PosixFilePermissions.toString(attrs.permissions()));
+        } else {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, options);
+            return new FileMetadata(attrs, -1, -1, null, "");
+        }
+    }
+
+    /**
+     * Name of the owner of the file, or an empty string if it is not available. The
+     * owner is looked up the way the metadata was read: attributes read through a
+     * link describe its target, which is then the file whose owner is named.
+     */
+    public String getOwnerName(Path file, FileMetadata metadata) {
+        if (metadata.ownerName != null) {
+            return metadata.ownerName;
+        }
+        String ownerName = metadata.uid >= 0 ? ownerNamesByUid.get(metadata.uid) : null;
+        if (ownerName == null) {
+            LinkOption[] options = metadata.isSymbolicLink() ? new LinkOption[] { LinkOption.NOFOLLOW_LINKS } : new LinkOption[0];
+            try {
+                ownerName = Files.getOwner(file, options).getName();
+            } catch (Exception e) {
+                // File owner may not always be available
+                ownerName = "";
+            }
+            if (metadata.uid >= 0) {
+                ownerNamesByUid.put(metadata.uid, ownerName);
+            }
+        }
+        return ownerName;
+    }
+
+    /** Permissions in the "rwxr-x---" form, or an empty string if they are not available */
+    public String getPermissions(FileMetadata metadata) {
+        if (metadata.mode >= 0) {
+            return toPermissions(metadata.mode);
+        }
+        return metadata.permissions == null ? "" : metadata.permissions;
+    }
+
+    /** Permissions in the "rwxr-x---" form of a Unix mode */
+    static String toPermissions(int mode) {
+        return permissionStrings[mode & 0777];
+    }
+}
@@ -0,0 +1,175 @@
+package org.openrefine.extensions.files.importer;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Details of a single scanned file, as produced by {@link FileScanner}.
+ * Values are kept in their raw form and only formatted when rows are written.
+ */
+public class FileRecord {
+    public static final String STATUS_OK = "ok";
+    /** The file could not be locked in time, so its content was not read */
+    public static final String STATUS_LOCKED = "locked";
+    /** Some details of the file could not be read */
+    public static final String STATUS_ERROR = "error";
+
+    private final Path path;
+    private final String fileName;
+    private final long size;
+    private final long lastModifiedTime;
+    private final long creationTime;
+    private final String author;
+    private final String permissions;
+    private String checksum = "";
+    private String quickFingerprint;
+    private String status = STATUS_OK;
+    private Path root;
+    private String mimeType;
+    private String contentSnippet;
+    private Path archivePath;
+    private long compressedSize = -1;
+    private String crc;
+    private List<FileRecord> archiveEntries = Collections.emptyList();
+
+    public FileRecord(Path path, String fileName, long size, long lastModifiedTime, long creationTime,
+                      String author, String permissions) {
+        this.path = path;
+        this.fileName = fileName;
+        this.size = size;
+        this.lastModifiedTime = lastModifiedTime;
+        this.creationTime = creationTime;
+        this.author = author;
+        this.permissions = permissions;
+    }
+
+    /** Record for a file whose attributes could not be read at all */
+    public static FileRecord unreadable(Path path) {
+        Path fileName = path.getFileName();
+        FileRecord record = new FileRecord(path.toAbsolutePath(), fileName == null ? path.toString() : fileName.toString(),
+                -1, -1, -1, "", "");
+        record.setStatus(STATUS_ERROR);
+        return record;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** The selected directory the file was found under, or null if unknown */
+    public Path getRoot() {
+        return root;
+    }
+
+    public void setRoot(Path root) {
+        this.root = root;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /** Size of the file in bytes, or -1 if unknown */
+    public long getSize() {
+        return size;
+    }
+
+    /** Last modification time in epoch milliseconds, or -1 if unknown */
+    public long getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    /** Creation time in epoch milliseconds, or -1 if unknown */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getPermissions() {
+        return permissions;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    /** Hash of the size and of sampled blocks of the file, or null if it was not computed */
+    public String getQuickFingerprint() {
+        return quickFingerprint;
+    }
+
+    public void setQuickFingerprint(String quickFingerprint) {
+        this.quickFingerprint = quickFingerprint;
+    }
+
+    /** Type of the file detected from its first bytes, or null if it was not detected */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    /** The first characters of a text file, or null if they were not read or the file is not text */
+    public String getContentSnippet() {
+        return contentSnippet;
+    }
+
+    public void setContentSnippet(String contentSnippet) {
+        this.contentSnippet = contentSnippet;
+    }
+
+    /** One of {@link #STATUS_OK}, {@link #STATUS_LOCKED} or {@link #STATUS_ERROR} */
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /** The archive containing this entry, or null for a file on disk */
+    public Path getArchivePath() {
+        return archivePath;
+    }
+
+    public void setArchivePath(Path archivePath) {
+        this.archivePath = archivePath;
+    }
+
+    /** Compressed size of an archive entry in bytes, or -1 if unknown */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public void setCompressedSize(long compressedSize) {
+        this.compressedSize = compressedSize;
+    }
+
+    /** CRC-32 of an archive entry as stored in the archive, or null if unknown */
+    public String getCrc() {
+        return crc;
+    }
+
+    public void setCrc(String crc) {
+        this.crc = crc;
+    }
+
+    /** Records of the entries of this archive, which follow it in the scan */
+    public List<FileRecord> getArchiveEntries() {
+        return archiveEntries;
+    }
+
+    public void setArchiveEntries(List<FileRecord> archiveEntries) {
+        this.archiveEntries = archiveEntries;
+    }
+}
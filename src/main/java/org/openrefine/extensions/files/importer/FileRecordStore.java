@@ -0,0 +1,408 @@
+package org.openrefine.extensions.files.importer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scanned records held in memory in columns of primitive values rather than as
+ * {@link FileRecord} objects, for the modes which need many records at once.
+ * <p>
+ * Each record takes a few ints and longs: paths are entries of a table of
+ * (parent, name) pairs, so a directory is stored once for all the files below it;
+ * owners, extensions, permissions, statuses and types are interned; checksums and
+ * fingerprints are kept as raw digest bytes rather than hex strings, and names as
+ * UTF-8 bytes. Records are only turned back into objects, and their values into
+ * strings, when they are read, which is when their rows are built. The columns
+ * are those of a {@link ScanSnapshot}, which writes them as they are.
+ * <p>
+ * A store is filled and read from a single thread.
+ */
+public class FileRecordStore {
+    static final int NULL_ID = -1;
+
+    static final byte HAS_CHECKSUM = 1;
+    static final byte HAS_QUICK_FINGERPRINT = 2;
+    static final byte HAS_CRC = 4;
+
+    final ScanOptions scanOptions;
+    final int checksumBytes;
+    final int quickFingerprintBytes;
+    final StringTable strings = new StringTable();
+    final IntColumn pathParents = new IntColumn();
+    final IntColumn pathNames = new IntColumn();
+    final IntColumn path = new IntColumn();
+    final IntColumn root = new IntColumn();
+    final IntColumn extension = new IntColumn();
+    final LongColumn size = new LongColumn();
+    final LongColumn lastModifiedTime = new LongColumn();
+    final LongColumn creationTime = new LongColumn();
+    final IntColumn owner = new IntColumn();
+    final IntColumn permissions = new IntColumn();
+    final IntColumn status = new IntColumn();
+    final ByteColumn flags = new ByteColumn();
+    final ByteColumn checksum = new ByteColumn();
+    final ByteColumn quickFingerprint = new ByteColumn();
+    final IntColumn mimeType = new IntColumn();
+    final IntColumn contentSnippet = new IntColumn();
+    final IntColumn archivePath = new IntColumn();
+    final LongColumn compressedSize = new LongColumn();
+    final IntColumn crc = new IntColumn();
+    // entries of the path table which other paths refer to: directories, roots and archives
+    private final Map<Path, Integer> pathIds = new HashMap<>();
+    private final List<Path> parentPaths = new ArrayList<>();
+
+    public FileRecordStore(ScanOptions scanOptions) {
+        this.scanOptions = scanOptions;
+        this.checksumBytes = scanOptions.getChecksumAlgorithm().isEnabled()
+                ? scanOptions.getChecksumAlgorithm().newHasher().digest().length : 0;
+        this.quickFingerprintBytes = scanOptions.hasQuickFingerprintColumn()
+                ? scanOptions.getQuickFingerprintAlgorithm().newHasher().digest().length : 0;
+    }
+
+    public int size() {
+        return path.size();
+    }
+
+    /**
+     * Adds the record and returns its index. Checksums, fingerprints and CRCs which
+     * are not hex values of the expected length are stored as missing.
+     */
+    public int add(FileRecord record) {
+        Path recordPath = record.getPath();
+        // a file system root has no name of its own, and is stored whole
+        int pathId = addPath(recordPath.getParent() == null ? NULL_ID : internPath(recordPath.getParent()),
+                recordPath.getFileName() == null ? recordPath.toString() : record.getFileName());
+        path.add(pathId);
+        if (!record.getArchiveEntries().isEmpty()) {
+            // the entries of an archive follow it and refer to it
+            pathIds.put(recordPath, pathId);
+        }
+        root.add(record.getRoot() == null ? NULL_ID : internPath(record.getRoot()));
+        extension.add(strings.intern(FilesImporter.getFileExt(record.getFileName())));
+        size.add(record.getSize());
+        lastModifiedTime.add(record.getLastModifiedTime());
+        creationTime.add(record.getCreationTime());
+        owner.add(strings.intern(record.getAuthor()));
+        permissions.add(strings.intern(record.getPermissions()));
+        status.add(strings.intern(record.getStatus()));
+        flags.add((byte) 0);
+        checksum.addZeros(checksumBytes);
+        quickFingerprint.addZeros(quickFingerprintBytes);
+        if (scanOptions.isDetectMimeType()) {
+            mimeType.add(NULL_ID);
+        }
+        if (scanOptions.isContentSnippet()) {
+            contentSnippet.add(NULL_ID);
+        }
+        if (scanOptions.isListArchiveEntries()) {
+            archivePath.add(record.getArchivePath() == null ? NULL_ID : internPath(record.getArchivePath()));
+            compressedSize.add(record.getCompressedSize());
+            Integer recordCrc = parseCrc(record.getCrc());
+            crc.add(recordCrc == null ? 0 : recordCrc);
+            if (recordCrc != null) {
+                flags.set(size() - 1, HAS_CRC);
+            }
+        }
+        setContents(size() - 1, record);
+        return size() - 1;
+    }
+
+    /** Replaces the values read from the contents of the file, once they were read */
+    void setContents(int index, FileRecord record) {
+        byte recordFlags = (byte) (flags.get(index) & HAS_CRC);
+        status.set(index, strings.intern(record.getStatus()));
+        if (checksumBytes > 0 && setDigest(checksum, index, record.getChecksum(), checksumBytes)) {
+            recordFlags |= HAS_CHECKSUM;
+        }
+        if (quickFingerprintBytes > 0 && setDigest(quickFingerprint, index, record.getQuickFingerprint(), quickFingerprintBytes)) {
+            recordFlags |= HAS_QUICK_FINGERPRINT;
+        }
+        flags.set(index, recordFlags);
+        if (scanOptions.isDetectMimeType()) {
+            mimeType.set(index, strings.intern(record.getMimeType()));
+        }
+        if (scanOptions.isContentSnippet() && (record.getContentSnippet() != null || contentSnippet.get(index) != NULL_ID)) {
+            contentSnippet.set(index, strings.add(record.getContentSnippet()));
+        }
+    }
+
+    /** Size of the file of the record in bytes, or -1 if unknown */
+    long getSize(int index) {
+        return size.get(index);
+    }
+
+    String getStatus(int index) {
+        return strings.get(status.get(index));
+    }
+
+    boolean isArchiveEntry(int index) {
+        return scanOptions.isListArchiveEntries() && archivePath.get(index) != NULL_ID;
+    }
+
+    /** Builds the record at the given index */
+    public FileRecord get(int index) {
+        int pathId = path.get(index);
+        FileRecord record = new FileRecord(getPath(pathId), strings.get(pathNames.get(pathId)),
+                size.get(index), lastModifiedTime.get(index), creationTime.get(index),
+                strings.get(owner.get(index)), strings.get(permissions.get(index)));
+        record.setStatus(strings.get(status.get(index)));
+        record.setRoot(root.get(index) == NULL_ID ? null : getPath(root.get(index)));
+        byte recordFlags = flags.get(index);
+        if ((recordFlags & HAS_CHECKSUM) != 0) {
+            record.setChecksum(checksum.toHex(index * checksumBytes, checksumBytes));
+        }
+        if ((recordFlags & HAS_QUICK_FINGERPRINT) != 0) {
+            record.setQuickFingerprint(quickFingerprint.toHex(index * quickFingerprintBytes, quickFingerprintBytes));
+        }
+        if (scanOptions.isDetectMimeType()) {
+            record.setMimeType(strings.get(mimeType.get(index)));
+        }
+        if (scanOptions.isContentSnippet()) {
+            record.setContentSnippet(strings.get(contentSnippet.get(index)));
+        }
+        if (scanOptions.isListArchiveEntries()) {
+            record.setArchivePath(archivePath.get(index) == NULL_ID ? null : getPath(archivePath.get(index)));
+            record.setCompressedSize(compressedSize.get(index));
+            if ((recordFlags & HAS_CRC) != 0) {
+                record.setCrc(String.format("%08x", crc.get(index) & 0xffffffffL));
+            }
+        }
+        return record;
+    }
+
+    private int addPath(int parent, String name) {
+        pathParents.add(parent);
+        pathNames.add(strings.add(name));
+        return pathParents.size() - 1;
+    }
+
+    private int internPath(Path dir) {
+        Integer id = pathIds.get(dir);
+        if (id == null) {
+            Path parent = dir.getParent();
+            Path name = dir.getFileName();
+            id = parent == null || name == null
+                    ? addPath(NULL_ID, dir.toString())
+                    : addPath(internPath(parent), name.toString());
+            pathIds.put(dir, id);
+        }
+        return id;
+    }
+
+    private Path getPath(int id) {
+        int parent = pathParents.get(id);
+        String name = strings.get(pathNames.get(id));
+        return parent == NULL_ID ? Paths.get(name) : getParentPath(parent).resolve(name);
+    }
+
+    /** Paths which other paths refer to are built once */
+    private Path getParentPath(int id) {
+        while (parentPaths.size() <= id) {
+            parentPaths.add(null);
+        }
+        Path parentPath = parentPaths.get(id);
+        if (parentPath == null) {
+            parentPath = getPath(id);
+            parentPaths.set(id, parentPath);
+        }
+        return parentPath;
+    }
+
+    /** Sets the bytes of a hex digest, or zeros if there is none, and returns whether there was one */
+    private static boolean setDigest(ByteColumn column, int index, String hex, int length) {
+        boolean valid = hex != null && hex.length() == 2 * length && isHex(hex);
+        for (int i = 0; i < length; i++) {
+            int value = valid ? Character.digit(hex.charAt(2 * i), 16) << 4 | Character.digit(hex.charAt(2 * i + 1), 16) : 0;
+            column.set(index * length + i, (byte) value);
+        }
+        return valid;
+    }
+
+    /** The CRC-32 of an archive entry, or null if there is none or it is not a 32-bit hex value */
+    private static Integer parseCrc(String hex) {
+        if (hex == null || hex.isEmpty() || hex.length() > 8 || !isHex(hex)) {
+            return null;
+        }
+        return (int) Long.parseLong(hex, 16);
+    }
+
+    private static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** A growing column of values, which can be written out one value at a time */
+    interface Values {
+        int size();
+
+        void put(ByteBuffer buffer, int index);
+    }
+
+    static class IntColumn implements Values {
+        private int[] values = new int[1024];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        void set(int index, int value) {
+            values[index] = value;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void put(ByteBuffer buffer, int index) {
+            buffer.putInt(values[index]);
+        }
+    }
+
+    static class LongColumn implements Values {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void put(ByteBuffer buffer, int index) {
+            buffer.putLong(values[index]);
+        }
+    }
+
+    static class ByteColumn implements Values {
+        private byte[] values = new byte[1024];
+        private int size;
+
+        void add(byte value) {
+            ensureCapacity(1);
+            values[size++] = value;
+        }
+
+        void add(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, values, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void addZeros(int length) {
+            ensureCapacity(length);
+            size += length;
+        }
+
+        byte get(int index) {
+            return values[index];
+        }
+
+        void set(int index, byte value) {
+            values[index] = value;
+        }
+
+        String toHex(int offset, int length) {
+            StringBuilder hex = new StringBuilder(2 * length);
+            for (int i = offset; i < offset + length; i++) {
+                hex.append(Character.forDigit((values[i] >> 4) & 0xf, 16)).append(Character.forDigit(values[i] & 0xf, 16));
+            }
+            return hex.toString();
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + (long) length > values.length) {
+                // sections of snapshots are mapped as single buffers, which cannot exceed 2 GB
+                if (size + (long) length > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Too many records to hold in memory");
+                }
+                values = Arrays.copyOf(values, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * size, size + (long) length)));
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void put(ByteBuffer buffer, int index) {
+            buffer.put(values[index]);
+        }
+    }
+
+    /**
+     * Strings stored as UTF-8 one after the other, with the offset at which each
+     * starts. Values repeated across records are interned, so that each of them is
+     * stored once and records only hold its id.
+     */
+    static class StringTable {
+        final ByteColumn bytes = new ByteColumn();
+        final IntColumn offsets = new IntColumn();
+        private final Map<String, Integer> interned = new HashMap<>();
+
+        StringTable() {
+            offsets.add(0);
+        }
+
+        int add(String value) {
+            if (value == null) {
+                return NULL_ID;
+            }
+            bytes.add(value.getBytes(StandardCharsets.UTF_8));
+            offsets.add(bytes.size());
+            return offsets.size() - 2;
+        }
+
+        int intern(String value) {
+            if (value == null) {
+                return NULL_ID;
+            }
+            Integer id = interned.get(value);
+            if (id == null) {
+                id = add(value);
+                interned.put(value, id);
+            }
+            return id;
+        }
+
+        String get(int id) {
+            if (id == NULL_ID) {
+                return null;
+            }
+            int start = offsets.get(id);
+            return new String(bytes.values, start, offsets.get(id + 1) - start, StandardCharsets.UTF_8);
+        }
+    }
+}
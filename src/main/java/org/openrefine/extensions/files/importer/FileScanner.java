@@ -0,0 +1,661 @@
+package org.openrefine.extensions.files.importer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Scans the selected directories using a pool of worker threads.
+ * <p>
+ * Each root directory is walked by its own walker thread, so several roots are
+ * listed concurrently. The walkers hand every file over to a shared fork-join
+ * pool which reads its metadata and checksum. The futures are queued in walk
+ * order and consumed in that same order, so the records reach the sink in a
+ * deterministic order (roots in the order they were selected, directory entries
+ * sorted by name) whatever the number of workers. The queues are bounded, which
+ * keeps the number of in-flight records independent of the size of the tree.
+ * <p>
+ * Checksums of files whose size and modification time did not change since a
+ * previous scan are taken from the {@link ChecksumCache} instead of being
+ * recomputed.
+ * <p>
+ * The scan reports its progress through a {@link ScanProgress}, and the time
+ * spent in each of its phases through {@link ScanStats}. Listings, attribute reads
+ * and content reads on each file store are held to the limits of the scan by an
+ * {@link IoThrottle}, which can be changed while it runs. The scan can be
+ * cancelled from another thread, which interrupts the workers so that the files
+ * being read are closed right away. With a record limit, the scan stops the same
+ * way once enough records were delivered, but returns normally.
+ */
+public class FileScanner implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger("FileScanner");
+    private static final int QUEUED_FILES_PER_THREAD = 64;
+    private static final Future<FileRecord> END_OF_ROOT = CompletableFuture.completedFuture(null);
+    private static final String MIME_TYPE_CACHE_KEY = "mime";
+
+    /** Receives the scanned records, in walk order, on the thread calling {@link #scan(RecordSink)}. */
+    public interface RecordSink {
+        void accept(FileRecord record) throws IOException;
+    }
+
+    private final ScanOptions options;
+    private final ForkJoinPool workers;
+    private final ExecutorService walkers;
+    private final ChecksumCache checksumCache;
+    private final FileMetadataReader metadataReader = new FileMetadataReader();
+    private final ScanProgress progress;
+    private final ScanStats stats = new ScanStats();
+    private final IoThrottle throttle;
+    private final List<BlockingQueue<Future<FileRecord>>> queues = new CopyOnWriteArrayList<>();
+    private final AtomicInteger pendingRoots = new AtomicInteger();
+    private final List<PathMatcher> includeMatchers;
+    private final List<PathMatcher> excludeMatchers;
+    // the first bytes of the file being read by each worker, for type detection and content snippets
+    private final int headerSize;
+    private final ThreadLocal<ByteBuffer> headerBuffer;
+    private Predicate<FileRecord> unchangedFiles;
+    private volatile boolean cancelled = false;
+    // set when the scan should stop, either cancelled or because the record limit was reached
+    private volatile boolean stopped = false;
+
+    public FileScanner(ScanOptions options) {
+        this(options, new ScanProgress());
+    }
+
+    public FileScanner(ScanOptions options, ScanProgress progress) {
+        this.options = options;
+        this.progress = progress;
+        this.workers = new ForkJoinPool(options.getScanThreads());
+        int walkerThreads = Math.max(1, Math.min(options.getRoots().size(), options.getScanThreads()));
+        this.walkers = Executors.newFixedThreadPool(walkerThreads, new WalkerThreadFactory());
+        this.checksumCache = options.isUseChecksumCache() ? ChecksumCache.getInstance() : null;
+        this.includeMatchers = createMatchers(options.getIncludeGlobs());
+        this.excludeMatchers = createMatchers(options.getExcludeGlobs());
+        this.headerSize = Math.max(options.isDetectMimeType() ? MimeTypeDetector.HEADER_SIZE : 0,
+                options.isContentSnippet() ? FilesImporter.getContentSnippetBytes(options.getContentSnippetLength()) : 0);
+        this.headerBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(headerSize));
+        this.throttle = new IoThrottle(options.getScanLimits(), options.getStoreScanLimits(), stats);
+    }
+
+    public ScanOptions getOptions() {
+        return options;
+    }
+
+    public ScanProgress getProgress() {
+        return progress;
+    }
+
+    public ScanStats getStats() {
+        return stats;
+    }
+
+    /** The limits of the file stores, which can be updated while the scan runs */
+    public IoThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Files for which the predicate holds are known not to have changed since they
+     * were last read, so their contents are not read again. The predicate is called
+     * from the worker threads.
+     */
+    public void setUnchangedFiles(Predicate<FileRecord> unchangedFiles) {
+        this.unchangedFiles = unchangedFiles;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Scans the roots, passing the records to the sink in walk order.
+     *
+     * @throws InterruptedIOException if the scan was cancelled
+     */
+    public void scan(RecordSink sink) throws IOException {
+        pendingRoots.set(options.getRoots().size());
+        if (options.getRoots().isEmpty()) {
+            progress.setWalkComplete();
+        }
+        for (Path root : options.getRoots()) {
+            BlockingQueue<Future<FileRecord>> queue = new ArrayBlockingQueue<>(QUEUED_FILES_PER_THREAD * options.getScanThreads());
+            queues.add(queue);
+            walkers.execute(() -> walkRoot(root, queue));
+        }
+
+        boolean completed = false;
+        int recordLimit = options.getRecordLimit();
+        int recordCount = 0;
+        try {
+            drain:
+            for (int i = 0; i < queues.size(); i++) {
+                BlockingQueue<Future<FileRecord>> queue = queues.get(i);
+                Path root = options.getRoots().get(i);
+                Future<FileRecord> next;
+                long waitStart = System.nanoTime();
+                while ((next = queue.take()) != END_OF_ROOT) {
+                    if (stopped) {
+                        break drain;
+                    }
+                    FileRecord record = next.get();
+                    long loadStart = System.nanoTime();
+                    stats.waited(loadStart - waitStart);
+                    if (record != null) {
+                        record.setRoot(root);
+                        sink.accept(record);
+                        for (FileRecord entry : record.getArchiveEntries()) {
+                            entry.setRoot(root);
+                            sink.accept(entry);
+                        }
+                        stats.record(ScanStats.Phase.LOADING, System.nanoTime() - loadStart);
+                        if (++recordCount == recordLimit) {
+                            stop();
+                            break drain;
+                        }
+                    }
+                    waitStart = System.nanoTime();
+                }
+            }
+            if (cancelled) {
+                throw new InterruptedIOException("File scan was cancelled");
+            }
+            completed = true;
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("File scan was cancelled");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("File scan was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("File scan failed", e.getCause());
+        } finally {
+            if (!completed) {
+                cancel();
+            }
+            if (checksumCache != null) {
+                checksumCache.save();
+            }
+        }
+    }
+
+    /**
+     * Stops the scan as soon as possible. Workers are interrupted, which closes the
+     * files they are reading, and a thread blocked in {@link #scan(RecordSink)}
+     * returns with an {@link InterruptedIOException}.
+     */
+    public void cancel() {
+        cancelled = true;
+        stop();
+    }
+
+    private void stop() {
+        stopped = true;
+        walkers.shutdownNow();
+        workers.shutdownNow();
+        // the walkers may have been stopped before ending their queues
+        for (BlockingQueue<Future<FileRecord>> queue : queues) {
+            queue.clear();
+            queue.offer(END_OF_ROOT);
+        }
+    }
+
+    @Override
+    public void close() {
+        walkers.shutdownNow();
+        workers.shutdown();
+    }
+
+    private void walkRoot(Path root, BlockingQueue<Future<FileRecord>> queue) {
+        try {
+            FileStore store = metadataReader.getFileStore(root);
+            IoThrottle.Limiter limiter = throttle.get(store);
+            FileMetadata attrs;
+            limiter.startMetadata();
+            try {
+                long start = System.nanoTime();
+                attrs = metadataReader.read(root, metadataReader.getStoreFeatures(store));
+                stats.record(ScanStats.Phase.ATTRIBUTES, System.nanoTime() - start);
+            } finally {
+                limiter.endMetadata();
+            }
+            if (attrs.isDirectory()) {
+                walkDirectory(root, root, 1, new ArrayDeque<>(List.of(getDirectoryKey(root, attrs))), queue);
+            } else {
+                progress.fileSeen(attrs.size());
+                queue.put(workers.submit(() -> readFileRecord(root, attrs, limiter)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.info("--- importDirectory. Error reading directory: " + e.getMessage());
+            stats.error(e);
+        } finally {
+            if (pendingRoots.decrementAndGet() == 0) {
+                progress.setWalkComplete();
+            }
+            try {
+                queue.put(END_OF_ROOT);
+            } catch (InterruptedException e) {
+                // the scan was cancelled, nobody is waiting for this queue anymore
+            }
+        }
+    }
+
+    /**
+     * Lists a directory depth first. Only the sorted entries of the directories on
+     * the current path are held, so memory grows with the depth of the tree and not
+     * with the number of files, which are streamed to the queue as they are found.
+     *
+     * @param ancestors keys of the directories on the current path, used to detect
+     *                  loops when symbolic links are followed
+     */
+    private void walkDirectory(Path root, Path dir, int depth, Deque<Object> ancestors,
+                               BlockingQueue<Future<FileRecord>> queue) throws InterruptedException {
+        progress.setCurrentDirectory(dir.toString());
+        // the entries of a directory are on its file store, unless they are mount points
+        FileStore store = metadataReader.getFileStore(dir);
+        IoThrottle.Limiter limiter = throttle.get(store);
+        FileMetadataReader.StoreFeatures storeFeatures = metadataReader.getStoreFeatures(store);
+        List<Path> entries = new ArrayList<>();
+        // the time of this directory leaves out its subdirectories and the waits for the queue and the throttle
+        long directoryNanos;
+        limiter.startMetadata();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            long listingStart = System.nanoTime();
+            for (Path entry : stream) {
+                if (!isSkipped(entry)) {
+                    entries.add(entry);
+                }
+            }
+            Collections.sort(entries);
+            directoryNanos = System.nanoTime() - listingStart;
+            stats.record(ScanStats.Phase.LISTING, directoryNanos);
+        } catch (Exception e) {
+            logger.info("--- importDirectory. Error reading directory: " + dir + " - " + e.getMessage());
+            stats.error(e);
+            return;
+        } finally {
+            limiter.endMetadata();
+        }
+
+        for (Path entry : entries) {
+            if (stopped) {
+                return;
+            }
+            FileMetadata attrs = null;
+            Exception error = null;
+            limiter.startMetadata();
+            long start = System.nanoTime();
+            try {
+                attrs = readEntry(entry, storeFeatures);
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                limiter.endMetadata();
+            }
+            long attributesNanos = System.nanoTime() - start;
+            stats.record(ScanStats.Phase.ATTRIBUTES, attributesNanos);
+            directoryNanos += attributesNanos;
+            if (error != null) {
+                logger.info("--- importDirectory. Error processing file: " + entry + " - " + error.getMessage());
+                stats.error(error);
+                stats.fileDone(0);
+                progress.fileSeen(0);
+                progress.fileDone(0);
+                queue.put(CompletableFuture.completedFuture(FileRecord.unreadable(entry)));
+                continue;
+            }
+            Path relativePath = root.relativize(entry);
+            if (attrs.isDirectory()) {
+                if (depth < options.getMaxDepth() && !matches(excludeMatchers, relativePath)) {
+                    Object key = getDirectoryKey(entry, attrs);
+                    if (ancestors.contains(key)) {
+                        logger.info("--- importDirectory. Skipping symbolic link loop: " + entry);
+                        continue;
+                    }
+                    ancestors.push(key);
+                    walkDirectory(root, entry, depth + 1, ancestors, queue);
+                    ancestors.pop();
+                }
+            } else if ((includeMatchers.isEmpty() || matches(includeMatchers, relativePath))
+                    && !matches(excludeMatchers, relativePath)) {
+                progress.fileSeen(attrs.size());
+                FileMetadata fileAttrs = attrs;
+                queue.put(workers.submit(() -> readFileRecord(entry, fileAttrs, limiter)));
+            }
+        }
+        stats.directoryDone(dir.toString(), directoryNanos, entries.size());
+    }
+
+    private FileMetadata readEntry(Path entry, FileMetadataReader.StoreFeatures storeFeatures) throws IOException {
+        if (options.isFollowSymlinks()) {
+            try {
+                return metadataReader.read(entry, storeFeatures);
+            } catch (NoSuchFileException e) {
+                // broken link, list the link itself
+            }
+        }
+        return metadataReader.read(entry, storeFeatures, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /** Hidden entries and system directories right under a file system root are not walked */
+    private boolean isSkipped(Path entry) {
+        try {
+            if (options.isSkipHidden() && Files.isHidden(entry)) {
+                return true;
+            }
+        } catch (IOException e) {
+            // keep the entry, reading its attributes will report the error
+        }
+        return FilesImporter.isRestrictedDirectory(entry);
+    }
+
+    /** Identifies a directory, so that following a link back to one of its ancestors is noticed */
+    private static Object getDirectoryKey(Path dir, FileMetadata attrs) {
+        if (attrs.fileKey() != null) {
+            return attrs.fileKey();
+        }
+        try {
+            return dir.toRealPath();
+        } catch (IOException e) {
+            return dir.toAbsolutePath().normalize();
+        }
+    }
+
+    /** Patterns match either the path relative to the root or the file name alone */
+    private static boolean matches(List<PathMatcher> matchers, Path relativePath) {
+        Path fileName = relativePath.getFileName();
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath) || (fileName != null && matcher.matches(fileName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<PathMatcher> createMatchers(List<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    private FileRecord readFileRecord(Path file, FileMetadata attrs, IoThrottle.Limiter limiter) {
+        long start = System.nanoTime();
+        String ownerName = metadataReader.getOwnerName(file, attrs);
+        stats.record(ScanStats.Phase.OWNER, System.nanoTime() - start);
+        FileRecord record = new FileRecord(
+                file.toAbsolutePath(),
+                file.getFileName().toString(),
+                attrs.size(),
+                attrs.lastModifiedTime().toMillis(),
+                attrs.creationTime().toMillis(),
+                ownerName,
+                metadataReader.getPermissions(attrs));
+        // archives are read like contents, so the preview does not list their entries
+        if (!stopped && options.isListArchiveEntries() && options.isReadContents()
+                && ArchiveEntryReader.isArchive(record.getFileName()) && attrs.isRegularFile()) {
+            start = System.nanoTime();
+            try {
+                record.setArchiveEntries(ArchiveEntryReader.readEntries(record));
+            } catch (Exception e) {
+                logger.info("--- importDirectory. Error listing archive: " + file + " - " + e.getMessage());
+                stats.error(e);
+                record.setStatus(FileRecord.STATUS_ERROR);
+            }
+            stats.record(ScanStats.Phase.ARCHIVE, System.nanoTime() - start);
+        }
+        // when looking for duplicates, contents are only read for the candidates, see readContents
+        if (stopped || !options.isReadContents() || options.isDuplicatesMode()
+                || (unchangedFiles != null && unchangedFiles.test(record))) {
+            progress.fileDone(attrs.size());
+            stats.fileDone(attrs.size());
+            return record;
+        }
+        // filled with the first bytes of the file by whichever hash reads them first
+        ByteBuffer header = headerSize > 0 ? headerBuffer.get().clear() : null;
+        boolean reading = false;
+        long throttleNanos = 0;
+        try {
+            limiter.startRead();
+            reading = true;
+            // the time spent held back by the throttle is counted on its own
+            start = System.nanoTime();
+            throttleNanos = limiter.getThreadThrottleNanos();
+            // above the threshold only the quick fingerprint is computed
+            boolean quickOnly = options.getQuickFingerprintThreshold() > 0
+                    && attrs.size() > options.getQuickFingerprintThreshold();
+            if (!quickOnly) {
+                record.setChecksum(getChecksum(file, attrs, header, limiter));
+            }
+            if (options.isQuickFingerprint() || quickOnly) {
+                record.setQuickFingerprint(getQuickFingerprint(file, attrs, header, limiter));
+            }
+            if (header != null && attrs.isRegularFile() && attrs.size() > 0) {
+                if (options.isDetectMimeType()) {
+                    record.setMimeType(getMimeType(file, attrs, header, limiter));
+                }
+                // files already known to be binary are not read any further
+                if (options.isContentSnippet() && (record.getMimeType() == null || MimeTypeDetector.isText(record.getMimeType()))) {
+                    readHeader(file, attrs, header, limiter);
+                    record.setContentSnippet(FilesImporter.getFileContent(header.duplicate().flip(),
+                            attrs.size() > header.capacity(), options.getContentSnippetLength()));
+                }
+            }
+        } catch (LockPolicy.FileLockedException e) {
+            stats.error(e);
+            record.setStatus(FileRecord.STATUS_LOCKED);
+        } catch (Exception e) {
+            logger.info("--- importDirectory. Error processing file: " + file + " - " + e.getMessage());
+            stats.error(e);
+            record.setStatus(FileRecord.STATUS_ERROR);
+        } finally {
+            if (reading) {
+                limiter.endRead();
+                stats.record(ScanStats.Phase.HASHING,
+                        System.nanoTime() - start - (limiter.getThreadThrottleNanos() - throttleNanos));
+            }
+            progress.fileDone(attrs.size());
+            stats.fileDone(attrs.size());
+        }
+        return record;
+    }
+
+    /**
+     * Computes the checksums, or only the quick fingerprints, of records which were
+     * scanned without reading their contents, using the workers of this scanner.
+     * The contents of files which changed since they were scanned are not read and
+     * their records are marked as errors.
+     *
+     * @throws InterruptedIOException if the scan was cancelled
+     */
+    public void readContents(List<FileRecord> records, boolean quickFingerprintOnly) throws IOException {
+        List<Future<?>> futures = new ArrayList<>(records.size());
+        // files of the same directory are on the same file store
+        Map<Path, IoThrottle.Limiter> limiters = new HashMap<>();
+        try {
+            for (FileRecord record : records) {
+                IoThrottle.Limiter limiter = limiters.computeIfAbsent(record.getPath().getParent(),
+                        dir -> throttle.get(metadataReader.getFileStore(dir)));
+                futures.add(workers.submit(() -> readContents(record, quickFingerprintOnly, limiter)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (CancellationException | RejectedExecutionException e) {
+            throw new InterruptedIOException("File scan was cancelled");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new InterruptedIOException("File scan was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("File scan failed", e.getCause());
+        } finally {
+            if (checksumCache != null) {
+                checksumCache.save();
+            }
+        }
+        if (cancelled) {
+            throw new InterruptedIOException("File scan was cancelled");
+        }
+    }
+
+    private void readContents(FileRecord record, boolean quickFingerprintOnly, IoThrottle.Limiter limiter) {
+        Path file = record.getPath();
+        long start = 0;
+        long throttleNanos = 0;
+        boolean reading = false;
+        try {
+            FileMetadata attrs;
+            limiter.startMetadata();
+            try {
+                attrs = options.isFollowSymlinks()
+                        ? metadataReader.read(file, FileMetadataReader.StoreFeatures.BASIC)
+                        : metadataReader.read(file, FileMetadataReader.StoreFeatures.BASIC, LinkOption.NOFOLLOW_LINKS);
+            } finally {
+                limiter.endMetadata();
+            }
+            if (attrs.size() != record.getSize() || attrs.lastModifiedTime().toMillis() != record.getLastModifiedTime()) {
+                logger.info("--- importDirectory. File changed during the scan: " + file);
+                stats.error("FileChangedDuringScan");
+                record.setStatus(FileRecord.STATUS_ERROR);
+                return;
+            }
+            limiter.startRead();
+            reading = true;
+            start = System.nanoTime();
+            throttleNanos = limiter.getThreadThrottleNanos();
+            if (quickFingerprintOnly) {
+                record.setQuickFingerprint(getQuickFingerprint(file, attrs, null, limiter));
+            } else {
+                record.setChecksum(getChecksum(file, attrs, null, limiter));
+            }
+        } catch (LockPolicy.FileLockedException e) {
+            stats.error(e);
+            record.setStatus(FileRecord.STATUS_LOCKED);
+        } catch (Exception e) {
+            logger.info("--- importDirectory. Error processing file: " + file + " - " + e.getMessage());
+            stats.error(e);
+            record.setStatus(FileRecord.STATUS_ERROR);
+        } finally {
+            if (reading) {
+                limiter.endRead();
+                stats.record(ScanStats.Phase.HASHING,
+                        System.nanoTime() - start - (limiter.getThreadThrottleNanos() - throttleNanos));
+            }
+        }
+    }
+
+    private String getChecksum(Path file, BasicFileAttributes attrs, ByteBuffer header,
+                               IoThrottle.Limiter limiter) throws Exception {
+        ChecksumAlgorithm algorithm = options.getChecksumAlgorithm();
+        if (!algorithm.isEnabled()) {
+            return "";
+        }
+        return getCachedChecksum(file, attrs, algorithm.getId(), attrs.size(),
+                () -> FilesImporter.calculateFileChecksum(file, algorithm, options.getLockPolicy(), options.getLockTimeoutMillis(),
+                        header, limiter));
+    }
+
+    private String getQuickFingerprint(Path file, BasicFileAttributes attrs, ByteBuffer header,
+                                       IoThrottle.Limiter limiter) throws Exception {
+        ChecksumAlgorithm algorithm = options.getQuickFingerprintAlgorithm();
+        int blockSize = options.getQuickFingerprintBlockSize();
+        long sampledBytes = Math.min(attrs.size(), 3L * blockSize);
+        return getCachedChecksum(file, attrs, "quick-" + algorithm.getId() + "-" + blockSize, sampledBytes,
+                () -> FilesImporter.calculateQuickFingerprint(file, algorithm, blockSize, options.getLockPolicy(),
+                        options.getLockTimeoutMillis(), header, limiter));
+    }
+
+    /**
+     * Detects the type of the file from its header, which was read along with its
+     * checksum unless the checksum came from the cache, in which case the type most
+     * likely comes from the cache too. Otherwise the header is read on its own.
+     */
+    private String getMimeType(Path file, BasicFileAttributes attrs, ByteBuffer header,
+                               IoThrottle.Limiter limiter) throws Exception {
+        return getCachedChecksum(file, attrs, MIME_TYPE_CACHE_KEY, 0, () -> {
+            readHeader(file, attrs, header, limiter);
+            String mimeType = MimeTypeDetector.detect(header.duplicate().flip());
+            // null if the file was emptied in the meantime
+            return mimeType == null ? "" : mimeType;
+        });
+    }
+
+    /**
+     * Reads the header of the file, unless it was already read along with a hash. A
+     * quick fingerprint block smaller than the header only fills its start.
+     */
+    private void readHeader(Path file, BasicFileAttributes attrs, ByteBuffer header,
+                            IoThrottle.Limiter limiter) throws Exception {
+        if (header.hasRemaining() && header.position() < attrs.size()) {
+            limiter.read(header.remaining());
+            FilesImporter.readHeader(file, header, options.getLockPolicy(), options.getLockTimeoutMillis());
+        }
+    }
+
+    private String getCachedChecksum(Path file, BasicFileAttributes attrs, String cacheKey, long bytesRead,
+                                     Callable<String> checksumFunction) throws Exception {
+        // the attributes of a symbolic link say nothing about the file it points to
+        boolean cacheable = checksumCache != null && !attrs.isSymbolicLink();
+        if (cacheable) {
+            String checksum = checksumCache.get(file, attrs, cacheKey);
+            if (checksum != null) {
+                return checksum;
+            }
+        }
+        String checksum = checksumFunction.call();
+        progress.bytesHashed(bytesRead);
+        stats.bytesRead(bytesRead);
+        if (cacheable && !checksum.isEmpty()) {
+            checksumCache.put(file, attrs, cacheKey, checksum);
+        }
+        return checksum;
+    }
+
+    private static class WalkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "files-scan-walker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
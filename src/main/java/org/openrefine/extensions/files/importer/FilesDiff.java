@@ -0,0 +1,250 @@
+package org.openrefine.extensions.files.importer;
+
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the files of two selected directories, such as a share and its mirror,
+ * or a saved {@link ScanSnapshot} of a tree with the tree as it is now, and fills
+ * the project with one row per difference.
+ * <p>
+ * Directories are scanned by the same {@link FileScanner}, so the usual columns
+ * are computed for every file. A snapshot stands for the first directory, and its
+ * records are compared as they were saved. Files are first matched by their path
+ * relative to their directory: a file found on both sides is modified when its
+ * checksum differs, or when its size or modification time differs if no checksum
+ * was computed. The files found on one side only are then matched by content
+ * with a hash join: the removed files are indexed by checksum (or by quick
+ * fingerprint, or by name, size and modification time when contents were not
+ * read) and each added file is looked up in that index, so a removed and an
+ * added file with the same content are reported as a single move. Both steps
+ * take time proportional to the number of files, and only the records of the
+ * first directory and of the unmatched files of the second are held in memory,
+ * in a {@link FileRecordStore}.
+ */
+public class FilesDiff {
+    public static final String ADDED = "added";
+    public static final String REMOVED = "removed";
+    public static final String MODIFIED = "modified";
+    public static final String MOVED = "moved";
+
+    private static class Change {
+        final String type;
+        final String relativePath;
+        // index in the store of the file in the second directory, or of the removed file
+        final int current;
+        // index in the store of the file in the first directory for modified and moved files, or -1
+        final int previous;
+
+        Change(String type, String relativePath, int current, int previous) {
+            this.type = type;
+            this.relativePath = relativePath;
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * Scans the two roots of the scanner, or the snapshot of the options and the
+     * only root of the scanner, and adds the differences of the second one relative
+     * to the first one to the project: modified files first, then moved and added
+     * files, then removed files.
+     */
+    public static void loadData(Project project, FileScanner scanner) throws Exception {
+        List<Path> roots = scanner.getOptions().getRoots();
+        Long snapshotId = scanner.getOptions().getSnapshotId();
+        if (snapshotId == null && roots.size() != 2) {
+            throw new IllegalArgumentException("Comparing directories requires exactly two directories, got " + roots.size());
+        }
+        if (snapshotId != null && roots.size() != 1) {
+            throw new IllegalArgumentException("Comparing a saved scan requires exactly one directory, got " + roots.size());
+        }
+        // with a snapshot, every scanned file belongs to the second side
+        Path firstRoot = snapshotId == null ? roots.get(0) : null;
+
+        List<FilesImporter.FileColumn> fileColumns = FilesImporter.getColumns(scanner.getOptions());
+        List<FilesImporter.FileColumn> previousColumns = getPreviousColumns(fileColumns, scanner.getOptions());
+        List<String> columnNames = new ArrayList<>(List.of("changeType", "relativePath"));
+        fileColumns.forEach(column -> columnNames.add(column.name));
+        previousColumns.forEach(column -> columnNames.add(column.name));
+        for (String name : columnNames) {
+            Column column = new Column(project.columnModel.allocateNewCellIndex(), name);
+            project.columnModel.addColumn(project.columnModel.columns.size(), column, false);
+        }
+
+        FileRecordStore store = new FileRecordStore(scanner.getOptions());
+        Map<String, Integer> firstFiles = new LinkedHashMap<>();
+        List<Change> changes = new ArrayList<>();
+        List<Change> addedFiles = new ArrayList<>();
+        if (snapshotId != null) {
+            loadSnapshot(snapshotId, scanner, store, firstFiles);
+        }
+        try {
+            scanner.scan(record -> {
+                String relativePath = getRelativePath(record);
+                if (firstRoot != null && firstRoot.equals(record.getRoot())) {
+                    if (!firstFiles.containsKey(relativePath)) {
+                        firstFiles.put(relativePath, store.add(record));
+                    }
+                    return;
+                }
+                // the first directory has been fully scanned when its queue ends
+                Integer previous = firstFiles.remove(relativePath);
+                if (previous == null) {
+                    addedFiles.add(new Change(ADDED, relativePath, store.add(record), -1));
+                } else if (isModified(store.get(previous), record)) {
+                    changes.add(new Change(MODIFIED, relativePath, store.add(record), previous));
+                }
+            });
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new Exception("Failed to compare directories", e);
+        }
+
+        // build side: the files left in the first directory, which is what was removed
+        Map<String, Deque<Map.Entry<String, Integer>>> removedByContent = new HashMap<>();
+        for (Map.Entry<String, Integer> removed : firstFiles.entrySet()) {
+            String key = getContentKey(store.get(removed.getValue()));
+            if (key != null) {
+                removedByContent.computeIfAbsent(key, k -> new ArrayDeque<>()).add(removed);
+            }
+        }
+        // probe side: the added files, each paired with at most one removed file
+        for (Change added : addedFiles) {
+            String key = getContentKey(store.get(added.current));
+            Deque<Map.Entry<String, Integer>> candidates = key == null ? null : removedByContent.get(key);
+            Map.Entry<String, Integer> moved = candidates == null ? null : candidates.poll();
+            if (moved != null) {
+                firstFiles.remove(moved.getKey());
+                changes.add(new Change(MOVED, added.relativePath, added.current, moved.getValue()));
+            } else {
+                changes.add(added);
+            }
+        }
+        firstFiles.forEach((relativePath, removed) -> changes.add(new Change(REMOVED, relativePath, removed, -1)));
+
+        for (Change change : changes) {
+            project.rows.add(buildRow(change, store, fileColumns, previousColumns));
+        }
+        project.update();
+    }
+
+    /** Adds the records of the snapshot to the store as the files of the first side */
+    private static void loadSnapshot(long snapshotId, FileScanner scanner, FileRecordStore store,
+                                     Map<String, Integer> firstFiles) throws IOException {
+        try (ScanSnapshot snapshot = ScanSnapshot.open(snapshotId)) {
+            checkComparable(snapshot.getScanOptions(), scanner.getOptions());
+            for (int row = 0; row < snapshot.getRowCount(); row++) {
+                if (scanner.isCancelled()) {
+                    throw new InterruptedIOException("Loading the snapshot was cancelled");
+                }
+                FileRecord record = snapshot.getRecord(row);
+                String relativePath = getRelativePath(record);
+                if (!firstFiles.containsKey(relativePath)) {
+                    firstFiles.put(relativePath, store.add(record));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checksums and quick fingerprints of the snapshot can only be compared with
+     * those computed the same way, which the scan is required to do
+     */
+    private static void checkComparable(ScanOptions snapshotOptions, ScanOptions scanOptions) {
+        if (snapshotOptions.getChecksumAlgorithm() != scanOptions.getChecksumAlgorithm()) {
+            throw new IllegalArgumentException("The saved scan has " + snapshotOptions.getChecksumAlgorithm().getId()
+                    + " checksums, compare it with the same checksum algorithm");
+        }
+        if (snapshotOptions.hasQuickFingerprintColumn() && scanOptions.hasQuickFingerprintColumn()
+                && snapshotOptions.getQuickFingerprintBlockSize() != scanOptions.getQuickFingerprintBlockSize()) {
+            throw new IllegalArgumentException("The saved scan has quick fingerprints of "
+                    + snapshotOptions.getQuickFingerprintBlockSize() / 1024 + " KB blocks, compare it with the same block size");
+        }
+    }
+
+    /** The size, modification time, path and checksum of the first directory's file */
+    private static List<FilesImporter.FileColumn> getPreviousColumns(List<FilesImporter.FileColumn> fileColumns,
+                                                                   ScanOptions options) {
+        String checksumColumn = options.getChecksumAlgorithm().isEnabled()
+                ? options.getChecksumAlgorithm().getColumnName() : null;
+        List<FilesImporter.FileColumn> previousColumns = new ArrayList<>();
+        for (FilesImporter.FileColumn column : fileColumns) {
+            if (column.name.equals(checksumColumn)) {
+                previousColumns.add(new FilesImporter.FileColumn("previousChecksum(" + column.name + ")", column.value, true));
+            } else if (column.name.equals("filePath") || column.name.equals("fileSize(KB)")
+                    || column.name.equals("lastModifiedTime")) {
+                String name = "previous" + Character.toUpperCase(column.name.charAt(0)) + column.name.substring(1);
+                previousColumns.add(new FilesImporter.FileColumn(name, column.value, column.content));
+            }
+        }
+        return previousColumns;
+    }
+
+    private static Row buildRow(Change change, FileRecordStore store, List<FilesImporter.FileColumn> fileColumns,
+                                List<FilesImporter.FileColumn> previousColumns) {
+        Row row = new Row(2 + fileColumns.size() + previousColumns.size());
+        int cellIndex = 0;
+        FilesImporter.setCell(row, cellIndex++, change.type);
+        FilesImporter.setCell(row, cellIndex++, change.relativePath);
+        FileRecord current = store.get(change.current);
+        for (FilesImporter.FileColumn column : fileColumns) {
+            FilesImporter.setCell(row, cellIndex++, column.value.apply(current));
+        }
+        if (change.previous >= 0) {
+            FileRecord previous = store.get(change.previous);
+            for (FilesImporter.FileColumn column : previousColumns) {
+                FilesImporter.setCell(row, cellIndex++, column.value.apply(previous));
+            }
+        }
+        return row;
+    }
+
+    private static String getRelativePath(FileRecord record) {
+        Path root = record.getRoot().toAbsolutePath().normalize();
+        Path relativePath = root.relativize(record.getPath());
+        // a selected file rather than directory
+        return relativePath.toString().isEmpty() ? record.getFileName() : relativePath.toString();
+    }
+
+    private static boolean isModified(FileRecord previous, FileRecord current) {
+        if (!previous.getChecksum().isEmpty() && !current.getChecksum().isEmpty()) {
+            return !previous.getChecksum().equals(current.getChecksum());
+        }
+        if (previous.getQuickFingerprint() != null && current.getQuickFingerprint() != null) {
+            return !previous.getQuickFingerprint().equals(current.getQuickFingerprint());
+        }
+        return previous.getSize() != current.getSize() || previous.getLastModifiedTime() != current.getLastModifiedTime();
+    }
+
+    /**
+     * Key under which files with the same content meet in the join, or null for
+     * files which cannot be told apart by their content. Empty files all have the
+     * same checksum, so they are never reported as moves.
+     */
+    private static String getContentKey(FileRecord record) {
+        if (record.getSize() <= 0 || !FileRecord.STATUS_OK.equals(record.getStatus())) {
+            return null;
+        }
+        if (!record.getChecksum().isEmpty()) {
+            return "c:" + record.getChecksum();
+        }
+        if (record.getQuickFingerprint() != null) {
+            return "q:" + record.getQuickFingerprint();
+        }
+        return "m:" + record.getSize() + ':' + record.getLastModifiedTime() + ':' + record.getFileName();
+    }
+}
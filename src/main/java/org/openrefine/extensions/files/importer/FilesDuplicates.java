@@ -0,0 +1,155 @@
+package org.openrefine.extensions.files.importer;
+
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Finds the files with identical contents among the scanned files, reading as
+ * little of them as possible.
+ * <p>
+ * The tree is first listed without reading any file. Files are then narrowed
+ * down in stages, each stage only keeping the files which share their key with
+ * another file:
+ * <ol>
+ *     <li>the size, which most files do not share with any other file;</li>
+ *     <li>the quick fingerprint, computed from a few sampled blocks, for the files
+ *     larger than those blocks;</li>
+ *     <li>the full checksum, for the files left.</li>
+ * </ol>
+ * Every file is listed in the project, with the same columns as usual plus a
+ * {@code duplicateGroup} number, shared by the files with the same contents, and
+ * the {@code duplicateGroupSize}. Both are blank for files without duplicates,
+ * as are the checksums of the files which were never fully read. Empty files are
+ * not reported as duplicates. When checksums are disabled, files are grouped by
+ * quick fingerprint, which reads files smaller than the sampled blocks in full.
+ */
+public class FilesDuplicates {
+
+    private static class Duplicates {
+        int group;
+        int groupSize;
+    }
+
+    public static void loadData(Project project, FileScanner scanner) throws Exception {
+        ScanOptions options = scanner.getOptions();
+        List<FilesImporter.FileColumn> columns = FilesImporter.getColumns(options);
+        List<String> columnNames = new ArrayList<>();
+        columns.forEach(column -> columnNames.add(column.name));
+        columnNames.add("duplicateGroup");
+        columnNames.add("duplicateGroupSize");
+        for (String name : columnNames) {
+            Column column = new Column(project.columnModel.allocateNewCellIndex(), name);
+            project.columnModel.addColumn(project.columnModel.columns.size(), column, false);
+        }
+
+        // all the records are needed to find duplicates, so they are held in columns
+        FileRecordStore records = new FileRecordStore(options);
+        Duplicates[] duplicates;
+        try {
+            scanner.scan(records::add);
+            duplicates = new Duplicates[records.size()];
+            // the preview does not read contents at all
+            if (options.isReadContents()) {
+                findDuplicates(records, scanner, duplicates);
+            }
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new Exception("Failed to process file list", e);
+        }
+
+        for (int i = 0; i < records.size(); i++) {
+            Row row = FilesImporter.buildRow(records.get(i), columns);
+            if (duplicates[i] != null) {
+                FilesImporter.setCell(row, columns.size(), duplicates[i].group);
+                FilesImporter.setCell(row, columns.size() + 1, duplicates[i].groupSize);
+            }
+            project.rows.add(row);
+        }
+        project.update();
+    }
+
+    private static void findDuplicates(FileRecordStore records, FileScanner scanner, Duplicates[] duplicates)
+            throws IOException {
+        List<Integer> sized = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            // the entries of archives cannot be read on their own
+            if (records.getSize(i) > 0 && FileRecord.STATUS_OK.equals(records.getStatus(i)) && !records.isArchiveEntry(i)) {
+                sized.add(i);
+            }
+        }
+        // only the files sharing their size with another one are turned back into records, to be read
+        Map<FileRecord, Integer> indexes = new HashMap<>();
+        List<FileRecord> candidates = new ArrayList<>();
+        for (int index : keepCollisions(sized, records::getSize)) {
+            FileRecord record = records.get(index);
+            indexes.put(record, index);
+            candidates.add(record);
+        }
+
+        ScanOptions options = scanner.getOptions();
+        boolean checksums = options.getChecksumAlgorithm().isEnabled();
+        // the quick fingerprint of a file smaller than the sampled blocks reads it all,
+        // the full checksum costs the same and saves a stage
+        long sampledBytes = 3L * options.getQuickFingerprintBlockSize();
+        List<FileRecord> sampled = new ArrayList<>();
+        List<FileRecord> small = new ArrayList<>();
+        for (FileRecord record : candidates) {
+            (checksums && record.getSize() <= sampledBytes ? small : sampled).add(record);
+        }
+        scanner.readContents(sampled, true);
+        candidates = keepCollisions(sampled, record -> record.getQuickFingerprint() == null ? null
+                : record.getSize() + ":" + record.getQuickFingerprint());
+
+        Function<FileRecord, Object> contentKey = record -> record.getQuickFingerprint();
+        if (checksums) {
+            candidates.addAll(small);
+            scanner.readContents(candidates, false);
+            contentKey = record -> record.getChecksum().isEmpty() ? null : record.getSize() + ":" + record.getChecksum();
+        }
+        // the checksums and fingerprints read are kept with the records
+        indexes.forEach((record, index) -> records.setContents(index, record));
+
+        Map<Object, Duplicates> groups = new HashMap<>();
+        for (FileRecord record : keepCollisions(candidates, contentKey)) {
+            Duplicates group = groups.computeIfAbsent(contentKey.apply(record), k -> new Duplicates());
+            group.groupSize++;
+            duplicates[indexes.get(record)] = group;
+        }
+        // groups are numbered in scan order
+        int groupCount = 0;
+        for (Duplicates group : duplicates) {
+            if (group != null && group.group == 0) {
+                group.group = ++groupCount;
+            }
+        }
+    }
+
+    /** Returns the items whose key is not null and shared by another item, in their order */
+    private static <T, K> List<T> keepCollisions(List<T> items, Function<T, K> key) {
+        Map<K, Integer> counts = new HashMap<>();
+        for (T item : items) {
+            K value = key.apply(item);
+            if (value != null) {
+                counts.merge(value, 1, Integer::sum);
+            }
+        }
+        List<T> collisions = new ArrayList<>();
+        for (T item : items) {
+            K value = key.apply(item);
+            if (value != null && counts.get(value) > 1) {
+                collisions.add(item);
+            }
+        }
+        return collisions;
+    }
+}
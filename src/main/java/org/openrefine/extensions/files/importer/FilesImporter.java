@@ -2,38 +2,45 @@ package org.openrefine.extensions.files.importer;
 
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.refine.ProjectMetadata;
-import com.google.refine.importers.ImportingParserBase;
-import com.google.refine.importers.SeparatorBasedImporter;
-import com.google.refine.importing.ImportingJob;
+import com.google.refine.ProjectManager;
+import com.google.refine.io.FileProjectManager;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
 import com.google.refine.model.Project;
-import com.google.refine.util.JSONUtilities;
-import com.google.refine.util.ParsingUtilities;
-import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.csv.CSVFormat;
+import com.google.refine.model.Row;
+import org.mozilla.universalchardet.UniversalDetector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.PosixFileAttributeView;
-import java.nio.file.attribute.PosixFilePermission;
-import java.nio.file.attribute.PosixFilePermissions;
-import java.security.MessageDigest;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.function.Function;
 
 public class FilesImporter {
     private static final Logger logger = LoggerFactory.getLogger("FilesImporter");
-    private static final int fileContentSizeLimit = 1024;
+    private static final String extensionDataDirName = "files-extension";
+    private static final int readBufferSize = 1024 * 1024;
+    private static final long mappedReadThreshold = 16L * 1024 * 1024;
+    private static final long mappedReadWindowSize = 64L * 1024 * 1024;
+    // each scan worker reuses its own direct buffer for all the files it hashes
+    private static final ThreadLocal<ByteBuffer> readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(readBufferSize));
+    private static final ThreadLocal<UniversalDetector> charsetDetector = ThreadLocal.withInitial(() -> new UniversalDetector());
 
     public static String[] restrictedDirectories = {
             "System32",
@@ -61,100 +68,195 @@ public class FilesImporter {
     };
 
 
-    public static long generateFileList(File file, ObjectNode options) throws IOException {
-        JsonNode directoryInput = options.get("directoryJsonValue");
-        try {
-            FileWriter writer = new FileWriter(file);
-            CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT);
-            for (JsonNode directoryPath : directoryInput) {
-                getFileList(directoryPath.get("directory").asText(), csvPrinter);
+    /**
+     * Directory of the workspace where the extension keeps its own data,
+     * or null if OpenRefine does not run with a file-based workspace.
+     */
+    static File getExtensionDataDir() {
+        if (!(ProjectManager.singleton instanceof FileProjectManager)) {
+            return null;
+        }
+        File dataDir = new File(((FileProjectManager) ProjectManager.singleton).getWorkspaceDir(), extensionDataDirName);
+        if (!dataDir.isDirectory() && !dataDir.mkdirs()) {
+            logger.info("--- importDirectory. Failed to create extension data directory: " + dataDir);
+            return null;
+        }
+        return dataDir;
+    }
+
+    /**
+     * Reads a numeric OpenRefine preference, so that limits of the extension can be
+     * changed from the preferences page. Missing or invalid values give the default.
+     */
+    static long getLongPreference(String name, long defaultValue) {
+        if (ProjectManager.singleton == null || ProjectManager.singleton.getPreferenceStore() == null) {
+            return defaultValue;
+        }
+        Object value = ProjectManager.singleton.getPreferenceStore().get(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                logger.info("--- importDirectory. Ignoring invalid value of preference " + name + ": " + value);
             }
-            csvPrinter.flush();
-            writer.close();
-            return file.length();
-        } catch (IOException e) {
-            throw new IOException("Failed to generate file list");
-        }
-    }
-
-    public static void loadData(Project project, ProjectMetadata metadata, ImportingJob job, ArrayNode fileRecords) throws Exception {
-        ObjectNode options = ParsingUtilities.mapper.createObjectNode();
-        JSONUtilities.safePut(options, "includeArchiveFileName", true);
-        JSONUtilities.safePut(options, "includeFileSources", false);
-        ArrayNode columns = ParsingUtilities.mapper.createArrayNode();
-        columns.add("fileName");
-        columns.add("fileSize(KB)");
-        columns.add("fileExtension");
-        columns.add("lastModifiedTime");
-        columns.add("creationTime");
-        columns.add("author");
-        columns.add("filePath");
-        columns.add("filePermissions");
-        columns.add("sha256");
-        JSONUtilities.safePut(options, "columnNames", columns);
-        JSONUtilities.safePut(options, "separator", ",");
-
-
-        ImportingParserBase parser = new SeparatorBasedImporter();
-        List<Exception> exceptions = new ArrayList<Exception>();
-
-        parser.parse(
-                project,
-                metadata,
-                job,
-                JSONUtilities.getObjectList(fileRecords),
-                "csv",
-                -1,
-                options,
-                exceptions);
-
-        if(exceptions.size() > 0) {
-            throw new Exception("Failed to process file list");
         }
-        project.update();
+        return defaultValue;
     }
 
-    private static void getFileList(String directoryPath, CSVPrinter csvPrinter) throws IOException {
-        int depth = 1;
+    /**
+     * Scans the selected directories and adds one row per file to the project. Rows
+     * are built while the scan progresses, with sizes kept as numbers and times as
+     * dates.
+     */
+    public static void loadData(Project project, ObjectNode options) throws Exception {
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            loadData(project, scanner);
+        }
+    }
+
+    /**
+     * Fills the project with the records of the given scanner. A cancelled scan
+     * ends with an {@link InterruptedIOException} and leaves a partial project.
+     */
+    public static void loadData(Project project, FileScanner scanner) throws Exception {
+        // a diff compares its snapshot with the scanned directory rather than loading it
+        if (scanner.getOptions().isDiffMode()) {
+            FilesDiff.loadData(project, scanner);
+            return;
+        }
+        if (scanner.getOptions().getSnapshotId() != null) {
+            ScanSnapshot.loadData(project, scanner);
+            return;
+        }
+        if (scanner.getOptions().isDuplicatesMode()) {
+            FilesDuplicates.loadData(project, scanner);
+            return;
+        }
+        List<FileColumn> columns = getColumns(scanner.getOptions());
+        for (FileColumn fileColumn : columns) {
+            Column column = new Column(project.columnModel.allocateNewCellIndex(), fileColumn.name);
+            project.columnModel.addColumn(project.columnModel.columns.size(), column, false);
+        }
+
+        ScanSnapshot.Writer snapshot = isSnapshotSaved(scanner.getOptions())
+                ? new ScanSnapshot.Writer(scanner.getOptions()) : null;
         try {
-                Path rootPath = Paths.get(directoryPath);
-                Files.walkFileTree(rootPath, EnumSet.noneOf(FileVisitOption.class), depth, new SimpleFileVisitor<Path>() {
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    String fileRecord = "";
-                    try {
-                        if (!attrs.isDirectory()) {
-                            String fileName = file.getFileName().toString();
-                            String filePath = file.toAbsolutePath().toString();
-                            String author = "";
-                            try {
-                                author = Files.getOwner(file).getName(); // File owner (may not always be available)
-                            } catch (Exception e) {
-                                // ignore
-                            }
-                            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-                            String dateCreated = sdf.format(attrs.creationTime().toMillis());
-                            String dateModified = sdf.format(attrs.lastModifiedTime().toMillis());
-                            long fileSize = (long) Math.ceil(attrs.size() / 1024.0);
-                            String fileExt = getFileExt(fileName);
-                            String filePermissions = getFilePermissions(file);
-                            String fileChecksum = calculateFileChecksum(file, "SHA-256");
-
-                            csvPrinter.printRecord(fileName, fileSize, fileExt, dateModified, dateCreated, author, filePath, filePermissions, fileChecksum);
-                        }
-                    } catch (Exception e) {
-                        logger.info("--- importDirectory. Error processing file: " + file + " - " + e.getMessage());
-                    }
-                    return FileVisitResult.CONTINUE;
+            scanner.scan(record -> {
+                project.rows.add(buildRow(record, columns));
+                if (snapshot != null) {
+                    snapshot.add(record);
                 }
             });
-        } catch (Exception e) {
-            logger.info("--- importDirectory. Error reading directory: " + e.getMessage());
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new Exception("Failed to process file list", e);
         }
+        project.update();
+        if (snapshot != null) {
+            saveSnapshot(snapshot, project.id);
+        }
+    }
+
+    /** Only complete scans which read file contents are worth saving */
+    private static boolean isSnapshotSaved(ScanOptions scanOptions) {
+        return scanOptions.isSaveSnapshot() && scanOptions.isReadContents() && scanOptions.getRecordLimit() == 0;
     }
 
-    private static String getFileExt(String fileName) {
+    /**
+     * Saves the snapshot under the id of the project, which is kept if it cannot be
+     * saved, and removes the snapshots which are no longer kept
+     */
+    private static void saveSnapshot(ScanSnapshot.Writer snapshot, long projectId) {
+        File file = ScanSnapshot.getSnapshotFile(projectId);
+        if (file == null) {
+            logger.info("--- importDirectory. No workspace directory to save the snapshot in");
+            return;
+        }
+        try {
+            snapshot.write(file, projectId);
+        } catch (IOException | IllegalStateException e) {
+            logger.info("--- importDirectory. Failed to save snapshot: " + file + " - " + e.getMessage());
+        }
+        ScanSnapshot.prune(projectId);
+    }
+
+    /** A column of the project and the way its value is taken from a scanned file */
+    static class FileColumn {
+        final String name;
+        final Function<FileRecord, Serializable> value;
+        // whether the value is computed from the contents of the file rather than its attributes
+        final boolean content;
+
+        FileColumn(String name, Function<FileRecord, Serializable> value) {
+            this(name, value, false);
+        }
+
+        FileColumn(String name, Function<FileRecord, Serializable> value, boolean content) {
+            this.name = name;
+            this.value = value;
+            this.content = content;
+        }
+    }
+
+    static List<FileColumn> getColumns(ScanOptions scanOptions) {
+        List<FileColumn> columns = new ArrayList<>();
+        columns.add(new FileColumn("fileName", FileRecord::getFileName));
+        columns.add(new FileColumn("fileSize(KB)", record -> record.getSize() < 0 ? null : (long) Math.ceil(record.getSize() / 1024.0)));
+        columns.add(new FileColumn("fileExtension", record -> getFileExt(record.getFileName())));
+        columns.add(new FileColumn("lastModifiedTime", record -> toDateTime(record.getLastModifiedTime())));
+        columns.add(new FileColumn("creationTime", record -> toDateTime(record.getCreationTime())));
+        columns.add(new FileColumn("author", FileRecord::getAuthor));
+        columns.add(new FileColumn("filePath", record -> record.getPath().toString()));
+        columns.add(new FileColumn("filePermissions", FileRecord::getPermissions));
+        if (scanOptions.getChecksumAlgorithm().isEnabled()) {
+            columns.add(new FileColumn(scanOptions.getChecksumAlgorithm().getColumnName(), FileRecord::getChecksum, true));
+        }
+        if (scanOptions.hasQuickFingerprintColumn()) {
+            String columnName = "quickFingerprint(" + scanOptions.getQuickFingerprintAlgorithm().getColumnName() + ")";
+            columns.add(new FileColumn(columnName, FileRecord::getQuickFingerprint, true));
+        }
+        columns.add(new FileColumn("scanStatus", FileRecord::getStatus, true));
+        if (scanOptions.isDetectMimeType()) {
+            columns.add(new FileColumn("mimeType", FileRecord::getMimeType, true));
+        }
+        if (scanOptions.isContentSnippet()) {
+            columns.add(new FileColumn("contentSnippet", FileRecord::getContentSnippet, true));
+        }
+        if (scanOptions.isListArchiveEntries()) {
+            columns.add(new FileColumn("archivePath", record -> record.getArchivePath() == null ? null : record.getArchivePath().toString()));
+            columns.add(new FileColumn("compressedSize(KB)", record -> record.getCompressedSize() < 0 ? null : (long) Math.ceil(record.getCompressedSize() / 1024.0)));
+            columns.add(new FileColumn("crc32", FileRecord::getCrc));
+        }
+        return columns;
+    }
+
+    static Row buildRow(FileRecord record, List<FileColumn> columns) {
+        Row row = new Row(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            setCell(row, i, columns.get(i).value.apply(record));
+        }
+        return row;
+    }
+
+    static void setCell(Row row, int cellIndex, Serializable value) {
+        // empty values are left as blank cells, as the CSV importer used to do
+        if (value != null && !"".equals(value)) {
+            row.setCell(cellIndex, new Cell(value, null));
+        }
+    }
+
+    private static OffsetDateTime toDateTime(long epochMillis) {
+        if (epochMillis < 0) {
+            return null;
+        }
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    static String getFileExt(String fileName) {
         String fileExt = "";
         int dotIndex = fileName.lastIndexOf('.');
         if (dotIndex > 0 && dotIndex < fileName.length() - 1) {
@@ -163,41 +265,146 @@ public class FilesImporter {
         return fileExt;
     }
 
-    private static String getFilePermissions(Path path) {
-        String filePermissions = "";
-        try {
-            if (Files.exists(path)) {
-                FileStore store = Files.getFileStore(path);
-                if (!store.supportsFileAttributeView(PosixFileAttributeView.class)) {
-                    logger.info("--- importDirectory. POSIX file attributes are not supported on this system.");
-                }
-                else {
-                    Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
-                    filePermissions = PosixFilePermissions.toString(permissions);
-                }
+    /**
+     * Computes the checksum of the whole file. The file is read through a single channel,
+     * with the per-thread direct read buffer for small files and with memory-mapped
+     * windows for large ones, so that the data is never copied into a heap array
+     * before reaching the hasher.
+     */
+    static String calculateFileChecksum(Path path, ChecksumAlgorithm algorithm, LockPolicy lockPolicy, long lockTimeoutMillis) throws Exception {
+        return calculateFileChecksum(path, algorithm, lockPolicy, lockTimeoutMillis, null, null);
+    }
+
+    /**
+     * Computes the checksum of the whole file, copying its first bytes to the header
+     * buffer, if any, as they go through the hasher, and reading no faster than the
+     * throttle, if any, allows.
+     */
+    static String calculateFileChecksum(Path path, ChecksumAlgorithm algorithm, LockPolicy lockPolicy, long lockTimeoutMillis,
+                                        ByteBuffer header, IoThrottle.Limiter throttle) throws Exception {
+        if (algorithm.isEnabled()) {
+            try (var fileChannel = openLocked(path, lockPolicy, lockTimeoutMillis)) {
+                FileHasher hasher = algorithm.newHasher();
+                hashRange(fileChannel, 0, fileChannel.size(), hasher, header, throttle);
+                return bytesToHex(hasher.digest());
             }
-        } catch (Exception e) {
-            logger.info("--- importDirectory. Failed to retrieve file permissions: " + e.getMessage());
         }
-        return filePermissions;
+        return "";
+    }
+
+    /**
+     * Hashes the size of the file followed by a block at its start, middle and end.
+     * Files no longer than three blocks are hashed entirely. This is much cheaper than
+     * a full checksum on large files, but only tells files apart if they differ in size
+     * or within one of the sampled blocks.
+     */
+    static String calculateQuickFingerprint(Path path, ChecksumAlgorithm algorithm, int blockSize,
+                                            LockPolicy lockPolicy, long lockTimeoutMillis) throws Exception {
+        return calculateQuickFingerprint(path, algorithm, blockSize, lockPolicy, lockTimeoutMillis, null, null);
+    }
+
+    static String calculateQuickFingerprint(Path path, ChecksumAlgorithm algorithm, int blockSize,
+                                            LockPolicy lockPolicy, long lockTimeoutMillis, ByteBuffer header,
+                                            IoThrottle.Limiter throttle) throws Exception {
+        try (var fileChannel = openLocked(path, lockPolicy, lockTimeoutMillis)) {
+            FileHasher hasher = algorithm.newHasher();
+            long size = fileChannel.size();
+            hasher.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+            if (size <= 3L * blockSize) {
+                hashRange(fileChannel, 0, size, hasher, header, throttle);
+            } else {
+                hashRange(fileChannel, 0, blockSize, hasher, header, throttle);
+                hashRange(fileChannel, (size - blockSize) / 2, blockSize, hasher, null, throttle);
+                hashRange(fileChannel, size - blockSize, blockSize, hasher, null, throttle);
+            }
+            return bytesToHex(hasher.digest());
+        }
+    }
+
+    /**
+     * Reads the first bytes of the file into the header buffer, for when they were
+     * not read along with a checksum. The bytes already in the buffer, from the start
+     * of the file, are kept and the rest is read from the same offset.
+     */
+    static void readHeader(Path path, ByteBuffer header, LockPolicy lockPolicy, long lockTimeoutMillis) throws Exception {
+        try (var fileChannel = openLocked(path, lockPolicy, lockTimeoutMillis)) {
+            while (header.hasRemaining() && fileChannel.read(header, header.position()) > 0) {
+                // a single read is enough for a regular file
+            }
+        }
+    }
+
+    /**
+     * Opens the file for reading and locks it according to the policy. The lock is
+     * released when the channel is closed.
+     */
+    private static FileChannel openLocked(Path path, LockPolicy lockPolicy, long lockTimeoutMillis) throws IOException {
+        FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            lockPolicy.acquire(fileChannel, lockTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+        return fileChannel;
     }
 
-    private static String calculateFileChecksum(Path path, String algorithm) throws Exception {
-        if (Files.exists(path)) {
-            try (var fileChannel = FileChannel.open(path, StandardOpenOption.READ);
-                 var lock = fileChannel.lock(0, Long.MAX_VALUE, true)) {
-                    MessageDigest digest = MessageDigest.getInstance(algorithm);
-                    try (var inputStream = Files.newInputStream(path)) {
-                        byte[] buffer = new byte[8192];
-                        int bytesRead;
-                        while ((bytesRead = inputStream.read(buffer)) != -1) {
-                            digest.update(buffer, 0, bytesRead);
+    private static void hashRange(FileChannel fileChannel, long position, long length, FileHasher hasher,
+                                  ByteBuffer header, IoThrottle.Limiter throttle) throws IOException {
+        long end = Math.min(position + length, fileChannel.size());
+        // only an empty header is filled, from the start of the file
+        boolean copyHeader = header != null && header.position() == 0 && position == 0;
+        if (end - position >= mappedReadThreshold) {
+            try {
+                for (; position < end; position += mappedReadWindowSize) {
+                    long windowSize = Math.min(mappedReadWindowSize, end - position);
+                    ByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                    if (copyHeader && position == 0) {
+                        copyHeader(window, header);
+                    }
+                    if (throttle != null && throttle.isReadRateLimited()) {
+                        // pages are only read as they are hashed, so the window is hashed in throttled slices
+                        for (int offset = 0; offset < windowSize; offset += readBufferSize) {
+                            ByteBuffer slice = window.duplicate();
+                            slice.position(offset).limit((int) Math.min(windowSize, offset + readBufferSize));
+                            throttle.read(slice.remaining());
+                            hasher.update(slice);
                         }
+                    } else {
+                        hasher.update(window);
                     }
-                    return bytesToHex(digest.digest());
+                }
+            } catch (InternalError e) {
+                // raised by the JVM when a mapped file is truncated while it is being read
+                throw new IOException("File changed while it was read", e);
             }
+            return;
+        }
+
+        ByteBuffer buffer = readBuffer.get();
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            if (throttle != null) {
+                throttle.read(buffer.remaining());
+            }
+            int bytesRead = fileChannel.read(buffer, position);
+            if (bytesRead < 0) {
+                break;
+            }
+            buffer.flip();
+            if (copyHeader && position == 0) {
+                copyHeader(buffer, header);
+            }
+            hasher.update(buffer);
+            position += bytesRead;
         }
-        return "";
+    }
+
+    private static void copyHeader(ByteBuffer data, ByteBuffer header) {
+        ByteBuffer start = data.duplicate();
+        start.limit(start.position() + Math.min(start.remaining(), header.remaining()));
+        header.put(start);
     }
 
     private static String bytesToHex(byte[] bytes) {
@@ -209,39 +416,95 @@ public class FilesImporter {
         }
     }
 
-    private static String getFileContent(Path path) {
-        if (Files.exists(path) && Files.isReadable(path)) {
-            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-                StringBuilder contentBuilder = new StringBuilder();
-                char[] buffer = new char[1024];
-                int bytesRead;
-                int totalBytesRead = 0;
-                int maxBytes = fileContentSizeLimit;
+    /** Number of bytes read from a file for a content snippet of the given number of characters */
+    static int getContentSnippetBytes(int maxChars) {
+        // enough for characters of up to four bytes, as in UTF-8
+        return Math.max(64, 4 * maxChars);
+    }
 
-                while ((bytesRead = reader.read(buffer, 0, Math.min(buffer.length, maxBytes - totalBytesRead))) != -1) {
-                    contentBuilder.append(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
+    /**
+     * Returns up to maxChars characters of text from the first bytes of a file, or an
+     * empty string if they are not text. Binary content is rejected from the bytes
+     * before anything is decoded. The charset is taken from the byte order mark or
+     * guessed from the bytes, so that text in legacy encodings such as EUC-JP or
+     * Windows-1252 decodes correctly.
+     *
+     * @param head      the first bytes of the file
+     * @param truncated whether the file is longer than those bytes, in which case
+     *                  the last character may be cut
+     */
+    static String getFileContent(ByteBuffer head, boolean truncated, int maxChars) {
+        Charset charset = getByteOrderMarkCharset(head);
+        if (charset == null) {
+            if (!MimeTypeDetector.looksLikeText(head)) {
+                return "";
+            }
+            charset = detectCharset(head);
+        }
+        CharBuffer chars;
+        try {
+            chars = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(head.duplicate());
+        } catch (CharacterCodingException e) {
+            return "";
+        }
+        int length = chars.remaining();
+        if (truncated && length > 0 && chars.get(length - 1) == '\uFFFD') {
+            length--;
+        }
+        if (length > maxChars) {
+            length = Character.isHighSurrogate(chars.get(maxChars - 1)) ? maxChars - 1 : maxChars;
+        }
+        String content = chars.subSequence(0, length).toString();
+        // the byte order mark is not part of the text
+        if (content.startsWith("\uFEFF")) {
+            content = content.substring(1);
+        }
+        return canIncludeFileContent(content) ? content : "";
+    }
 
-                    if (totalBytesRead >= maxBytes) {
-                        break;
-                    }
-                }
+    private static Charset getByteOrderMarkCharset(ByteBuffer head) {
+        int position = head.position();
+        if (head.remaining() >= 3 && (head.get(position) & 0xff) == 0xef
+                && (head.get(position + 1) & 0xff) == 0xbb && (head.get(position + 2) & 0xff) == 0xbf) {
+            return StandardCharsets.UTF_8;
+        }
+        if (head.remaining() >= 2) {
+            int first = head.get(position) & 0xff;
+            int second = head.get(position + 1) & 0xff;
+            if (first == 0xfe && second == 0xff) {
+                return StandardCharsets.UTF_16BE;
+            } else if (first == 0xff && second == 0xfe) {
+                return StandardCharsets.UTF_16LE;
+            }
+        }
+        return null;
+    }
 
-                String content = contentBuilder.toString();
-                if (canIncludeFileContent(content)) {
-                    return content;
-                }
-            } catch (IOException e) {
-                logger.info("--- importDirectory. Failed to read file content: " + e.getMessage());
+    private static Charset detectCharset(ByteBuffer head) {
+        UniversalDetector detector = charsetDetector.get();
+        try {
+            detector.handleData(head.array(), head.arrayOffset() + head.position(), head.remaining());
+            detector.dataEnd();
+            String charsetName = detector.getDetectedCharset();
+            if (charsetName != null && Charset.isSupported(charsetName)) {
+                return Charset.forName(charsetName);
             }
+        } finally {
+            detector.reset();
         }
-        return "";
+        // nothing but ASCII, or too little text to tell
+        return StandardCharsets.UTF_8;
     }
 
     private static boolean canIncludeFileContent(String content) {
-            int lengthToCheck = Math.min(content.length(), fileContentSizeLimit);
+            if (content.isEmpty()) {
+                return false;
+            }
             int nonPrintableCount = 0;
-            for (int i = 0; i < lengthToCheck; i++) {
+            for (int i = 0; i < content.length(); i++) {
                if ( !Character.isDefined(content.charAt(i)) ||
                        (!(content.charAt(i) == '\r' || content.charAt(i) == '\n' || content.charAt(i) == '\t') &&
                         Character.isISOControl(content.charAt(i))) )
@@ -249,34 +512,51 @@ public class FilesImporter {
                     nonPrintableCount++;
                 }
             }
-            return (nonPrintableCount / (double) lengthToCheck) <= 0.05;
+            return (nonPrintableCount / (double) content.length()) <= 0.05;
+    }
+
+    /** Whether the path is one of the {@link #restrictedDirectories} right under a file system root */
+    static boolean isRestrictedDirectory(Path path) {
+        Path parent = path.getParent();
+        if (parent == null || parent.getParent() != null || path.getFileName() == null) {
+            return false;
+        }
+        String name = path.getFileName().toString();
+        return Arrays.stream(restrictedDirectories).anyMatch(restrictedDirName -> name.equalsIgnoreCase(restrictedDirName));
     }
 
     public static List<String> getRootDirectories() {
         Iterable<Path> rootDirectories = FileSystems.getDefault().getRootDirectories();
         List<String> rootFS = new ArrayList<>();
         for (Path root : rootDirectories) {
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
-                for (Path child : stream) {
-                    try {
-                        BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
-                        if ( attrs.isDirectory() && ! Arrays.stream(restrictedDirectories).anyMatch(restrictedDirName -> child.getFileName().toString().equalsIgnoreCase(restrictedDirName))) {
-                            rootFS.add(child.toString());
-                        }
-                    } catch (Exception e) {
-                        // do nothing
-                    }
-                }
-            } catch (Exception e) {
-                // do nothing
+            List<Path> children = listSubdirectories(root, null, Integer.MAX_VALUE);
+            if (children.isEmpty()) {
                 rootFS.add(root.toString());
             }
+            for (Path childPath : children) {
+                if (!isRestrictedDirectory(childPath)) {
+                    rootFS.add(childPath.toString());
+                }
+            }
         }
         rootFS.sort((dir1, dir2) -> dir1.compareToIgnoreCase(dir2));
         return rootFS;
     }
 
-    public static void generateDirectoryTree(String directoryPath, Path outputFile) throws IOException {
+    /**
+     * Writes the directory and the given number of levels of its subdirectories as
+     * JSON. Each node has a "hasChildren" flag, so deeper levels can be fetched when
+     * they are expanded. Children are listed by name, one page at a time: when a
+     * directory has more subdirectories than the page size, its node gets a
+     * "nextCursor" to pass back as cursor to get the following ones.
+     *
+     * @param levels number of levels of subdirectories to include, at least 1
+     * @param cursor name after which the children of the top directory start, or null
+     * @param pageSize maximum number of children listed per directory
+     * @param output receives the JSON as it is generated, and is closed at the end
+     */
+    public static void generateDirectoryTree(String directoryPath, int levels, String cursor, int pageSize,
+                                             OutputStream output) throws IOException {
         Path dir = Paths.get(directoryPath);
         if (!Files.isDirectory(dir)) {
             throw new IllegalArgumentException("The provided path must be a directory.");
@@ -284,16 +564,17 @@ public class FilesImporter {
 
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
-        try (JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(outputFile.toFile(), JsonEncoding.UTF8)) {
+        try (JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
             jsonGenerator.writeStartObject();
-            buildDirectoryNode(dir, jsonGenerator);
+            buildDirectoryNode(dir, Math.max(1, levels), cursor, Math.max(1, pageSize), jsonGenerator);
             jsonGenerator.writeEndObject();
         } catch (Exception e) {
-            logger.info("--- directoryHierarchy - Failed to write directory structure to file: " + e.getMessage());
+            logger.info("--- directoryHierarchy - Failed to write directory structure: " + e.getMessage());
         }
     }
 
-    private static void buildDirectoryNode(Path dir, JsonGenerator jsonGenerator) throws IOException {
+    private static void buildDirectoryNode(Path dir, int levels, String cursor, int pageSize,
+                                           JsonGenerator jsonGenerator) throws IOException {
         try {
             String dirName = "unknown";
             String dirPath = "unknown";
@@ -308,32 +589,99 @@ public class FilesImporter {
             jsonGenerator.writeFieldName("path");
             jsonGenerator.writeString(dirPath);
 
-            jsonGenerator.writeFieldName("children");
-            jsonGenerator.writeStartArray();
+            if (levels == 0) {
+                jsonGenerator.writeFieldName("hasChildren");
+                jsonGenerator.writeBoolean(hasSubdirectory(dir));
+                return;
+            }
 
-            List<Path> children = new ArrayList<>();
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
-                for (Path child : stream) {
-                    if (Files.isDirectory(child)) {
-                        children.add(child);
-                    }
-                }
-            } catch (Exception e) {
-                // do nothing - Security exception
+            List<Path> children = listSubdirectories(dir, cursor, pageSize + 1);
+            boolean hasMore = children.size() > pageSize;
+            if (hasMore) {
+                children = children.subList(0, pageSize);
             }
 
-            children.sort((p1, p2) -> p1.getFileName().toString().compareToIgnoreCase(p2.getFileName().toString()));
+            jsonGenerator.writeFieldName("hasChildren");
+            jsonGenerator.writeBoolean(!children.isEmpty() || cursor != null);
+
+            jsonGenerator.writeFieldName("children");
+            jsonGenerator.writeStartArray();
             for (Path child : children) {
                 jsonGenerator.writeStartObject();
-                buildDirectoryNode(child, jsonGenerator);
+                buildDirectoryNode(child, levels - 1, null, pageSize, jsonGenerator);
                 jsonGenerator.writeEndObject();
             }
             jsonGenerator.writeEndArray();
+
+            if (hasMore) {
+                jsonGenerator.writeFieldName("nextCursor");
+                jsonGenerator.writeString(children.get(children.size() - 1).getFileName().toString());
+            }
         } catch (Exception e) {
             logger.info("--- directoryHierarchy - Failed to process directory: " + e.getMessage());
         }
     }
 
+    /**
+     * Returns the first subdirectories of the directory whose name sorts after the
+     * cursor, at most limit of them. Listings come from the {@link DirectoryListingCache},
+     * except for directories too large to be cached, which are listed directly.
+     */
+    private static List<Path> listSubdirectories(Path dir, String cursor, int limit) {
+        List<String> names = DirectoryListingCache.getInstance().getSubdirectories(dir);
+        if (names == null) {
+            return streamSubdirectories(dir, cursor, limit);
+        }
+        int start = 0;
+        if (cursor != null) {
+            int index = Collections.binarySearch(names, cursor, DirectoryListingCache.NAME_ORDER);
+            start = index >= 0 ? index + 1 : -index - 1;
+        }
+        List<Path> children = new ArrayList<>();
+        for (int i = start; i < names.size() && children.size() < limit; i++) {
+            children.add(dir.resolve(names.get(i)));
+        }
+        return children;
+    }
+
+    /**
+     * Lists the subdirectories of the directory without caching them. Only the limit
+     * smallest names are held while listing, however large the directory is.
+     */
+    private static List<Path> streamSubdirectories(Path dir, String cursor, int limit) {
+        Comparator<Path> order = Comparator.comparing(path -> path.getFileName().toString(), DirectoryListingCache.NAME_ORDER);
+        // the largest names kept so far come out first, to be replaced by smaller ones
+        PriorityQueue<Path> smallest = new PriorityQueue<>(Math.min(limit, 1024) + 1, order.reversed());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                String name = child.getFileName().toString();
+                if (cursor != null && DirectoryListingCache.NAME_ORDER.compare(name, cursor) <= 0) {
+                    continue;
+                }
+                if (smallest.size() == limit && order.compare(child, smallest.peek()) >= 0) {
+                    continue;
+                }
+                if (Files.isDirectory(child)) {
+                    smallest.add(child);
+                    if (smallest.size() > limit) {
+                        smallest.poll();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // do nothing - Security exception
+        }
+        List<Path> children = new ArrayList<>(smallest);
+        children.sort(order);
+        return children;
+    }
+
+    private static boolean hasSubdirectory(Path dir) {
+        List<String> names = DirectoryListingCache.getInstance().getSubdirectories(dir);
+        // a directory too large to be cached has subdirectories
+        return names == null || !names.isEmpty();
+    }
+
     public static String generateProjectName(ArrayNode directoryInput)  {
         if ( directoryInput == null || directoryInput.isEmpty() ) {
             return "folder-details";
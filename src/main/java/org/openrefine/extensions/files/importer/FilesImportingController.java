@@ -17,19 +17,22 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Timestamp;
-import java.time.Instant;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 import static com.google.refine.commands.Command.respondJSON;
-import static com.google.refine.importing.ImportingUtilities.*;
 
 public class FilesImportingController implements ImportingController {
     private static final Logger logger = LoggerFactory.getLogger("FilesImportingController");
+    static final int DEFAULT_PREVIEW_LIMIT = 100;
+    static final int DEFAULT_HIERARCHY_PAGE_SIZE = 500;
+    static final int MAX_HIERARCHY_PAGE_SIZE = 10_000;
+    static final int MAX_HIERARCHY_LEVELS = 10;
     protected RefineServlet servlet;
 
     @Override
@@ -68,6 +71,14 @@ public class FilesImportingController implements ImportingController {
                 logger.error("doPost::FilesServiceException::{}", e);
                 HttpUtilities.respond(response, "error", "Unable to load file list from local directory");
             }
+        } else if ("cancel-scan".equals(subCommand)) {
+            doCancelScan(request, response, parameters);
+        } else if ("scan-stats".equals(subCommand)) {
+            doScanStats(request, response, parameters);
+        } else if ("update-scan-limits".equals(subCommand)) {
+            doUpdateScanLimits(request, response, parameters);
+        } else if ("list-snapshots".equals(subCommand)) {
+            doListSnapshots(request, response, parameters);
         } else if ("create-project".equals(subCommand)) {
             doCreateProject(request, response, parameters);
         } else if ("filesystem-details".equals(subCommand)) {
@@ -82,10 +93,41 @@ public class FilesImportingController implements ImportingController {
 
     private void getDirectoryHierarchy(HttpServletRequest request, HttpServletResponse response, Properties parameters) throws ServletException, IOException {
         String dirPath = parameters.getProperty("dirPath");
-        String fileName = "directoryList_OR_".concat(Instant.now().toString().replace(":", ""));
-        Path outputFile = Files.createTempFile(fileName, ".json");
-        FilesImporter.generateDirectoryTree(dirPath, outputFile);
-        respondJSON(response, Files.readString(outputFile));
+        if (dirPath == null || !Files.isDirectory(Paths.get(dirPath))) {
+            HttpUtilities.respond(response, "error", "The provided path must be a directory.");
+            return;
+        }
+        Integer levels = getIntParameter(parameters, "levels", 1, 1, MAX_HIERARCHY_LEVELS);
+        Integer pageSize = getIntParameter(parameters, "pageSize", DEFAULT_HIERARCHY_PAGE_SIZE, 1, MAX_HIERARCHY_PAGE_SIZE);
+        if (levels == null || pageSize == null) {
+            HttpUtilities.respond(response, "error", "The levels and pageSize parameters must be numbers.");
+            return;
+        }
+        String cursor = parameters.getProperty("cursor");
+
+        // the tree is written to the response as it is walked, compressed if the client accepts it
+        response.setContentType("application/json");
+        OutputStream output = response.getOutputStream();
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            output = new GZIPOutputStream(output);
+        }
+        FilesImporter.generateDirectoryTree(dirPath, levels, cursor == null || cursor.isEmpty() ? null : cursor,
+                pageSize, output);
+    }
+
+    /** The value of an integer parameter within the given bounds, or null if it is not a number */
+    private static Integer getIntParameter(Properties parameters, String name, int defaultValue, int min, int max) {
+        String value = parameters.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(min, Math.min(max, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     private void getFileSystemDetails(HttpServletRequest request, HttpServletResponse response, Properties parameters)
@@ -111,6 +153,29 @@ public class FilesImportingController implements ImportingController {
         JSONUtilities.safePut(result, "projectName", projectName);
 
         JSONUtilities.safePut(options, "skipDataLines", 0);
+        JSONUtilities.safePut(options, "checksumAlgorithm", ChecksumAlgorithm.SHA256.getId());
+        JSONUtilities.safePut(options, "quickFingerprint", false);
+        JSONUtilities.safePut(options, "quickFingerprintThresholdMB", 0);
+        JSONUtilities.safePut(options, "quickFingerprintBlockSizeKB", ScanOptions.DEFAULT_QUICK_FINGERPRINT_BLOCK_SIZE_KB);
+        JSONUtilities.safePut(options, "lockPolicy", LockPolicy.ALWAYS.getId());
+        JSONUtilities.safePut(options, "lockTimeoutMs", ScanOptions.DEFAULT_LOCK_TIMEOUT_MS);
+        JSONUtilities.safePut(options, "previewLimit", DEFAULT_PREVIEW_LIMIT);
+        JSONUtilities.safePut(options, "maxDepth", ScanOptions.DEFAULT_MAX_DEPTH);
+        JSONUtilities.safePut(options, "diffMode", false);
+        JSONUtilities.safePut(options, "duplicatesMode", false);
+        JSONUtilities.safePut(options, "listArchiveEntries", false);
+        JSONUtilities.safePut(options, "detectMimeType", false);
+        JSONUtilities.safePut(options, "contentSnippet", false);
+        JSONUtilities.safePut(options, "contentSnippetLength", ScanOptions.DEFAULT_CONTENT_SNIPPET_LENGTH);
+        JSONUtilities.safePut(options, "includeGlobs", "");
+        JSONUtilities.safePut(options, "excludeGlobs", "");
+        JSONUtilities.safePut(options, "followSymlinks", false);
+        JSONUtilities.safePut(options, "skipHidden", false);
+        JSONUtilities.safePut(options, "metadataConcurrency", 0);
+        JSONUtilities.safePut(options, "metadataOpsPerSecond", 0);
+        JSONUtilities.safePut(options, "readConcurrency", 0);
+        JSONUtilities.safePut(options, "readMBPerSecond", 0);
+        JSONUtilities.safePut(options, "saveSnapshot", false);
         if(logger.isDebugEnabled()) {
             logger.debug("doInitializeParserUI:::{}", result.toString());
         }
@@ -130,49 +195,109 @@ public class FilesImportingController implements ImportingController {
             return;
         }
 
-        job.prepareNewProject();
-
-        ObjectNode config = job.getOrCreateDefaultConfig();
-        ObjectNode retrievalRecord = ParsingUtilities.mapper.createObjectNode();
-        JSONUtilities.safePut(config, "retrievalRecord", retrievalRecord);
-
-        ArrayNode fileRecords = ParsingUtilities.mapper.createArrayNode();
-        JSONUtilities.safePut(retrievalRecord, "files", fileRecords);
-
-        job.updating = true;
         ObjectNode optionObj = ParsingUtilities.evaluateJsonStringToObjectNode(
                 request.getParameter("options"));
 
-        List<Exception> exceptions = new LinkedList<Exception>();
+        // the preview only lists the first files, without reading their contents;
+        // the full scan is done when the project is created
+        ScanOptions scanOptions = ScanOptions.fromJson(optionObj);
+        // (a comparison needs both directories in full, it only skips reading contents)
+        if (!scanOptions.isDiffMode()) {
+            scanOptions.setRecordLimit(JSONUtilities.getInt(optionObj, "previewLimit", DEFAULT_PREVIEW_LIMIT));
+        }
+        scanOptions.setReadContents(false);
 
-        File file = allocateFile(job.getRawDataDir(), "filesList.csv");
+        // the scan runs in the background, its progress is polled through the job status
+        ScanJob.start(job, scanOptions, "scanning", () -> {
+            ObjectNode config = job.getOrCreateDefaultConfig();
+            synchronized (config) {
+                JSONUtilities.safePut(config, "hasData", true);
+            }
+            job.setState("ready");
+        });
 
-        long fileLength = FilesImporter.generateFileList(file, optionObj);
+        ObjectNode result = ParsingUtilities.mapper.createObjectNode();
+        JSONUtilities.safePut(result, "job", job.getJsonConfig());
+        JSONUtilities.safePut(result, "status", "ok");
+
+        respondJSON(response, result);
+    }
 
-        ObjectNode fileRecord = ParsingUtilities.mapper.createObjectNode();
-        JSONUtilities.safePut(fileRecord, "origin", "directoryScan");
-        JSONUtilities.safePut(fileRecord, "declaredEncoding", "UTF-8");
-        JSONUtilities.safePut(fileRecord, "declaredMimeType", (String) null);
-        JSONUtilities.safePut(fileRecord, "fileName", "filelist.csv");
-        JSONUtilities.safePut(fileRecord, "location", getRelativePath(file, job.getRawDataDir()));
-        JSONUtilities.safePut(fileRecord, "size", fileLength);
-        JSONUtilities.safePut(fileRecord, "format","text/line-based/*sv" );
-        JSONUtilities.append(fileRecords, fileRecord);
+    private void doCancelScan(HttpServletRequest request, HttpServletResponse response, Properties parameters)
+            throws ServletException, IOException {
+        long jobID = Long.parseLong(parameters.getProperty("jobID"));
+        try {
+            boolean cancelled = ScanJob.cancel(jobID);
+            HttpUtilities.respond(response, "ok", cancelled ? "cancelled" : "no scan running");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            HttpUtilities.respond(response, "error", "Interrupted while cancelling the scan");
+        }
+    }
+
+    /**
+     * Responds with the time spent in each phase of the scan of the job, while it
+     * runs or once it is over.
+     */
+    private void doScanStats(HttpServletRequest request, HttpServletResponse response, Properties parameters)
+            throws ServletException, IOException {
+        long jobID = Long.parseLong(parameters.getProperty("jobID"));
+        ImportingJob job = ImportingManager.getJob(jobID);
+        if (job == null) {
+            HttpUtilities.respond(response, "error", "No such import job");
+            return;
+        }
+        ObjectNode stats;
+        ScanJob scanJob = ScanJob.get(jobID);
+        if (scanJob != null) {
+            stats = scanJob.getStats().toJson();
+        } else {
+            ObjectNode config = job.getOrCreateDefaultConfig();
+            synchronized (config) {
+                stats = (ObjectNode) config.get("scanStats");
+            }
+        }
+        if (stats == null) {
+            HttpUtilities.respond(response, "error", "No scan was run for this job");
+            return;
+        }
 
-        FilesImporter.loadData(job.project, job.metadata, job, fileRecords);
+        ObjectNode result = ParsingUtilities.mapper.createObjectNode();
+        JSONUtilities.safePut(result, "status", "ok");
+        JSONUtilities.safePut(result, "scanStats", stats);
+        respondJSON(response, result);
+    }
 
-        job.touch();
-        job.updating = false;
+    /**
+     * Replaces the limits of the scan running for the job, which apply to its next
+     * operations on each file store, and responds with the file stores read from so
+     * far and their limits.
+     */
+    private void doUpdateScanLimits(HttpServletRequest request, HttpServletResponse response, Properties parameters)
+            throws ServletException, IOException {
+        long jobID = Long.parseLong(parameters.getProperty("jobID"));
+        ScanJob scanJob = ScanJob.get(jobID);
+        if (scanJob == null) {
+            HttpUtilities.respond(response, "ok", "no scan running");
+            return;
+        }
+        ObjectNode optionObj = ParsingUtilities.evaluateJsonStringToObjectNode(
+                request.getParameter("options"));
+        ScanLimits limits = ScanLimits.fromJson(optionObj, ScanLimits.UNLIMITED);
+        scanJob.getThrottle().update(limits, ScanLimits.storeLimitsFromJson(optionObj, limits));
 
         ObjectNode result = ParsingUtilities.mapper.createObjectNode();
-        ArrayNode rankedFormats = ParsingUtilities.mapper.createArrayNode();
-        rankedFormats.add("text/line-based/*sv");
-        rankedFormats.add("text/line-based");
-        JSONUtilities.safePut(config, "rankedFormats", rankedFormats);
-        JSONUtilities.safePut(config, "hasData", true);
-        JSONUtilities.safePut(result, "job", job.getJsonConfig());
         JSONUtilities.safePut(result, "status", "ok");
+        JSONUtilities.safePut(result, "stores", scanJob.getThrottle().toJson());
+        respondJSON(response, result);
+    }
 
+    /** Responds with the snapshots of earlier scans kept in the workspace */
+    private void doListSnapshots(HttpServletRequest request, HttpServletResponse response, Properties parameters)
+            throws ServletException, IOException {
+        ObjectNode result = ParsingUtilities.mapper.createObjectNode();
+        JSONUtilities.safePut(result, "status", "ok");
+        JSONUtilities.safePut(result, "snapshots", ScanSnapshot.list());
         respondJSON(response, result);
     }
 
@@ -186,28 +311,43 @@ public class FilesImportingController implements ImportingController {
             return;
         }
 
-        job.updating = true;
         final ObjectNode optionObj = ParsingUtilities.evaluateJsonStringToObjectNode(
                 request.getParameter("options"));
+        ScanOptions scanOptions = ScanOptions.fromJson(optionObj);
+        // a diff compares the snapshot with the selected directory, and keeps the options of the diff
+        if (scanOptions.getSnapshotId() != null && !scanOptions.isDiffMode()) {
+            try (ScanSnapshot snapshot = ScanSnapshot.open(scanOptions.getSnapshotId())) {
+                // the project has the directories and columns of the snapshot, which a refresh scans again
+                optionObj.setAll((ObjectNode) snapshot.getHeader().get("options").deepCopy());
+                optionObj.remove("snapshotId");
+            } catch (IOException e) {
+                HttpUtilities.respond(response, "error", "No such snapshot");
+                return;
+            }
+        }
 
-        final List<Exception> exceptions = new LinkedList<Exception>();
-
-        job.setState("creating-project");
-
-        final Project project = job.project;
-
-        job.metadata.setName(JSONUtilities.getString(optionObj, "projectName", "Untitled"));
-        job.metadata.setEncoding(JSONUtilities.getString(optionObj, "encoding", "UTF-8"));
-        job.metadata.setTags(JSONUtilities.getStringArray(optionObj, "projectTags"));;
-        project.update(); // update all internal models, indexes, caches, etc.
-
-        ProjectManager.singleton.registerProject(job.project, job.metadata);
-
-        job.setProjectID(project.id);
-        job.setState("created-project");
-
-        job.touch();
-        job.updating = false;
+        // the full scan replaces the limited preview, the frontend polls the job until the project exists
+        try {
+            ScanJob.start(job, scanOptions, "creating-project", () -> {
+                final Project project = job.project;
+
+                job.metadata.setName(JSONUtilities.getString(optionObj, "projectName", "Untitled"));
+                job.metadata.setEncoding(JSONUtilities.getString(optionObj, "encoding", "UTF-8"));
+                job.metadata.setTags(JSONUtilities.getStringArray(optionObj, "projectTags"));
+                // the directories and options are kept to refresh the project later
+                job.metadata.appendImportOptionMetadata(optionObj);
+                project.update(); // update all internal models, indexes, caches, etc.
+
+                ProjectManager.singleton.registerProject(project, job.metadata);
+
+                job.setProjectID(project.id);
+                job.setState("created-project");
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            HttpUtilities.respond(response, "error", "Interrupted while cancelling the preview scan");
+            return;
+        }
 
         HttpUtilities.respond(response, "ok", "done");
     }
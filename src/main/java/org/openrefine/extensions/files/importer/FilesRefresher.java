@@ -0,0 +1,236 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.ProjectMetadata;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Re-scans the directories a files project was created from and works out the
+ * rows the project should now have.
+ * <p>
+ * Existing rows are matched to the scanned files by path. A file whose size and
+ * modification time are those of its row is not read again: its row keeps its
+ * checksum and other content columns, and only its attribute columns are updated.
+ * Rows of new files are appended in scan order, rows of files which no longer
+ * exist are dropped, and rows without a path are kept at the end. Columns added
+ * to the project after the import are left untouched.
+ * <p>
+ * Projects comparing two directories or listing duplicate files cannot be
+ * refreshed: their rows describe the files together rather than one by one.
+ */
+public class FilesRefresher {
+
+    /** The rows computed by a refresh, with counts of what changed */
+    public static class Result {
+        public final List<Row> rows = new ArrayList<>();
+        public int added;
+        public int changed;
+        public int unchanged;
+        public int removed;
+    }
+
+    /**
+     * Returns the options the project was imported with, or null if it was not
+     * created from local files.
+     */
+    public static ObjectNode getImportOptions(ProjectMetadata metadata) {
+        ArrayNode importOptions = metadata.getImportOptionMetadata();
+        if (importOptions == null) {
+            return null;
+        }
+        for (int i = importOptions.size() - 1; i >= 0; i--) {
+            JsonNode options = importOptions.get(i);
+            if (options instanceof ObjectNode && options.has("directoryJsonValue")) {
+                return (ObjectNode) options;
+            }
+        }
+        return null;
+    }
+
+    /** Whether a project imported with these options can be refreshed */
+    public static boolean isRefreshable(ObjectNode importOptions) {
+        ScanOptions scanOptions = ScanOptions.fromJson(importOptions);
+        return !scanOptions.isDiffMode() && !scanOptions.isDuplicatesMode();
+    }
+
+    /**
+     * The files found by the scan of a refresh, which are only turned into rows when
+     * the refresh is applied, so that edits made to the project during the scan are
+     * kept.
+     */
+    public static class Scan {
+        final ScanOptions scanOptions;
+        final FileRecordStore records;
+        // rows as they were when the scan started, by path, for files whose contents were not read again
+        final Map<String, Row> unreadRows = new HashMap<>();
+
+        Scan(ScanOptions scanOptions) {
+            this.scanOptions = scanOptions;
+            this.records = new FileRecordStore(scanOptions);
+        }
+
+        public int size() {
+            return records.size();
+        }
+    }
+
+    /** Scans the directories and computes the rows the project now has, in one go */
+    public static Result refresh(Project project, FileScanner scanner) throws Exception {
+        Scan scan = scan(project, scanner, () -> { });
+        synchronized (project) {
+            return buildRows(project, scan);
+        }
+    }
+
+    /**
+     * Scans the directories of the project. The rows of the project are only read
+     * when the scan starts, to tell which files are unchanged and need not be read
+     * again. The given callback is run after each scanned file.
+     */
+    public static Scan scan(Project project, FileScanner scanner, Runnable onFile) throws Exception {
+        if (scanner.getOptions().isDiffMode() || scanner.getOptions().isDuplicatesMode()) {
+            throw new IllegalArgumentException("Diff and duplicates projects cannot be refreshed, they have to be created again");
+        }
+        Map<String, Row> existingRows = new HashMap<>();
+        int sizeCellIndex;
+        int modifiedCellIndex;
+        synchronized (project) {
+            int pathCellIndex = getPathCellIndex(project);
+            sizeCellIndex = getCellIndex(project, "fileSize(KB)");
+            modifiedCellIndex = getCellIndex(project, "lastModifiedTime");
+            for (Row row : project.rows) {
+                Object path = row.getCellValue(pathCellIndex);
+                if (path != null && !"".equals(path)) {
+                    existingRows.putIfAbsent(path.toString(), row);
+                }
+            }
+        }
+
+        // only read by the workers, while the consumer keeps track of the files which were not read
+        scanner.setUnchangedFiles(record -> isUnchanged(existingRows.get(record.getPath().toString()),
+                record, sizeCellIndex, modifiedCellIndex));
+        Scan scan = new Scan(scanner.getOptions());
+        scanner.scan(record -> {
+            String path = record.getPath().toString();
+            Row existing = existingRows.get(path);
+            if (isUnchanged(existing, record, sizeCellIndex, modifiedCellIndex)) {
+                scan.unreadRows.putIfAbsent(path, existing);
+            }
+            scan.records.add(record);
+            onFile.run();
+        });
+        return scan;
+    }
+
+    /**
+     * Computes the rows of the project from its current rows and the scanned files.
+     * Called while holding the lock of the project, so that the rows cannot change
+     * until the result is applied.
+     */
+    public static Result buildRows(Project project, Scan scan) {
+        int pathCellIndex = getPathCellIndex(project);
+        int sizeCellIndex = getCellIndex(project, "fileSize(KB)");
+        int modifiedCellIndex = getCellIndex(project, "lastModifiedTime");
+
+        Map<String, Row> existingRows = new HashMap<>();
+        List<Row> rowsWithoutPath = new ArrayList<>();
+        for (Row row : project.rows) {
+            Object path = row.getCellValue(pathCellIndex);
+            if (path == null || "".equals(path)) {
+                rowsWithoutPath.add(row);
+            } else {
+                existingRows.putIfAbsent(path.toString(), row);
+            }
+        }
+
+        List<FilesImporter.FileColumn> columns = FilesImporter.getColumns(scan.scanOptions);
+        int[] cellIndexes = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            cellIndexes[i] = getCellIndex(project, columns.get(i).name);
+        }
+        int cellCount = project.columnModel.getMaxCellIndex() + 1;
+
+        Result result = new Result();
+        Set<String> seenPaths = new HashSet<>();
+        for (int index = 0; index < scan.records.size(); index++) {
+            FileRecord record = scan.records.get(index);
+            String path = record.getPath().toString();
+            Row existing = seenPaths.add(path) ? existingRows.get(path) : null;
+            boolean unchanged = isUnchanged(existing, record, sizeCellIndex, modifiedCellIndex);
+            // a file which was not read keeps the contents of its row as the scan found it
+            Row unreadRow = unchanged ? null : scan.unreadRows.get(path);
+            Row row = existing != null ? existing.dup() : new Row(cellCount);
+            for (int i = 0; i < columns.size(); i++) {
+                FilesImporter.FileColumn column = columns.get(i);
+                if (cellIndexes[i] < 0 || (unchanged && column.content)) {
+                    continue;
+                }
+                if (column.content && unreadRow != null) {
+                    row.setCell(cellIndexes[i], unreadRow.getCell(cellIndexes[i]));
+                } else {
+                    setCell(row, cellIndexes[i], column.value.apply(record));
+                }
+            }
+            result.rows.add(row);
+            if (existing == null) {
+                result.added++;
+            } else if (unchanged) {
+                result.unchanged++;
+            } else {
+                result.changed++;
+            }
+        }
+        existingRows.keySet().removeAll(seenPaths);
+        result.removed = existingRows.size();
+        for (Row row : rowsWithoutPath) {
+            result.rows.add(row.dup());
+        }
+        return result;
+    }
+
+    private static int getPathCellIndex(Project project) {
+        Column pathColumn = project.columnModel.getColumnByName("filePath");
+        if (pathColumn == null) {
+            throw new IllegalArgumentException("The project has no filePath column");
+        }
+        return pathColumn.getCellIndex();
+    }
+
+    private static boolean isUnchanged(Row row, FileRecord record, int sizeCellIndex, int modifiedCellIndex) {
+        if (row == null || sizeCellIndex < 0 || modifiedCellIndex < 0) {
+            return false;
+        }
+        Object size = row.getCellValue(sizeCellIndex);
+        Object modified = row.getCellValue(modifiedCellIndex);
+        // the size column is rounded up to KB, the modification time is what tells most changes apart
+        return size instanceof Number && modified instanceof OffsetDateTime
+                && ((Number) size).longValue() == (long) Math.ceil(record.getSize() / 1024.0)
+                && ((OffsetDateTime) modified).toInstant().toEpochMilli() == record.getLastModifiedTime();
+    }
+
+    private static int getCellIndex(Project project, String columnName) {
+        Column column = project.columnModel.getColumnByName(columnName);
+        return column == null ? -1 : column.getCellIndex();
+    }
+
+    private static void setCell(Row row, int cellIndex, Serializable value) {
+        if (value == null || "".equals(value)) {
+            row.setCell(cellIndex, null);
+        } else {
+            FilesImporter.setCell(row, cellIndex, value);
+        }
+    }
+}
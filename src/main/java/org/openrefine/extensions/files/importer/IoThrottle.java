@@ -0,0 +1,224 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.util.JSONUtilities;
+import com.google.refine.util.ParsingUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds a scan to the {@link ScanLimits} of each file store it reads from, so that
+ * a scan of a network share does not saturate it while a local disk is read with
+ * all the scan threads.
+ * <p>
+ * Each file store gets its own {@link Limiter}, with the default limits of the
+ * scan unless limits were given for that store. Limits can be changed while the
+ * scan runs: the new limits apply to the next operations, while operations
+ * already waiting keep the wait computed with the previous limits. Time spent
+ * waiting is reported through {@link ScanStats}.
+ */
+public class IoThrottle {
+    private static final Logger logger = LoggerFactory.getLogger("IoThrottle");
+    // unused rate left over from idle moments, which can be spent at once
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ScanStats stats;
+    private final Map<FileStore, Limiter> limiters = new LinkedHashMap<>();
+    // for the paths whose file store cannot be found
+    private final Limiter unknownStoreLimiter;
+    private ScanLimits defaultLimits;
+    private Map<FileStore, ScanLimits> storeLimits = new HashMap<>();
+
+    IoThrottle(ScanLimits defaultLimits, Map<Path, ScanLimits> storeLimits, ScanStats stats) {
+        this.stats = stats;
+        this.unknownStoreLimiter = new Limiter(null);
+        update(defaultLimits, storeLimits);
+    }
+
+    /**
+     * Sets the limits of the scan, for all file stores but those listed by the path
+     * of a file on them, and applies them to the stores already read from.
+     */
+    public synchronized void update(ScanLimits defaultLimits, Map<Path, ScanLimits> storeLimits) {
+        this.defaultLimits = defaultLimits;
+        this.storeLimits = new HashMap<>();
+        storeLimits.forEach((path, limits) -> {
+            try {
+                this.storeLimits.put(Files.getFileStore(path), limits);
+            } catch (IOException e) {
+                logger.info("--- importDirectory. Cannot find the file store of: " + path + " - " + e.getMessage());
+            }
+        });
+        unknownStoreLimiter.apply(defaultLimits);
+        limiters.forEach((store, limiter) -> limiter.apply(getLimits(store)));
+    }
+
+    /** Returns the limiter of the file store, or of unknown stores if it is null */
+    synchronized Limiter get(FileStore store) {
+        if (store == null) {
+            return unknownStoreLimiter;
+        }
+        return limiters.computeIfAbsent(store, s -> {
+            Limiter limiter = new Limiter(s);
+            limiter.apply(getLimits(s));
+            return limiter;
+        });
+    }
+
+    private ScanLimits getLimits(FileStore store) {
+        return storeLimits.getOrDefault(store, defaultLimits);
+    }
+
+    /** The file stores read from so far, with their limits */
+    public synchronized ArrayNode toJson() {
+        ArrayNode stores = ParsingUtilities.mapper.createArrayNode();
+        for (Limiter limiter : limiters.values()) {
+            ObjectNode store = limiter.limits.toJson();
+            JSONUtilities.safePut(store, "store", limiter.store.toString());
+            stores.add(store);
+        }
+        return stores;
+    }
+
+    /** Limits the operations on one file store */
+    class Limiter {
+        final FileStore store;
+        private final ConcurrencyLimit metadataConcurrency = new ConcurrencyLimit();
+        private final RateLimit metadataRate = new RateLimit();
+        private final ConcurrencyLimit readConcurrency = new ConcurrencyLimit();
+        private final RateLimit readRate = new RateLimit();
+        // time each thread was held back, which its own operations leave out of their time
+        private final ThreadLocal<long[]> threadThrottleNanos = ThreadLocal.withInitial(() -> new long[1]);
+        private volatile ScanLimits limits = ScanLimits.UNLIMITED;
+
+        Limiter(FileStore store) {
+            this.store = store;
+        }
+
+        void apply(ScanLimits limits) {
+            this.limits = limits;
+            metadataConcurrency.setLimit(limits.getMetadataConcurrency());
+            metadataRate.setRate(limits.getMetadataOpsPerSecond());
+            readConcurrency.setLimit(limits.getReadConcurrency());
+            readRate.setRate(limits.getReadBytesPerSecond());
+        }
+
+        /** Waits for a metadata operation to be allowed, to be followed by {@link #endMetadata()} */
+        void startMetadata() throws InterruptedException {
+            long start = System.nanoTime();
+            metadataConcurrency.acquire();
+            metadataRate.acquire(1);
+            throttled(start);
+        }
+
+        void endMetadata() {
+            metadataConcurrency.release();
+        }
+
+        /** Waits for the contents of a file to be allowed to be read, to be followed by {@link #endRead()} */
+        void startRead() throws InterruptedException {
+            long start = System.nanoTime();
+            readConcurrency.acquire();
+            throttled(start);
+        }
+
+        void endRead() {
+            readConcurrency.release();
+        }
+
+        /** Waits until the given number of bytes can be read */
+        void read(long bytes) throws InterruptedIOException {
+            long start = System.nanoTime();
+            try {
+                readRate.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("File scan was interrupted");
+            }
+            throttled(start);
+        }
+
+        /** Time the calling thread has been held back so far */
+        long getThreadThrottleNanos() {
+            return threadThrottleNanos.get()[0];
+        }
+
+        boolean isReadRateLimited() {
+            return limits.getReadBytesPerSecond() > 0;
+        }
+
+        private void throttled(long start) {
+            // an operation let through right away takes well below a microsecond
+            long nanos = System.nanoTime() - start;
+            if (nanos > 1000) {
+                stats.throttled(nanos);
+                threadThrottleNanos.get()[0] += nanos;
+            }
+        }
+    }
+
+    /** Number of operations running at once, which can be changed while threads wait */
+    private static class ConcurrencyLimit {
+        private int limit;
+        private int running;
+
+        synchronized void setLimit(int limit) {
+            this.limit = limit;
+            notifyAll();
+        }
+
+        synchronized void acquire() throws InterruptedException {
+            while (limit > 0 && running >= limit) {
+                wait();
+            }
+            running++;
+        }
+
+        synchronized void release() {
+            running--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Number of units per second, enforced by giving each request the next free
+     * slot in time and making it wait until then.
+     */
+    private static class RateLimit {
+        private long unitsPerSecond;
+        private long nextFreeNanos = System.nanoTime();
+
+        synchronized void setRate(long unitsPerSecond) {
+            this.unitsPerSecond = unitsPerSecond;
+            // the requests already scheduled were so at the previous rate
+            nextFreeNanos = Math.min(nextFreeNanos, System.nanoTime());
+        }
+
+        void acquire(long units) throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                if (unitsPerSecond <= 0) {
+                    return;
+                }
+                long now = System.nanoTime();
+                nextFreeNanos = Math.max(nextFreeNanos, now - BURST_NANOS);
+                waitNanos = nextFreeNanos - now;
+                nextFreeNanos += units * TimeUnit.SECONDS.toNanos(1) / unitsPerSecond;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.openrefine.extensions.files.importer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whether a shared advisory lock is taken on files while they are hashed. Locking
+ * guarantees that cooperating writers do not modify a file while it is read, but
+ * costs an extra call per file and can block or fail on network file systems.
+ */
+public enum LockPolicy {
+    /** Wait for the lock, as long as it takes */
+    ALWAYS("always"),
+    /** Try to get the lock and give up on the file after the lock timeout */
+    TRY("try"),
+    /** Read files without locking them */
+    NEVER("never");
+
+    private static final long retryIntervalMillis = 50;
+
+    private final String id;
+
+    LockPolicy(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Takes a shared lock on the whole file according to this policy.
+     *
+     * @return the lock, or null if the policy does not lock files
+     * @throws FileLockedException if the lock could not be taken within the timeout
+     */
+    public FileLock acquire(FileChannel fileChannel, long timeoutMillis) throws IOException {
+        if (this == NEVER) {
+            return null;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            try {
+                if (this == ALWAYS) {
+                    return fileChannel.lock(0, Long.MAX_VALUE, true);
+                }
+                FileLock lock = fileChannel.tryLock(0, Long.MAX_VALUE, true);
+                if (lock != null) {
+                    return lock;
+                }
+            } catch (OverlappingFileLockException e) {
+                // the file is locked by another thread of this JVM, such as a concurrent import job
+            }
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (this == TRY && remainingMillis <= 0) {
+                throw new FileLockedException("File is locked by another program");
+            }
+            try {
+                Thread.sleep(this == TRY ? Math.min(retryIntervalMillis, remainingMillis) : retryIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FileLockedException("Interrupted while waiting for file lock");
+            }
+        }
+    }
+
+    public static LockPolicy fromId(String id) {
+        for (LockPolicy policy : values()) {
+            if (policy.id.equalsIgnoreCase(id)) {
+                return policy;
+            }
+        }
+        return ALWAYS;
+    }
+
+    /** Raised when a file could not be locked within the lock timeout */
+    public static class FileLockedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public FileLockedException(String message) {
+            super(message);
+        }
+    }
+}
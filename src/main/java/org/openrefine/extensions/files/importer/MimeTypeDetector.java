@@ -0,0 +1,296 @@
+package org.openrefine.extensions.files.importer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detects the type of a file from the first bytes of its content, whatever its
+ * name.
+ * <p>
+ * The known signatures are stored in prefix tries, one per offset at which
+ * signatures start, whose nodes keep their children in sorted byte arrays, so a
+ * header is matched in a single pass over its first bytes rather than against
+ * each signature in turn. Signatures may contain "any byte" positions, as in
+ * "RIFF????WAVE". When several signatures match, the longest one wins. Signatures
+ * made of printable characters, such as "MZ", are weak: they are ignored when the
+ * header looks like text. Others end with bytes that text does not have. Headers starting with a UTF-16 or UTF-32 byte order mark
+ * are text. Other headers matching no signature are reported as text when they
+ * look like text, with markup recognized by its leading tag, and as binary
+ * otherwise.
+ */
+class MimeTypeDetector {
+    /** Number of bytes of the file needed to detect its type */
+    static final int HEADER_SIZE = 512;
+
+    static final String TEXT = "text/plain";
+    static final String BINARY = "application/octet-stream";
+
+    private static final List<Trie> signatures = new ArrayList<>();
+    private static final Trie markup = new Trie(0);
+
+    static {
+        addSignature("image/png", 0, "89 50 4E 47 0D 0A 1A 0A");
+        addSignature("image/jpeg", 0, "FF D8 FF");
+        addSignature("image/gif", 0, ascii("GIF87a"));
+        addSignature("image/gif", 0, ascii("GIF89a"));
+        // followed by the file size and reserved bytes which are always zero
+        addSignature("image/bmp", 0, ascii("BM") + " ?? ?? ?? ?? 00 00 00 00");
+        addSignature("image/tiff", 0, "49 49 2A 00");
+        addSignature("image/tiff", 0, "4D 4D 00 2A");
+        addSignature("image/webp", 0, ascii("RIFF") + " ?? ?? ?? ?? " + ascii("WEBP"));
+        addSignature("image/x-icon", 0, "00 00 01 00");
+        addSignature("application/pdf", 0, ascii("%PDF-"));
+        addSignature("application/postscript", 0, ascii("%!PS"));
+        addSignature("application/rtf", 0, ascii("{\\rtf"));
+        addSignature("application/zip", 0, "50 4B 03 04");
+        addSignature("application/zip", 0, "50 4B 05 06");
+        addSignature("application/gzip", 0, "1F 8B");
+        // block size digit, then the magic of the first block or of the end of an empty stream,
+        // which are printable
+        addWeakSignature("application/x-bzip2", 0, ascii("BZh") + " ?? 31 41 59 26 53 59");
+        addWeakSignature("application/x-bzip2", 0, ascii("BZh") + " ?? 17 72 45 38 50 90");
+        addSignature("application/x-xz", 0, "FD 37 7A 58 5A 00");
+        addSignature("application/zstd", 0, "28 B5 2F FD");
+        addSignature("application/x-7z-compressed", 0, "37 7A BC AF 27 1C");
+        addSignature("application/vnd.rar", 0, ascii("Rar!") + " 1A 07");
+        addSignature("application/x-tar", 257, ascii("ustar"));
+        addSignature("application/x-ole-storage", 0, "D0 CF 11 E0 A1 B1 1A E1");
+        addSignature("application/vnd.sqlite3", 0, ascii("SQLite format 3") + " 00");
+        addSignature("application/x-executable", 0, "7F 45 4C 46");
+        addWeakSignature("application/vnd.microsoft.portable-executable", 0, ascii("MZ"));
+        addSignature("application/java-vm", 0, "CA FE BA BE");
+        addSignature("application/wasm", 0, "00 61 73 6D");
+        // ID3v2 major version and revision
+        addSignature("audio/mpeg", 0, ascii("ID3") + " 02 00");
+        addSignature("audio/mpeg", 0, ascii("ID3") + " 03 00");
+        addSignature("audio/mpeg", 0, ascii("ID3") + " 04 00");
+        // stream structure version
+        addSignature("audio/ogg", 0, ascii("OggS") + " 00");
+        // header of the STREAMINFO block, which comes first, whether or not it is the last block
+        addSignature("audio/flac", 0, ascii("fLaC") + " 00 00 00 22");
+        addSignature("audio/flac", 0, ascii("fLaC") + " 80 00 00 22");
+        addSignature("audio/wav", 0, ascii("RIFF") + " ?? ?? ?? ?? " + ascii("WAVE"));
+        addSignature("video/x-msvideo", 0, ascii("RIFF") + " ?? ?? ?? ?? " + ascii("AVI "));
+        addSignature("video/mp4", 4, ascii("ftyp"));
+        addSignature("video/x-matroska", 0, "1A 45 DF A3");
+
+        // matched case-insensitively after leading white space
+        markup.add("application/xml", parse(ascii("<?xml")), false);
+        markup.add("text/html", parse(ascii("<!doctype html")), false);
+        markup.add("text/html", parse(ascii("<html")), false);
+        markup.add("image/svg+xml", parse(ascii("<svg")), false);
+    }
+
+    /**
+     * Returns the type of a file from its first bytes, between the position and the
+     * limit of the buffer, or null for an empty file.
+     */
+    static String detect(ByteBuffer header) {
+        if (!header.hasRemaining()) {
+            return null;
+        }
+        // UTF-16 and UTF-32 text has NUL bytes, and would not look like text below
+        if (hasUnicodeByteOrderMark(header)) {
+            return TEXT;
+        }
+        Match best = null;
+        for (Trie trie : signatures) {
+            Match match = trie.match(header, header.position() + trie.offset, false);
+            if (match != null && (best == null || match.length > best.length)) {
+                best = match;
+            }
+        }
+        boolean text = looksLikeText(header);
+        if (best != null && !(best.weak && text)) {
+            return best.mimeType;
+        }
+        if (!text) {
+            return BINARY;
+        }
+        Match match = markup.match(header, skipWhiteSpace(header), true);
+        return match != null ? match.mimeType : TEXT;
+    }
+
+    /** Whether files of the type are text, whatever their encoding */
+    static boolean isText(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.equals("application/xml") || mimeType.equals("image/svg+xml");
+    }
+
+    /** Text has no NUL bytes and few control characters; bytes above 127 may be any encoding */
+    static boolean looksLikeText(ByteBuffer header) {
+        int controlCharacters = 0;
+        for (int i = header.position(); i < header.limit(); i++) {
+            int b = header.get(i) & 0xff;
+            if (b == 0) {
+                return false;
+            }
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1b) {
+                controlCharacters++;
+            }
+        }
+        return controlCharacters * 20 < header.remaining();
+    }
+
+    /** Whether the header starts with a UTF-16 or UTF-32 byte order mark, in either byte order */
+    private static boolean hasUnicodeByteOrderMark(ByteBuffer header) {
+        int index = header.position();
+        int b0 = header.remaining() >= 2 ? header.get(index) & 0xff : -1;
+        int b1 = header.remaining() >= 2 ? header.get(index + 1) & 0xff : -1;
+        if ((b0 == 0xff && b1 == 0xfe) || (b0 == 0xfe && b1 == 0xff)) {
+            // UTF-16, or UTF-32 little endian which starts the same way
+            return true;
+        }
+        return header.remaining() >= 4 && b0 == 0 && b1 == 0
+                && (header.get(index + 2) & 0xff) == 0xfe && (header.get(index + 3) & 0xff) == 0xff;
+    }
+
+    private static int skipWhiteSpace(ByteBuffer header) {
+        int index = header.position();
+        // UTF-8 byte order mark
+        if (header.remaining() >= 3 && (header.get(index) & 0xff) == 0xef
+                && (header.get(index + 1) & 0xff) == 0xbb && (header.get(index + 2) & 0xff) == 0xbf) {
+            index += 3;
+        }
+        while (index < header.limit() && Character.isWhitespace(header.get(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static void addSignature(String mimeType, int offset, String signature) {
+        addSignature(mimeType, offset, signature, false);
+    }
+
+    private static void addWeakSignature(String mimeType, int offset, String signature) {
+        addSignature(mimeType, offset, signature, true);
+    }
+
+    private static void addSignature(String mimeType, int offset, String signature, boolean weak) {
+        Trie trie = null;
+        for (Trie existing : signatures) {
+            if (existing.offset == offset) {
+                trie = existing;
+            }
+        }
+        if (trie == null) {
+            trie = new Trie(offset);
+            signatures.add(trie);
+        }
+        trie.add(mimeType, parse(signature), weak);
+    }
+
+    private static String ascii(String text) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : text.getBytes(StandardCharsets.US_ASCII)) {
+            hex.append(hex.length() == 0 ? "" : " ").append(String.format("%02X", b));
+        }
+        return hex.toString();
+    }
+
+    /** Parses space-separated hex bytes, where "??" matches any byte and is stored as -1 */
+    private static int[] parse(String signature) {
+        String[] bytes = signature.trim().split("\\s+");
+        int[] values = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            values[i] = bytes[i].equals("??") ? -1 : Integer.parseInt(bytes[i], 16);
+        }
+        return values;
+    }
+
+    private static class Match {
+        final String mimeType;
+        final int length;
+        final boolean weak;
+
+        Match(String mimeType, int length, boolean weak) {
+            this.mimeType = mimeType;
+            this.length = length;
+            this.weak = weak;
+        }
+    }
+
+    private static class Trie {
+        final int offset;
+        final Node root = new Node();
+
+        Trie(int offset) {
+            this.offset = offset;
+        }
+
+        void add(String mimeType, int[] signature, boolean weak) {
+            Node node = root;
+            for (int value : signature) {
+                node = node.getOrAddChild(value);
+            }
+            node.mimeType = mimeType;
+            node.weak = weak;
+        }
+
+        /** Returns the longest signature matching the bytes of the header from the index, if any */
+        Match match(ByteBuffer header, int index, boolean ignoreCase) {
+            return match(root, header, index, 0, ignoreCase);
+        }
+
+        private Match match(Node node, ByteBuffer header, int index, int depth, boolean ignoreCase) {
+            Match best = node.mimeType == null ? null : new Match(node.mimeType, depth, node.weak);
+            if (index >= header.limit()) {
+                return best;
+            }
+            int value = header.get(index) & 0xff;
+            if (ignoreCase && value >= 'A' && value <= 'Z') {
+                value += 'a' - 'A';
+            }
+            best = longest(best, node.getChild(value), header, index, depth, ignoreCase);
+            return longest(best, node.anyByte, header, index, depth, ignoreCase);
+        }
+
+        private Match longest(Match best, Node child, ByteBuffer header, int index, int depth, boolean ignoreCase) {
+            Match match = child == null ? null : match(child, header, index + 1, depth + 1, ignoreCase);
+            return match != null && (best == null || match.length > best.length) ? match : best;
+        }
+    }
+
+    private static class Node {
+        // sorted byte values of the children, and the children in the same order
+        byte[] values = new byte[0];
+        Node[] children = new Node[0];
+        Node anyByte;
+        String mimeType;
+        boolean weak;
+
+        Node getChild(int value) {
+            int index = Arrays.binarySearch(values, (byte) (value - 128));
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAddChild(int value) {
+            if (value < 0) {
+                if (anyByte == null) {
+                    anyByte = new Node();
+                }
+                return anyByte;
+            }
+            // values are shifted so that signed byte order is unsigned byte order
+            byte key = (byte) (value - 128);
+            int index = Arrays.binarySearch(values, key);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertion = -index - 1;
+            byte[] newValues = new byte[values.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(values, 0, newValues, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            newValues[insertion] = key;
+            newChildren[insertion] = new Node();
+            System.arraycopy(values, insertion, newValues, insertion + 1, values.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            values = newValues;
+            children = newChildren;
+            return newChildren[insertion];
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.importing.ImportingJob;
+import com.google.refine.util.JSONUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scan filling the project of an importing job in the background.
+ * <p>
+ * While it runs, its progress is published into the job config, both as the
+ * usual "progress" object and as a more detailed "scanProgress" object, so that
+ * the frontend can follow it by polling the job status. The time spent in each
+ * phase of the scan is published the same way as a "scanStats" object, which is
+ * kept in the config once the scan is over. When the scan completes
+ * the given completion step is run on the scan thread; if the scan or that step
+ * fails, the job state is set to "error". Cancelling the job, or the scan itself,
+ * stops the workers and closes the files they were reading.
+ */
+public class ScanJob {
+    private static final Logger logger = LoggerFactory.getLogger("ScanJob");
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final Map<Long, ScanJob> runningScans = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "files-scan-progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ImportingJob job;
+    private final FileScanner scanner;
+    private final Runnable onComplete;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private ScheduledFuture<?> progressUpdates;
+    // held while progress is published, so that stopping the updates waits for a running one
+    private final Object progressLock = new Object();
+    private boolean progressStopped = false;
+
+    private ScanJob(ImportingJob job, FileScanner scanner, Runnable onComplete) {
+        this.job = job;
+        this.scanner = scanner;
+        this.onComplete = onComplete;
+    }
+
+    /**
+     * Starts scanning into a new project of the job, after stopping any scan still
+     * running for that job.
+     *
+     * @param state the job state while the scan runs
+     * @param onComplete run once all records were added to the project
+     */
+    public static ScanJob start(ImportingJob job, ScanOptions scanOptions, String state, Runnable onComplete)
+            throws InterruptedException {
+        cancel(job.id);
+        job.prepareNewProject();
+        ScanJob scanJob = new ScanJob(job, new FileScanner(scanOptions, new ScanProgress()), onComplete);
+        runningScans.put(job.id, scanJob);
+
+        ObjectNode config = job.getOrCreateDefaultConfig();
+        synchronized (config) {
+            JSONUtilities.safePut(config, "hasData", false);
+            JSONUtilities.safePut(config, "scanProgress", scanJob.scanner.getProgress().toJson());
+            JSONUtilities.safePut(config, "scanStats", scanJob.scanner.getStats().toJson());
+        }
+        job.setState(state);
+        job.updating = true;
+
+        scanJob.progressUpdates = progressReporter.scheduleWithFixedDelay(
+                scanJob::publishProgress, PROGRESS_INTERVAL_MS, PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Thread thread = new Thread(scanJob::run, "files-scan-job-" + job.id);
+        thread.setDaemon(true);
+        thread.start();
+        return scanJob;
+    }
+
+    /** Returns the scan running for the job, if any */
+    public static ScanJob get(long jobID) {
+        return runningScans.get(jobID);
+    }
+
+    /**
+     * Cancels the scan running for the job, if any, and waits for it to stop.
+     *
+     * @return whether a scan was running
+     */
+    public static boolean cancel(long jobID) throws InterruptedException {
+        ScanJob scanJob = runningScans.get(jobID);
+        if (scanJob == null) {
+            return false;
+        }
+        scanJob.cancel();
+        scanJob.await();
+        return true;
+    }
+
+    public void cancel() {
+        scanner.cancel();
+    }
+
+    /** Waits for the scan to end, whether it completed, failed or was cancelled */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    public ScanProgress getProgress() {
+        return scanner.getProgress();
+    }
+
+    public ScanStats getStats() {
+        return scanner.getStats();
+    }
+
+    public IoThrottle getThrottle() {
+        return scanner.getThrottle();
+    }
+
+    private void run() {
+        try {
+            FilesImporter.loadData(job.project, scanner);
+            publishProgress();
+            onComplete.run();
+            publishFinalProgress(false);
+        } catch (InterruptedIOException e) {
+            publishFinalProgress(true);
+            job.setState("ready");
+        } catch (Exception e) {
+            logger.error("Scan of importing job {} failed", job.id, e);
+            job.setError(Collections.singletonList(e));
+        } finally {
+            stopProgressUpdates();
+            publishStats();
+            scanner.close();
+            runningScans.remove(job.id, this);
+            job.touch();
+            job.updating = false;
+            finished.countDown();
+        }
+    }
+
+    private void publishProgress() {
+        synchronized (progressLock) {
+            if (progressStopped) {
+                return;
+            }
+            if (job.canceled) {
+                // the importing job was cancelled from the frontend
+                scanner.cancel();
+                return;
+            }
+            ScanProgress progress = scanner.getProgress();
+            ObjectNode progressJson = progress.toJson();
+            ObjectNode statsJson = scanner.getStats().toJson();
+            ObjectNode config = job.getOrCreateDefaultConfig();
+            synchronized (config) {
+                JSONUtilities.safePut(config, "scanProgress", progressJson);
+                JSONUtilities.safePut(config, "scanStats", statsJson);
+            }
+            job.setProgress(progress.getPercent(), String.format("%d files, %s hashed, %s",
+                    progress.getFilesDone(), formatBytes(progress.getBytesHashed()), progress.getCurrentDirectory()));
+            job.touch();
+        }
+    }
+
+    /**
+     * Cancels the periodic updates and waits for one that is already running, so
+     * that no update can overwrite the final progress afterwards.
+     */
+    private void stopProgressUpdates() {
+        progressUpdates.cancel(false);
+        synchronized (progressLock) {
+            progressStopped = true;
+        }
+    }
+
+    /** Publishes the progress the frontend stops polling on */
+    private void publishFinalProgress(boolean cancelled) {
+        stopProgressUpdates();
+        ObjectNode scanProgress = scanner.getProgress().toJson();
+        JSONUtilities.safePut(scanProgress, "done", true);
+        if (cancelled) {
+            JSONUtilities.safePut(scanProgress, "cancelled", true);
+        }
+        ObjectNode config = job.getOrCreateDefaultConfig();
+        synchronized (config) {
+            JSONUtilities.safePut(config, "scanProgress", scanProgress);
+        }
+    }
+
+    /** Keeps the final stats in the job config, where they outlive the scan */
+    private void publishStats() {
+        ObjectNode statsJson = scanner.getStats().toJson();
+        ObjectNode config = job.getOrCreateDefaultConfig();
+        synchronized (config) {
+            JSONUtilities.safePut(config, "scanStats", statsJson);
+        }
+        logger.info("Scan of importing job {} done: {}", job.id, statsJson);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + " KB";
+        }
+        return (bytes / (1024 * 1024)) + " MB";
+    }
+}
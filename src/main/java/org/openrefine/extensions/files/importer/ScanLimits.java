@@ -0,0 +1,89 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.util.JSONUtilities;
+import com.google.refine.util.ParsingUtilities;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caps on the I/O a scan makes on a single file store, kept apart for metadata
+ * operations (listing directories and reading attributes) and for reading file
+ * contents. A value of 0 leaves that cap off.
+ */
+public class ScanLimits {
+    public static final ScanLimits UNLIMITED = new ScanLimits(0, 0, 0, 0);
+
+    private final int metadataConcurrency;
+    private final int metadataOpsPerSecond;
+    private final int readConcurrency;
+    private final long readBytesPerSecond;
+
+    public ScanLimits(int metadataConcurrency, int metadataOpsPerSecond, int readConcurrency, long readBytesPerSecond) {
+        this.metadataConcurrency = Math.max(0, metadataConcurrency);
+        this.metadataOpsPerSecond = Math.max(0, metadataOpsPerSecond);
+        this.readConcurrency = Math.max(0, readConcurrency);
+        this.readBytesPerSecond = Math.max(0, readBytesPerSecond);
+    }
+
+    /** Reads the caps from the options, taking the missing ones from the defaults */
+    public static ScanLimits fromJson(ObjectNode options, ScanLimits defaults) {
+        if (options == null) {
+            return defaults;
+        }
+        return new ScanLimits(
+                JSONUtilities.getInt(options, "metadataConcurrency", defaults.metadataConcurrency),
+                JSONUtilities.getInt(options, "metadataOpsPerSecond", defaults.metadataOpsPerSecond),
+                JSONUtilities.getInt(options, "readConcurrency", defaults.readConcurrency),
+                1024L * 1024L * JSONUtilities.getInt(options, "readMBPerSecond",
+                        (int) (defaults.readBytesPerSecond / (1024 * 1024))));
+    }
+
+    /**
+     * Reads the caps of specific file stores from the "storeLimits" option, an
+     * array of objects with the path of a file or directory on the store and the
+     * caps which differ from the defaults.
+     */
+    public static Map<Path, ScanLimits> storeLimitsFromJson(ObjectNode options, ScanLimits defaults) {
+        Map<Path, ScanLimits> storeLimits = new LinkedHashMap<>();
+        JsonNode storeLimitsNode = options == null ? null : options.get("storeLimits");
+        if (storeLimitsNode == null || !storeLimitsNode.isArray()) {
+            return storeLimits;
+        }
+        for (JsonNode node : storeLimitsNode) {
+            if (node instanceof ObjectNode && node.hasNonNull("path")) {
+                storeLimits.put(Paths.get(node.get("path").asText()), fromJson((ObjectNode) node, defaults));
+            }
+        }
+        return storeLimits;
+    }
+
+    public int getMetadataConcurrency() {
+        return metadataConcurrency;
+    }
+
+    public int getMetadataOpsPerSecond() {
+        return metadataOpsPerSecond;
+    }
+
+    public int getReadConcurrency() {
+        return readConcurrency;
+    }
+
+    public long getReadBytesPerSecond() {
+        return readBytesPerSecond;
+    }
+
+    public ObjectNode toJson() {
+        ObjectNode node = ParsingUtilities.mapper.createObjectNode();
+        JSONUtilities.safePut(node, "metadataConcurrency", metadataConcurrency);
+        JSONUtilities.safePut(node, "metadataOpsPerSecond", metadataOpsPerSecond);
+        JSONUtilities.safePut(node, "readConcurrency", readConcurrency);
+        JSONUtilities.safePut(node, "readMBPerSecond", readBytesPerSecond / (1024 * 1024));
+        return node;
+    }
+}
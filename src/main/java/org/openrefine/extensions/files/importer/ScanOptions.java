@@ -0,0 +1,353 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.util.JSONUtilities;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scan settings parsed once from the importing options, so that the per-file
+ * code never has to look values up in the JSON tree.
+ */
+public class ScanOptions {
+    public static final int DEFAULT_MAX_DEPTH = 1;
+    /** Value of the maxDepth option which lifts the depth limit */
+    public static final int UNLIMITED_DEPTH = 0;
+    public static final int DEFAULT_QUICK_FINGERPRINT_BLOCK_SIZE_KB = 64;
+    public static final int DEFAULT_LOCK_TIMEOUT_MS = 1000;
+    public static final int DEFAULT_CONTENT_SNIPPET_LENGTH = 256;
+
+    private final List<Path> roots = new ArrayList<>();
+    private int scanThreads = Runtime.getRuntime().availableProcessors();
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private boolean useChecksumCache = true;
+    private ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.SHA256;
+    private boolean quickFingerprint = false;
+    private int quickFingerprintBlockSize = DEFAULT_QUICK_FINGERPRINT_BLOCK_SIZE_KB * 1024;
+    private long quickFingerprintThreshold = 0;
+    private LockPolicy lockPolicy = LockPolicy.ALWAYS;
+    private long lockTimeoutMillis = DEFAULT_LOCK_TIMEOUT_MS;
+    private final List<String> includeGlobs = new ArrayList<>();
+    private final List<String> excludeGlobs = new ArrayList<>();
+    private boolean followSymlinks = false;
+    private boolean skipHidden = false;
+    private int recordLimit = 0;
+    private boolean readContents = true;
+    private boolean diffMode = false;
+    private boolean duplicatesMode = false;
+    private boolean listArchiveEntries = false;
+    private boolean detectMimeType = false;
+    private boolean contentSnippet = false;
+    private int contentSnippetLength = DEFAULT_CONTENT_SNIPPET_LENGTH;
+    private ScanLimits scanLimits = ScanLimits.UNLIMITED;
+    private Map<Path, ScanLimits> storeScanLimits = new LinkedHashMap<>();
+    private boolean saveSnapshot = false;
+    private Long snapshotId;
+
+    public static ScanOptions fromJson(ObjectNode options) {
+        ScanOptions scanOptions = new ScanOptions();
+        if (options == null) {
+            return scanOptions;
+        }
+        JsonNode directoryInput = options.get("directoryJsonValue");
+        if (directoryInput != null) {
+            for (JsonNode directoryPath : directoryInput) {
+                scanOptions.roots.add(Paths.get(directoryPath.get("directory").asText()));
+            }
+        }
+        scanOptions.scanThreads = Math.max(1, JSONUtilities.getInt(options, "scanThreads", scanOptions.scanThreads));
+        scanOptions.setMaxDepth(JSONUtilities.getInt(options, "maxDepth", DEFAULT_MAX_DEPTH));
+        addGlobs(options.get("includeGlobs"), scanOptions.includeGlobs);
+        addGlobs(options.get("excludeGlobs"), scanOptions.excludeGlobs);
+        scanOptions.followSymlinks = JSONUtilities.getBoolean(options, "followSymlinks", false);
+        scanOptions.skipHidden = JSONUtilities.getBoolean(options, "skipHidden", false);
+        scanOptions.diffMode = JSONUtilities.getBoolean(options, "diffMode", false);
+        scanOptions.duplicatesMode = JSONUtilities.getBoolean(options, "duplicatesMode", false);
+        scanOptions.listArchiveEntries = JSONUtilities.getBoolean(options, "listArchiveEntries", false);
+        scanOptions.detectMimeType = JSONUtilities.getBoolean(options, "detectMimeType", false);
+        scanOptions.contentSnippet = JSONUtilities.getBoolean(options, "contentSnippet", false);
+        scanOptions.setContentSnippetLength(JSONUtilities.getInt(options, "contentSnippetLength", DEFAULT_CONTENT_SNIPPET_LENGTH));
+        scanOptions.useChecksumCache = JSONUtilities.getBoolean(options, "useChecksumCache", true);
+        scanOptions.checksumAlgorithm = ChecksumAlgorithm.fromId(
+                JSONUtilities.getString(options, "checksumAlgorithm", ChecksumAlgorithm.SHA256.getId()));
+        scanOptions.quickFingerprint = JSONUtilities.getBoolean(options, "quickFingerprint", false);
+        scanOptions.quickFingerprintBlockSize = 1024 * Math.max(1,
+                JSONUtilities.getInt(options, "quickFingerprintBlockSizeKB", DEFAULT_QUICK_FINGERPRINT_BLOCK_SIZE_KB));
+        scanOptions.quickFingerprintThreshold = 1024L * 1024L * Math.max(0,
+                JSONUtilities.getInt(options, "quickFingerprintThresholdMB", 0));
+        scanOptions.lockPolicy = LockPolicy.fromId(JSONUtilities.getString(options, "lockPolicy", LockPolicy.ALWAYS.getId()));
+        scanOptions.lockTimeoutMillis = Math.max(0, JSONUtilities.getInt(options, "lockTimeoutMs", DEFAULT_LOCK_TIMEOUT_MS));
+        scanOptions.scanLimits = ScanLimits.fromJson(options, ScanLimits.UNLIMITED);
+        scanOptions.storeScanLimits = ScanLimits.storeLimitsFromJson(options, scanOptions.scanLimits);
+        scanOptions.saveSnapshot = JSONUtilities.getBoolean(options, "saveSnapshot", false);
+        JsonNode snapshotId = options.get("snapshotId");
+        if (snapshotId != null && !snapshotId.isNull() && !snapshotId.asText().isEmpty()) {
+            scanOptions.snapshotId = snapshotId.asLong();
+        }
+        return scanOptions;
+    }
+
+    /** Accepts either an array of patterns or a single comma-separated string */
+    private static void addGlobs(JsonNode node, List<String> globs) {
+        if (node == null || node.isNull()) {
+            return;
+        }
+        Iterable<JsonNode> values = node.isArray() ? node : Collections.singletonList(node);
+        for (JsonNode value : values) {
+            for (String glob : value.asText().split(",")) {
+                if (!glob.isBlank()) {
+                    globs.add(glob.trim());
+                }
+            }
+        }
+    }
+
+    public List<Path> getRoots() {
+        return roots;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = Math.max(1, scanThreads);
+    }
+
+    /**
+     * Number of directory levels listed below each root: 1 only lists the files of
+     * the selected directories. {@link Integer#MAX_VALUE} when unlimited.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Sets the depth, where {@link #UNLIMITED_DEPTH} or a negative value lifts the limit */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth <= UNLIMITED_DEPTH ? Integer.MAX_VALUE : maxDepth;
+    }
+
+    /** Glob patterns of the files to list; all files are listed when empty */
+    public List<String> getIncludeGlobs() {
+        return includeGlobs;
+    }
+
+    /** Glob patterns of the files and directories to leave out of the scan */
+    public List<String> getExcludeGlobs() {
+        return excludeGlobs;
+    }
+
+    /** Whether symbolic links are followed, to directories too, rather than listed as links */
+    public boolean isFollowSymlinks() {
+        return followSymlinks;
+    }
+
+    public void setFollowSymlinks(boolean followSymlinks) {
+        this.followSymlinks = followSymlinks;
+    }
+
+    /** Whether hidden files and directories are left out of the scan */
+    public boolean isSkipHidden() {
+        return skipHidden;
+    }
+
+    public void setSkipHidden(boolean skipHidden) {
+        this.skipHidden = skipHidden;
+    }
+
+    public boolean isUseChecksumCache() {
+        return useChecksumCache;
+    }
+
+    public void setUseChecksumCache(boolean useChecksumCache) {
+        this.useChecksumCache = useChecksumCache;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public void setChecksumAlgorithm(ChecksumAlgorithm checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    /** Whether the quick fingerprint is computed for every file */
+    public boolean isQuickFingerprint() {
+        return quickFingerprint;
+    }
+
+    public void setQuickFingerprint(boolean quickFingerprint) {
+        this.quickFingerprint = quickFingerprint;
+    }
+
+    /** Size in bytes of each of the blocks hashed by the quick fingerprint */
+    public int getQuickFingerprintBlockSize() {
+        return quickFingerprintBlockSize;
+    }
+
+    public void setQuickFingerprintBlockSize(int quickFingerprintBlockSize) {
+        this.quickFingerprintBlockSize = Math.max(1, quickFingerprintBlockSize);
+    }
+
+    /**
+     * Size in bytes above which files only get a quick fingerprint instead of a full
+     * checksum, or 0 to always compute the full checksum.
+     */
+    public long getQuickFingerprintThreshold() {
+        return quickFingerprintThreshold;
+    }
+
+    public void setQuickFingerprintThreshold(long quickFingerprintThreshold) {
+        this.quickFingerprintThreshold = Math.max(0, quickFingerprintThreshold);
+    }
+
+    public boolean hasQuickFingerprintColumn() {
+        return quickFingerprint || quickFingerprintThreshold > 0;
+    }
+
+    /** The selected checksum algorithm, or xxHash64 when full checksums are turned off */
+    public ChecksumAlgorithm getQuickFingerprintAlgorithm() {
+        return checksumAlgorithm.isEnabled() ? checksumAlgorithm : ChecksumAlgorithm.XXH64;
+    }
+
+    public LockPolicy getLockPolicy() {
+        return lockPolicy;
+    }
+
+    public void setLockPolicy(LockPolicy lockPolicy) {
+        this.lockPolicy = lockPolicy;
+    }
+
+    /** How long the {@link LockPolicy#TRY} policy waits for a lock before skipping the file */
+    public long getLockTimeoutMillis() {
+        return lockTimeoutMillis;
+    }
+
+    public void setLockTimeoutMillis(long lockTimeoutMillis) {
+        this.lockTimeoutMillis = Math.max(0, lockTimeoutMillis);
+    }
+
+    /** Number of records after which the scan stops, or 0 to scan everything */
+    public int getRecordLimit() {
+        return recordLimit;
+    }
+
+    public void setRecordLimit(int recordLimit) {
+        this.recordLimit = Math.max(0, recordLimit);
+    }
+
+    /**
+     * Whether file contents are read to compute checksums and fingerprints. When
+     * they are not, the columns are still created but left blank.
+     */
+    public boolean isReadContents() {
+        return readContents;
+    }
+
+    public void setReadContents(boolean readContents) {
+        this.readContents = readContents;
+    }
+
+    /**
+     * Whether the project lists the differences between the two roots rather than
+     * their files, see {@link FilesDiff}.
+     */
+    public boolean isDiffMode() {
+        return diffMode;
+    }
+
+    public void setDiffMode(boolean diffMode) {
+        this.diffMode = diffMode;
+    }
+
+    /**
+     * Whether duplicate files are looked for, in which case contents are only read
+     * for the files which may have duplicates, see {@link FilesDuplicates}.
+     */
+    public boolean isDuplicatesMode() {
+        return duplicatesMode;
+    }
+
+    public void setDuplicatesMode(boolean duplicatesMode) {
+        this.duplicatesMode = duplicatesMode;
+    }
+
+    /** Whether the entries of archives are listed after them, see {@link ArchiveEntryReader} */
+    public boolean isListArchiveEntries() {
+        return listArchiveEntries;
+    }
+
+    public void setListArchiveEntries(boolean listArchiveEntries) {
+        this.listArchiveEntries = listArchiveEntries;
+    }
+
+    /** Whether the type of files is detected from their first bytes, see {@link MimeTypeDetector} */
+    public boolean isDetectMimeType() {
+        return detectMimeType;
+    }
+
+    public void setDetectMimeType(boolean detectMimeType) {
+        this.detectMimeType = detectMimeType;
+    }
+
+    /** Whether the first characters of text files are included */
+    public boolean isContentSnippet() {
+        return contentSnippet;
+    }
+
+    public void setContentSnippet(boolean contentSnippet) {
+        this.contentSnippet = contentSnippet;
+    }
+
+    /** Maximum number of characters of the content snippets */
+    public int getContentSnippetLength() {
+        return contentSnippetLength;
+    }
+
+    public void setContentSnippetLength(int contentSnippetLength) {
+        this.contentSnippetLength = Math.max(1, contentSnippetLength);
+    }
+
+    /** Limits applied to each file store the scan reads from, see {@link IoThrottle} */
+    public ScanLimits getScanLimits() {
+        return scanLimits;
+    }
+
+    public void setScanLimits(ScanLimits scanLimits) {
+        this.scanLimits = scanLimits;
+    }
+
+    /** Limits of specific file stores, each given by the path of a file on it */
+    public Map<Path, ScanLimits> getStoreScanLimits() {
+        return storeScanLimits;
+    }
+
+    public void setStoreScanLimits(Map<Path, ScanLimits> storeScanLimits) {
+        this.storeScanLimits = storeScanLimits;
+    }
+
+    /** Whether the records of a complete scan are saved in the workspace, see {@link ScanSnapshot} */
+    public boolean isSaveSnapshot() {
+        return saveSnapshot;
+    }
+
+    public void setSaveSnapshot(boolean saveSnapshot) {
+        this.saveSnapshot = saveSnapshot;
+    }
+
+    /** The snapshot the records are loaded from instead of scanning the roots, or null */
+    public Long getSnapshotId() {
+        return snapshotId;
+    }
+
+    public void setSnapshotId(Long snapshotId) {
+        this.snapshotId = snapshotId;
+    }
+}
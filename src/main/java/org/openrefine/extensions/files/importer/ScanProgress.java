@@ -0,0 +1,107 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.util.JSONUtilities;
+import com.google.refine.util.ParsingUtilities;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress counters of a running scan, updated by the scanner threads and read
+ * by whoever reports the progress.
+ * <p>
+ * The total amount of work is only known once every root has been walked, so
+ * until then no percentage or remaining time is estimated.
+ */
+public class ScanProgress {
+    private final long startTime = System.nanoTime();
+    private final LongAdder filesSeen = new LongAdder();
+    private final LongAdder filesDone = new LongAdder();
+    private final LongAdder bytesSeen = new LongAdder();
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+    private volatile String currentDirectory = "";
+    private volatile boolean walkComplete = false;
+
+    void fileSeen(long size) {
+        filesSeen.increment();
+        bytesSeen.add(Math.max(0, size));
+    }
+
+    void fileDone(long size) {
+        filesDone.increment();
+        bytesDone.add(Math.max(0, size));
+    }
+
+    void bytesHashed(long bytes) {
+        bytesHashed.add(bytes);
+    }
+
+    void setCurrentDirectory(String currentDirectory) {
+        this.currentDirectory = currentDirectory;
+    }
+
+    void setWalkComplete() {
+        walkComplete = true;
+    }
+
+    public long getFilesSeen() {
+        return filesSeen.sum();
+    }
+
+    public long getFilesDone() {
+        return filesDone.sum();
+    }
+
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    public String getCurrentDirectory() {
+        return currentDirectory;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /** Share of the work done, in percent, or -1 while the walk is still running */
+    public int getPercent() {
+        if (!walkComplete) {
+            return -1;
+        }
+        return (int) Math.min(100, Math.floor(getDoneFraction() * 100));
+    }
+
+    /** Estimated number of seconds left, or -1 if it cannot be estimated yet */
+    public long getEtaSeconds() {
+        double done = getDoneFraction();
+        if (!walkComplete || done <= 0) {
+            return -1;
+        }
+        double elapsedSeconds = getElapsedMillis() / 1000.0;
+        return Math.round(elapsedSeconds / done - elapsedSeconds);
+    }
+
+    private double getDoneFraction() {
+        long totalBytes = bytesSeen.sum();
+        if (totalBytes > 0) {
+            return (double) bytesDone.sum() / totalBytes;
+        }
+        long totalFiles = filesSeen.sum();
+        return totalFiles > 0 ? (double) filesDone.sum() / totalFiles : 1;
+    }
+
+    public ObjectNode toJson() {
+        ObjectNode node = ParsingUtilities.mapper.createObjectNode();
+        JSONUtilities.safePut(node, "filesSeen", getFilesSeen());
+        JSONUtilities.safePut(node, "filesDone", getFilesDone());
+        JSONUtilities.safePut(node, "bytesHashed", getBytesHashed());
+        JSONUtilities.safePut(node, "currentDirectory", currentDirectory);
+        JSONUtilities.safePut(node, "elapsedMs", getElapsedMillis());
+        JSONUtilities.safePut(node, "percent", getPercent());
+        JSONUtilities.safePut(node, "etaSeconds", getEtaSeconds());
+        return node;
+    }
+}
@@ -0,0 +1,591 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.ProjectManager;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.util.JSONUtilities;
+import com.google.refine.util.ParsingUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The records of a complete scan, saved in the workspace so that projects can be
+ * created from them later without reading the scanned disk again.
+ * <p>
+ * Snapshots are columnar: each field of the records is stored as its own section
+ * of fixed-width values, so that a snapshot is opened by memory-mapping its
+ * sections rather than by parsing it, and a record is only decoded when it is
+ * read. Paths are stored as a table of (parent, name) entries, so each directory
+ * name is stored once whatever the number of files below it. Owners, extensions,
+ * permissions, statuses and types are interned in the string table, and checksums,
+ * fingerprints and CRCs are kept as raw bytes rather than hex strings. The
+ * sections are the columns of a {@link FileRecordStore}, written as they are.
+ * <p>
+ * A file starts with a magic number and format version and ends with the offset
+ * and length of its header, a JSON object giving the options of the scan, the
+ * number of records and the offset and length of each section.
+ * <p>
+ * Snapshots are named after the id of their project and removed once the project
+ * is deleted. At most {@value #DEFAULT_MAX_COUNT} snapshots using
+ * {@value #DEFAULT_MAX_MB} MB are kept by default, the oldest being removed first,
+ * which the {@value #MAX_COUNT_PREFERENCE} and {@value #MAX_MB_PREFERENCE}
+ * preferences change.
+ */
+public class ScanSnapshot implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger("ScanSnapshot");
+    private static final String SNAPSHOT_DIR_NAME = "snapshots";
+    private static final String SNAPSHOT_FILE_SUFFIX = ".snapshot";
+    public static final String MAX_COUNT_PREFERENCE = "files.snapshotsMaxCount";
+    public static final String MAX_MB_PREFERENCE = "files.snapshotsMaxMB";
+    public static final int DEFAULT_MAX_COUNT = 10;
+    public static final long DEFAULT_MAX_MB = 1024;
+    // a project is only registered once its snapshot is saved
+    private static final long UNREGISTERED_GRACE_MS = 60_000;
+    private static final int FORMAT_MAGIC = 0x4f524653; // "ORFS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int TRAILER_SIZE = Long.BYTES + 2 * Integer.BYTES;
+    private static final int NULL_ID = FileRecordStore.NULL_ID;
+    private static final byte HAS_CHECKSUM = FileRecordStore.HAS_CHECKSUM;
+    private static final byte HAS_QUICK_FINGERPRINT = FileRecordStore.HAS_QUICK_FINGERPRINT;
+    private static final byte HAS_CRC = FileRecordStore.HAS_CRC;
+
+    private final ObjectNode header;
+    private final ScanOptions scanOptions;
+    private final int rowCount;
+    private final int checksumBytes;
+    private final int quickFingerprintBytes;
+    private final ByteBuffer strings;
+    private final IntBuffer stringOffsets;
+    private final IntBuffer pathParents;
+    private final IntBuffer pathNames;
+    private final IntBuffer path;
+    private final IntBuffer root;
+    private final IntBuffer extension;
+    private final LongBuffer size;
+    private final LongBuffer lastModifiedTime;
+    private final LongBuffer creationTime;
+    private final IntBuffer owner;
+    private final IntBuffer permissions;
+    private final IntBuffer status;
+    private final ByteBuffer flags;
+    private final ByteBuffer checksum;
+    private final ByteBuffer quickFingerprint;
+    private final IntBuffer mimeType;
+    private final IntBuffer contentSnippet;
+    private final IntBuffer archivePath;
+    private final LongBuffer compressedSize;
+    private final IntBuffer crc;
+    // directories, roots and archives by entry of the path table, as they are shared
+    private final Map<Integer, Path> parentPaths = new HashMap<>();
+
+    private ScanSnapshot(FileChannel channel, ObjectNode header) throws IOException {
+        this.header = header;
+        this.scanOptions = ScanOptions.fromJson((ObjectNode) header.get("options"));
+        this.rowCount = header.get("rows").asInt();
+        this.checksumBytes = header.get("checksumBytes").asInt();
+        this.quickFingerprintBytes = header.get("quickFingerprintBytes").asInt();
+        this.strings = map(channel, "strings");
+        this.stringOffsets = map(channel, "stringOffsets").asIntBuffer();
+        this.pathParents = map(channel, "pathParents").asIntBuffer();
+        this.pathNames = map(channel, "pathNames").asIntBuffer();
+        this.path = map(channel, "path").asIntBuffer();
+        this.root = map(channel, "root").asIntBuffer();
+        this.extension = map(channel, "extension").asIntBuffer();
+        this.size = map(channel, "size").asLongBuffer();
+        this.lastModifiedTime = map(channel, "lastModifiedTime").asLongBuffer();
+        this.creationTime = map(channel, "creationTime").asLongBuffer();
+        this.owner = map(channel, "owner").asIntBuffer();
+        this.permissions = map(channel, "permissions").asIntBuffer();
+        this.status = map(channel, "status").asIntBuffer();
+        this.flags = map(channel, "flags");
+        this.checksum = mapOptional(channel, "checksum");
+        this.quickFingerprint = mapOptional(channel, "quickFingerprint");
+        this.mimeType = asIntBuffer(mapOptional(channel, "mimeType"));
+        this.contentSnippet = asIntBuffer(mapOptional(channel, "contentSnippet"));
+        this.archivePath = asIntBuffer(mapOptional(channel, "archivePath"));
+        ByteBuffer compressedSizes = mapOptional(channel, "compressedSize");
+        this.compressedSize = compressedSizes == null ? null : compressedSizes.asLongBuffer();
+        this.crc = asIntBuffer(mapOptional(channel, "crc32"));
+    }
+
+    /** Directory of the workspace where snapshots are kept, or null without a file-based workspace */
+    static File getSnapshotDir() {
+        File dataDir = FilesImporter.getExtensionDataDir();
+        if (dataDir == null) {
+            return null;
+        }
+        File snapshotDir = new File(dataDir, SNAPSHOT_DIR_NAME);
+        if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+            logger.info("--- importDirectory. Failed to create snapshot directory: " + snapshotDir);
+            return null;
+        }
+        return snapshotDir;
+    }
+
+    /** The file of the snapshot with the given id, or null without a file-based workspace */
+    static File getSnapshotFile(long id) {
+        File snapshotDir = getSnapshotDir();
+        return snapshotDir == null ? null : new File(snapshotDir, id + SNAPSHOT_FILE_SUFFIX);
+    }
+
+    private static File[] listFiles() {
+        File snapshotDir = getSnapshotDir();
+        File[] files = snapshotDir == null ? null : snapshotDir.listFiles((dir, name) -> name.endsWith(SNAPSHOT_FILE_SUFFIX));
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Removes the snapshots of deleted projects, then the oldest snapshots while more
+     * are kept than the preferences allow. The snapshot with the given id, which was
+     * just saved, is always kept.
+     */
+    static synchronized void prune(long keptId) {
+        File[] files = listFiles();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        long maxCount = FilesImporter.getLongPreference(MAX_COUNT_PREFERENCE, DEFAULT_MAX_COUNT);
+        long maxBytes = FilesImporter.getLongPreference(MAX_MB_PREFERENCE, DEFAULT_MAX_MB) * 1024 * 1024;
+        long now = System.currentTimeMillis();
+        int count = 0;
+        long bytes = 0;
+        for (File file : files) {
+            Long id = getId(file);
+            if (id == null) {
+                continue;
+            }
+            if (id == keptId) {
+                count++;
+                bytes += file.length();
+                continue;
+            }
+            boolean orphan = ProjectManager.singleton != null
+                    && ProjectManager.singleton.getProjectMetadata(id) == null
+                    && now - file.lastModified() > UNREGISTERED_GRACE_MS;
+            if (orphan || count + 1 > maxCount || bytes + file.length() > maxBytes) {
+                if (file.delete()) {
+                    logger.info("--- importDirectory. Removed snapshot: " + file);
+                }
+                continue;
+            }
+            count++;
+            bytes += file.length();
+        }
+    }
+
+    /** The id of the project of the snapshot file, or null when it is not named after one */
+    private static Long getId(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SNAPSHOT_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lists the snapshots of the workspace, most recent first, with their id,
+     * creation time, number of rows, scanned directories and size on disk.
+     * Snapshots of deleted projects are removed first.
+     */
+    public static ArrayNode list() {
+        ArrayNode snapshots = ParsingUtilities.mapper.createArrayNode();
+        prune(-1);
+        File[] files = listFiles();
+        List<ObjectNode> headers = new ArrayList<>();
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ObjectNode header = readHeader(channel);
+                ObjectNode snapshot = ParsingUtilities.mapper.createObjectNode();
+                JSONUtilities.safePut(snapshot, "id", header.get("id").asLong());
+                JSONUtilities.safePut(snapshot, "created", header.get("created").asLong());
+                JSONUtilities.safePut(snapshot, "rows", header.get("rows").asLong());
+                JSONUtilities.safePut(snapshot, "bytes", file.length());
+                ArrayNode directories = ParsingUtilities.mapper.createArrayNode();
+                for (JsonNode directory : header.get("options").path("directoryJsonValue")) {
+                    directories.add(directory.get("directory").asText());
+                }
+                JSONUtilities.safePut(snapshot, "directories", directories);
+                headers.add(snapshot);
+            } catch (IOException e) {
+                logger.info("--- importDirectory. Ignoring unreadable snapshot: " + file + " - " + e.getMessage());
+            }
+        }
+        headers.sort((a, b) -> Long.compare(b.get("created").asLong(), a.get("created").asLong()));
+        headers.forEach(snapshots::add);
+        return snapshots;
+    }
+
+    /** Opens the snapshot with the given id from the workspace */
+    public static ScanSnapshot open(long id) throws IOException {
+        File file = getSnapshotFile(id);
+        if (file == null || !file.isFile()) {
+            throw new FileNotFoundException("No such snapshot: " + id);
+        }
+        return open(file);
+    }
+
+    /** Opens a snapshot file, mapping its sections into memory */
+    public static ScanSnapshot open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // mapped sections remain valid once the channel is closed
+            return new ScanSnapshot(channel, readHeader(channel));
+        }
+    }
+
+    private static ObjectNode readHeader(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(2 * Integer.BYTES);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        if (channel.size() < start.capacity() + TRAILER_SIZE
+                || channel.read(start, 0) < start.capacity()
+                || channel.read(trailer, channel.size() - TRAILER_SIZE) < TRAILER_SIZE) {
+            throw new IOException("Truncated snapshot");
+        }
+        if (start.getInt(0) != FORMAT_MAGIC || start.getInt(Integer.BYTES) != FORMAT_VERSION
+                || trailer.getInt(Long.BYTES + Integer.BYTES) != FORMAT_MAGIC) {
+            throw new IOException("Unknown snapshot format");
+        }
+        long headerOffset = trailer.getLong(0);
+        int headerLength = trailer.getInt(Long.BYTES);
+        if (headerOffset < 0 || headerLength < 0 || headerOffset + headerLength > channel.size() - TRAILER_SIZE) {
+            throw new IOException("Truncated snapshot");
+        }
+        ByteBuffer headerBytes = ByteBuffer.allocate(headerLength);
+        while (headerBytes.hasRemaining() && channel.read(headerBytes, headerOffset + headerBytes.position()) > 0) {
+            // a single read is enough for a regular file
+        }
+        return ParsingUtilities.evaluateJsonStringToObjectNode(new String(headerBytes.array(), StandardCharsets.UTF_8));
+    }
+
+    private ByteBuffer map(FileChannel channel, String section) throws IOException {
+        ByteBuffer buffer = mapOptional(channel, section);
+        if (buffer == null) {
+            throw new IOException("Snapshot has no " + section + " section");
+        }
+        return buffer;
+    }
+
+    private ByteBuffer mapOptional(FileChannel channel, String section) throws IOException {
+        JsonNode location = header.path("sections").get(section);
+        if (location == null) {
+            return null;
+        }
+        long offset = location.get("offset").asLong();
+        long length = location.get("length").asLong();
+        if (offset < 0 || length < 0 || offset + length > channel.size()) {
+            throw new IOException("Truncated snapshot");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    private static IntBuffer asIntBuffer(ByteBuffer buffer) {
+        return buffer == null ? null : buffer.asIntBuffer();
+    }
+
+    /** The header of the snapshot, with the options of the scan it was taken from */
+    public ObjectNode getHeader() {
+        return header;
+    }
+
+    /** The options of the scan, which give the columns of projects created from the snapshot */
+    public ScanOptions getScanOptions() {
+        return scanOptions;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /** Extension of the file of the row, as it appears in the fileExtension column */
+    public String getExtension(int row) {
+        return getString(extension.get(row));
+    }
+
+    /** Builds the record of the given row */
+    public FileRecord getRecord(int row) {
+        int pathId = path.get(row);
+        FileRecord record = new FileRecord(getPath(pathId), getString(pathNames.get(pathId)),
+                size.get(row), lastModifiedTime.get(row), creationTime.get(row),
+                getString(owner.get(row)), getString(permissions.get(row)));
+        record.setStatus(getString(status.get(row)));
+        int rootId = root.get(row);
+        record.setRoot(rootId == NULL_ID ? null : getPath(rootId));
+        byte rowFlags = flags.get(row);
+        if (checksum != null && (rowFlags & HAS_CHECKSUM) != 0) {
+            record.setChecksum(toHex(checksum, row * checksumBytes, checksumBytes));
+        }
+        if (quickFingerprint != null && (rowFlags & HAS_QUICK_FINGERPRINT) != 0) {
+            record.setQuickFingerprint(toHex(quickFingerprint, row * quickFingerprintBytes, quickFingerprintBytes));
+        }
+        if (mimeType != null) {
+            record.setMimeType(getString(mimeType.get(row)));
+        }
+        if (contentSnippet != null) {
+            record.setContentSnippet(getString(contentSnippet.get(row)));
+        }
+        if (archivePath != null) {
+            int archiveId = archivePath.get(row);
+            record.setArchivePath(archiveId == NULL_ID ? null : getPath(archiveId));
+            record.setCompressedSize(compressedSize.get(row));
+            if ((rowFlags & HAS_CRC) != 0) {
+                record.setCrc(String.format("%08x", crc.get(row) & 0xffffffffL));
+            }
+        }
+        return record;
+    }
+
+    private Path getPath(int id) {
+        int parent = pathParents.get(id);
+        String name = getString(pathNames.get(id));
+        return parent == NULL_ID ? Paths.get(name) : getParentPath(parent).resolve(name);
+    }
+
+    /** Paths which other paths refer to are built once */
+    private synchronized Path getParentPath(int id) {
+        Path parentPath = parentPaths.get(id);
+        if (parentPath == null) {
+            parentPath = getPath(id);
+            parentPaths.put(id, parentPath);
+        }
+        return parentPath;
+    }
+
+    private String getString(int id) {
+        if (id == NULL_ID) {
+            return null;
+        }
+        int start = stringOffsets.get(id);
+        byte[] bytes = new byte[stringOffsets.get(id + 1) - start];
+        strings.duplicate().position(start).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String toHex(ByteBuffer buffer, int offset, int length) {
+        StringBuilder hex = new StringBuilder(2 * length);
+        for (int i = offset; i < offset + length; i++) {
+            int b = buffer.get(i) & 0xff;
+            hex.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public void close() {
+        // the mapped sections are released once the snapshot is no longer referenced
+    }
+
+    /**
+     * Fills the project with the rows of the snapshot given in the scan options,
+     * with the columns of the scan it was taken from, without touching the disk
+     * which was scanned. The record limit of the options applies.
+     */
+    public static void loadData(Project project, FileScanner scanner) throws Exception {
+        try (ScanSnapshot snapshot = open(scanner.getOptions().getSnapshotId())) {
+            List<FilesImporter.FileColumn> columns = FilesImporter.getColumns(snapshot.getScanOptions());
+            for (FilesImporter.FileColumn fileColumn : columns) {
+                Column column = new Column(project.columnModel.allocateNewCellIndex(), fileColumn.name);
+                project.columnModel.addColumn(project.columnModel.columns.size(), column, false);
+            }
+            int recordLimit = scanner.getOptions().getRecordLimit();
+            int rows = recordLimit > 0 ? Math.min(recordLimit, snapshot.getRowCount()) : snapshot.getRowCount();
+            for (int row = 0; row < rows; row++) {
+                if (scanner.isCancelled()) {
+                    throw new InterruptedIOException("Loading the snapshot was cancelled");
+                }
+                FileRecord record = snapshot.getRecord(row);
+                project.rows.add(FilesImporter.buildRow(record, columns));
+                scanner.getProgress().fileDone(Math.max(0, record.getSize()));
+            }
+            scanner.getProgress().setWalkComplete();
+        }
+        project.update();
+    }
+
+    /**
+     * Collects the records of a scan in columns as they are delivered, and writes
+     * them as a snapshot once the scan is complete.
+     */
+    static class Writer {
+        private final FileRecordStore store;
+
+        Writer(ScanOptions scanOptions) {
+            this.store = new FileRecordStore(scanOptions);
+        }
+
+        int getRowCount() {
+            return store.size();
+        }
+
+        void add(FileRecord record) {
+            store.add(record);
+        }
+
+        /**
+         * Writes the snapshot to the given file, replacing it atomically so that a
+         * snapshot is never read half-written.
+         */
+        void write(File target, long id) throws IOException {
+            Path tempFile = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                    SectionWriter sections = new SectionWriter(channel);
+                    ByteBuffer start = ByteBuffer.allocate(2 * Integer.BYTES).putInt(FORMAT_MAGIC).putInt(FORMAT_VERSION);
+                    start.flip();
+                    sections.write(start);
+                    sections.add("strings", store.strings.bytes);
+                    sections.add("stringOffsets", store.strings.offsets);
+                    sections.add("pathParents", store.pathParents);
+                    sections.add("pathNames", store.pathNames);
+                    sections.add("path", store.path);
+                    sections.add("root", store.root);
+                    sections.add("extension", store.extension);
+                    sections.add("size", store.size);
+                    sections.add("lastModifiedTime", store.lastModifiedTime);
+                    sections.add("creationTime", store.creationTime);
+                    sections.add("owner", store.owner);
+                    sections.add("permissions", store.permissions);
+                    sections.add("status", store.status);
+                    sections.add("flags", store.flags);
+                    if (store.checksumBytes > 0) {
+                        sections.add("checksum", store.checksum);
+                    }
+                    if (store.quickFingerprintBytes > 0) {
+                        sections.add("quickFingerprint", store.quickFingerprint);
+                    }
+                    if (store.scanOptions.isDetectMimeType()) {
+                        sections.add("mimeType", store.mimeType);
+                    }
+                    if (store.scanOptions.isContentSnippet()) {
+                        sections.add("contentSnippet", store.contentSnippet);
+                    }
+                    if (store.scanOptions.isListArchiveEntries()) {
+                        sections.add("archivePath", store.archivePath);
+                        sections.add("compressedSize", store.compressedSize);
+                        sections.add("crc32", store.crc);
+                    }
+
+                    ObjectNode header = ParsingUtilities.mapper.createObjectNode();
+                    JSONUtilities.safePut(header, "id", id);
+                    JSONUtilities.safePut(header, "created", System.currentTimeMillis());
+                    JSONUtilities.safePut(header, "rows", getRowCount());
+                    JSONUtilities.safePut(header, "checksumBytes", store.checksumBytes);
+                    JSONUtilities.safePut(header, "quickFingerprintBytes", store.quickFingerprintBytes);
+                    JSONUtilities.safePut(header, "options", getOptionsJson());
+                    JSONUtilities.safePut(header, "sections", sections.locations);
+                    byte[] headerBytes = ParsingUtilities.mapper.writeValueAsBytes(header);
+                    long headerOffset = sections.position;
+                    sections.write(ByteBuffer.wrap(headerBytes));
+                    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE)
+                            .putLong(headerOffset).putInt(headerBytes.length).putInt(FORMAT_MAGIC);
+                    trailer.flip();
+                    sections.write(trailer);
+                }
+                Files.move(tempFile, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        /**
+         * The options which select the files and give the columns of the records, as
+         * read by {@link ScanOptions#fromJson}, so that a project created from the
+         * snapshot is refreshed with the scan the snapshot was taken from
+         */
+        private ObjectNode getOptionsJson() {
+            ScanOptions scanOptions = store.scanOptions;
+            ObjectNode options = ParsingUtilities.mapper.createObjectNode();
+            ArrayNode directories = ParsingUtilities.mapper.createArrayNode();
+            for (Path scannedRoot : scanOptions.getRoots()) {
+                ObjectNode directory = ParsingUtilities.mapper.createObjectNode();
+                JSONUtilities.safePut(directory, "directory", scannedRoot.toString());
+                directories.add(directory);
+            }
+            JSONUtilities.safePut(options, "directoryJsonValue", directories);
+            int maxDepth = scanOptions.getMaxDepth();
+            JSONUtilities.safePut(options, "maxDepth", maxDepth == Integer.MAX_VALUE ? ScanOptions.UNLIMITED_DEPTH : maxDepth);
+            JSONUtilities.safePut(options, "includeGlobs", toArray(scanOptions.getIncludeGlobs()));
+            JSONUtilities.safePut(options, "excludeGlobs", toArray(scanOptions.getExcludeGlobs()));
+            JSONUtilities.safePut(options, "skipHidden", scanOptions.isSkipHidden());
+            JSONUtilities.safePut(options, "followSymlinks", scanOptions.isFollowSymlinks());
+            JSONUtilities.safePut(options, "checksumAlgorithm", scanOptions.getChecksumAlgorithm().getId());
+            JSONUtilities.safePut(options, "quickFingerprint", scanOptions.isQuickFingerprint());
+            JSONUtilities.safePut(options, "quickFingerprintBlockSizeKB", scanOptions.getQuickFingerprintBlockSize() / 1024);
+            JSONUtilities.safePut(options, "quickFingerprintThresholdMB", scanOptions.getQuickFingerprintThreshold() / (1024 * 1024));
+            JSONUtilities.safePut(options, "detectMimeType", scanOptions.isDetectMimeType());
+            JSONUtilities.safePut(options, "contentSnippet", scanOptions.isContentSnippet());
+            JSONUtilities.safePut(options, "contentSnippetLength", scanOptions.getContentSnippetLength());
+            JSONUtilities.safePut(options, "listArchiveEntries", scanOptions.isListArchiveEntries());
+            return options;
+        }
+
+        private static ArrayNode toArray(List<String> values) {
+            ArrayNode array = ParsingUtilities.mapper.createArrayNode();
+            values.forEach(array::add);
+            return array;
+        }
+    }
+
+    /** Writes sections one after the other, each aligned on 8 bytes, and records where they are */
+    private static class SectionWriter {
+        final FileChannel channel;
+        final ObjectNode locations = ParsingUtilities.mapper.createObjectNode();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        long position = 0;
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void add(String name, FileRecordStore.Values column) throws IOException {
+            int padding = (int) (-position & 7);
+            if (padding > 0) {
+                write(ByteBuffer.allocate(padding));
+            }
+            long offset = position;
+            buffer.clear();
+            for (int i = 0; i < column.size(); i++) {
+                if (buffer.remaining() < Long.BYTES) {
+                    buffer.flip();
+                    write(buffer);
+                    buffer.clear();
+                }
+                column.put(buffer, i);
+            }
+            buffer.flip();
+            write(buffer);
+            ObjectNode location = ParsingUtilities.mapper.createObjectNode();
+            JSONUtilities.safePut(location, "offset", offset);
+            JSONUtilities.safePut(location, "length", position - offset);
+            JSONUtilities.safePut(locations, name, location);
+        }
+
+        void write(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.openrefine.extensions.files.importer;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.util.JSONUtilities;
+import com.google.refine.util.ParsingUtilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of a scan goes, to tell slow listings, attribute reads, owner
+ * lookups, hashing and project loading apart.
+ * <p>
+ * The scanner threads record the duration of each step of each file into the
+ * histogram of its phase. Counters are {@link LongAdder}s and histograms have one
+ * adder per power of two of nanoseconds, so recording is a couple of uncontended
+ * additions and never takes a lock. Errors are counted by exception type. The
+ * directories which took longest to list and read the attributes of their entries
+ * are kept, which points at slow mounts; only directories slower than the ones
+ * already kept take a lock.
+ */
+public class ScanStats {
+    static final int SLOWEST_DIRECTORIES = 10;
+
+    public enum Phase {
+        /** Reading the entries of a directory */
+        LISTING("listing"),
+        /** Reading the attributes of an entry */
+        ATTRIBUTES("attributes"),
+        /** Turning the owner of a file into a name */
+        OWNER("owner"),
+        /** Listing the entries of an archive */
+        ARCHIVE("archive"),
+        /** Reading the contents of a file: checksums, fingerprints, type and snippet */
+        HASHING("hashing"),
+        /** Turning records into project rows, on the thread consuming the scan */
+        LOADING("loading");
+
+        private final String id;
+
+        Phase(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private static class DirectoryTime {
+        final String path;
+        final long nanos;
+        final int entries;
+
+        DirectoryTime(String path, long nanos, int entries) {
+            this.path = path;
+            this.nanos = nanos;
+            this.entries = entries;
+        }
+    }
+
+    private final long startTime = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder directories = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder throttleNanos = new LongAdder();
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final PriorityQueue<DirectoryTime> slowestDirectories =
+            new PriorityQueue<>(Comparator.comparingLong(directory -> directory.nanos));
+    // time of the fastest directory kept once the list is full, below which directories are not kept
+    private volatile long slowestDirectoryThreshold = 0;
+
+    public ScanStats() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    void record(Phase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    void fileDone(long size) {
+        files.increment();
+        bytes.add(Math.max(0, size));
+    }
+
+    void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /** Time the thread consuming the scan waited for the workers */
+    void waited(long nanos) {
+        waitNanos.add(nanos);
+    }
+
+    /** Time a scanner thread was held back by the {@link IoThrottle} */
+    void throttled(long nanos) {
+        throttleNanos.add(nanos);
+    }
+
+    void error(Throwable error) {
+        error(error.getClass().getSimpleName());
+    }
+
+    void error(String type) {
+        errors.computeIfAbsent(type, t -> new LongAdder()).increment();
+    }
+
+    /** Time spent listing a directory and reading the attributes of its entries */
+    void directoryDone(String path, long nanos, int entries) {
+        directories.increment();
+        if (nanos <= slowestDirectoryThreshold) {
+            return;
+        }
+        synchronized (slowestDirectories) {
+            slowestDirectories.add(new DirectoryTime(path, nanos, entries));
+            if (slowestDirectories.size() > SLOWEST_DIRECTORIES) {
+                slowestDirectories.poll();
+                slowestDirectoryThreshold = slowestDirectories.peek().nanos;
+            }
+        }
+    }
+
+    public long getFiles() {
+        return files.sum();
+    }
+
+    public long getDirectories() {
+        return directories.sum();
+    }
+
+    public long getCount(Phase phase) {
+        return phases[phase.ordinal()].count.sum();
+    }
+
+    public long getNanos(Phase phase) {
+        return phases[phase.ordinal()].totalNanos.sum();
+    }
+
+    public long getErrors(String type) {
+        LongAdder count = errors.get(type);
+        return count == null ? 0 : count.sum();
+    }
+
+    /** The slowest directories, slowest first */
+    public List<String> getSlowestDirectories() {
+        List<String> paths = new ArrayList<>();
+        for (DirectoryTime directory : getSlowestDirectoryTimes()) {
+            paths.add(directory.path);
+        }
+        return paths;
+    }
+
+    private List<DirectoryTime> getSlowestDirectoryTimes() {
+        List<DirectoryTime> slowest;
+        synchronized (slowestDirectories) {
+            slowest = new ArrayList<>(slowestDirectories);
+        }
+        slowest.sort(Comparator.comparingLong((DirectoryTime directory) -> directory.nanos).reversed());
+        return slowest;
+    }
+
+    public ObjectNode toJson() {
+        ObjectNode node = ParsingUtilities.mapper.createObjectNode();
+        long elapsedNanos = System.nanoTime() - startTime;
+        double elapsedSeconds = Math.max(1, elapsedNanos) / 1e9;
+        JSONUtilities.safePut(node, "elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        JSONUtilities.safePut(node, "files", getFiles());
+        JSONUtilities.safePut(node, "directories", getDirectories());
+        JSONUtilities.safePut(node, "bytes", bytes.sum());
+        JSONUtilities.safePut(node, "bytesRead", bytesRead.sum());
+        JSONUtilities.safePut(node, "filesPerSecond", Math.round(getFiles() / elapsedSeconds));
+        JSONUtilities.safePut(node, "bytesReadPerSecond", Math.round(bytesRead.sum() / elapsedSeconds));
+        JSONUtilities.safePut(node, "consumerWaitMs", TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()));
+        JSONUtilities.safePut(node, "throttleWaitMs", TimeUnit.NANOSECONDS.toMillis(throttleNanos.sum()));
+
+        ObjectNode phasesJson = ParsingUtilities.mapper.createObjectNode();
+        for (Phase phase : Phase.values()) {
+            JSONUtilities.safePut(phasesJson, phase.getId(), phases[phase.ordinal()].toJson());
+        }
+        JSONUtilities.safePut(node, "phases", phasesJson);
+
+        ObjectNode errorsJson = ParsingUtilities.mapper.createObjectNode();
+        new TreeMap<>(errors).forEach((type, count) -> JSONUtilities.safePut(errorsJson, type, count.sum()));
+        JSONUtilities.safePut(node, "errors", errorsJson);
+
+        ArrayNode slowestJson = ParsingUtilities.mapper.createArrayNode();
+        for (DirectoryTime directory : getSlowestDirectoryTimes()) {
+            ObjectNode directoryJson = ParsingUtilities.mapper.createObjectNode();
+            JSONUtilities.safePut(directoryJson, "path", directory.path);
+            JSONUtilities.safePut(directoryJson, "ms", TimeUnit.NANOSECONDS.toMillis(directory.nanos));
+            JSONUtilities.safePut(directoryJson, "entries", directory.entries);
+            slowestJson.add(directoryJson);
+        }
+        JSONUtilities.safePut(node, "slowestDirectories", slowestJson);
+        return node;
+    }
+
+    /**
+     * Durations bucketed by power of two: bucket i counts the durations from
+     * 2^(i-1) included to 2^i nanoseconds excluded. Percentiles are reported as the
+     * upper bound of their bucket, so they are at most twice the actual value.
+     */
+    private static class Histogram {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+        final LongAdder[] buckets = new LongAdder[64];
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[Math.min(buckets.length - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+        }
+
+        /** Upper bound of the duration below which the given share of the durations fall */
+        long getPercentileNanos(long[] counts, long total, double share) {
+            long rank = (long) Math.ceil(total * share);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : 1L << Math.min(62, i);
+                }
+            }
+            return maxNanos.get();
+        }
+
+        ObjectNode toJson() {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            ObjectNode node = ParsingUtilities.mapper.createObjectNode();
+            JSONUtilities.safePut(node, "count", total);
+            JSONUtilities.safePut(node, "totalMs", TimeUnit.NANOSECONDS.toMillis(totalNanos.sum()));
+            if (total > 0) {
+                JSONUtilities.safePut(node, "meanUs", TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / total));
+                JSONUtilities.safePut(node, "p50Us", TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(counts, total, 0.5)));
+                JSONUtilities.safePut(node, "p90Us", TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(counts, total, 0.9)));
+                JSONUtilities.safePut(node, "p99Us", TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(counts, total, 0.99)));
+                JSONUtilities.safePut(node, "maxUs", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+            }
+            return node;
+        }
+    }
+}
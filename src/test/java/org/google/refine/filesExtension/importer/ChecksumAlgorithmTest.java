@@ -0,0 +1,50 @@
+package org.google.refine.filesExtension.importer;
+
+import org.openrefine.extensions.files.importer.ChecksumAlgorithm;
+import org.openrefine.extensions.files.importer.FileHasher;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ChecksumAlgorithmTest {
+
+    private static String hash(ChecksumAlgorithm algorithm, String... chunks) {
+        FileHasher hasher = algorithm.newHasher();
+        for (String chunk : chunks) {
+            byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+            hasher.update(bytes, 0, bytes.length);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hasher.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    public void testKnownDigests() {
+        Assert.assertEquals(hash(ChecksumAlgorithm.SHA256, "abc"), "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+        Assert.assertEquals(hash(ChecksumAlgorithm.SHA1, "abc"), "a9993e364706816aba3e25717850c26c9cd0d89d");
+        Assert.assertEquals(hash(ChecksumAlgorithm.MD5, "abc"), "900150983cd24fb0d6963f7d28e17f72");
+        Assert.assertEquals(hash(ChecksumAlgorithm.CRC32C, "123456789"), "e3069283");
+    }
+
+    @Test
+    public void testXxHash64() {
+        Assert.assertEquals(hash(ChecksumAlgorithm.XXH64), "ef46db3751d8e999");
+        Assert.assertEquals(hash(ChecksumAlgorithm.XXH64, "abc"), "44bc2cf5ad770999");
+        Assert.assertEquals(hash(ChecksumAlgorithm.XXH64, "Nobody inspects the spammish repetition"), "fbcea83c8a378bf1");
+        // the result must not depend on how the input is split
+        Assert.assertEquals(hash(ChecksumAlgorithm.XXH64, "Nobody inspects", " the spammish", " repetition"), "fbcea83c8a378bf1");
+    }
+
+    @Test
+    public void testFromId() {
+        Assert.assertEquals(ChecksumAlgorithm.fromId("SHA-256"), ChecksumAlgorithm.SHA256);
+        Assert.assertEquals(ChecksumAlgorithm.fromId("xxh64"), ChecksumAlgorithm.XXH64);
+        Assert.assertEquals(ChecksumAlgorithm.fromId("none"), ChecksumAlgorithm.NONE);
+        Assert.assertEquals(ChecksumAlgorithm.fromId(null), ChecksumAlgorithm.SHA256);
+        Assert.assertFalse(ChecksumAlgorithm.NONE.isEnabled());
+    }
+}
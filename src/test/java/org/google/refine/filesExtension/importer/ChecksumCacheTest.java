@@ -0,0 +1,95 @@
+package org.google.refine.filesExtension.importer;
+
+import org.openrefine.extensions.files.importer.ChecksumCache;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.google.refine.filesExtension.utils.TestDirectories.createTempDirectory;
+import static org.google.refine.filesExtension.utils.TestDirectories.deleteTree;
+import static org.google.refine.filesExtension.utils.TestDirectories.write;
+
+public class ChecksumCacheTest {
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+    @Test
+    public void testChecksumIsReusedUntilFileChanges() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ChecksumCache");
+        Path file = write(dir, "data.txt", "some content");
+
+        ChecksumCache cache = new ChecksumCache(new File(dir, "cache.bin"), 10);
+        cache.put(file, attributes(file), "SHA-256", "abc");
+        Assert.assertEquals(cache.get(file, attributes(file), "SHA-256"), "abc");
+        Assert.assertNull(cache.get(file, attributes(file), "MD5"));
+
+        Files.writeString(file, "some other content");
+        Assert.assertNull(cache.get(file, attributes(file), "SHA-256"));
+    }
+
+    @Test
+    public void testCacheIsPersistedAndBounded() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ChecksumCache");
+        File cacheFile = new File(dir, "cache.bin");
+        Path[] files = new Path[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = write(dir, "data" + i + ".txt", "content " + i);
+        }
+
+        ChecksumCache cache = new ChecksumCache(cacheFile, 2);
+        cache.put(files[0], attributes(files[0]), "SHA-256", "checksum0");
+        cache.put(files[1], attributes(files[1]), "SHA-256", "checksum1");
+        // touch the first entry so that the second one is the least recently used
+        cache.get(files[0], attributes(files[0]), "SHA-256");
+        cache.put(files[2], attributes(files[2]), "SHA-256", "checksum2");
+        Assert.assertEquals(cache.size(), 2);
+        cache.save();
+
+        ChecksumCache reloaded = new ChecksumCache(cacheFile, 2);
+        Assert.assertEquals(reloaded.get(files[0], attributes(files[0]), "SHA-256"), "checksum0");
+        Assert.assertNull(reloaded.get(files[1], attributes(files[1]), "SHA-256"));
+        Assert.assertEquals(reloaded.get(files[2], attributes(files[2]), "SHA-256"), "checksum2");
+    }
+
+    @Test
+    public void testCacheIsBoundedInBytes() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ChecksumCache");
+        Path[] files = new Path[10];
+        ChecksumCache cache = new ChecksumCache(new File(dir, "cache.bin"), 100, 1024);
+        for (int i = 0; i < files.length; i++) {
+            files[i] = write(dir, "data" + i + ".txt", "content " + i);
+            cache.put(files[i], attributes(files[i]), "SHA-256", "checksum" + i);
+        }
+        Assert.assertTrue(cache.size() < files.length);
+        Assert.assertNull(cache.get(files[0], attributes(files[0]), "SHA-256"));
+        Assert.assertEquals(cache.get(files[9], attributes(files[9]), "SHA-256"), "checksum9");
+    }
+
+    @Test
+    public void testFailedSaveIsRetried() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ChecksumCache");
+        // a non-empty directory in place of the cache file makes the final move fail
+        File cacheFile = new File(dir, "cache.bin");
+        Files.createDirectories(cacheFile.toPath().resolve("sub"));
+        Path file = write(dir, "data.txt", "some content");
+
+        ChecksumCache cache = new ChecksumCache(cacheFile, 10);
+        cache.put(file, attributes(file), "SHA-256", "abc");
+        cache.save();
+
+        String[] names = dir.list((parent, name) -> name.endsWith(".tmp"));
+        Assert.assertEquals(names.length, 0);
+
+        // the entries are still saved once the cache file can be written
+        deleteTree(cacheFile);
+        cache.save();
+        Assert.assertEquals(new ChecksumCache(cacheFile, 10).get(file, attributes(file), "SHA-256"), "abc");
+    }
+}
@@ -0,0 +1,88 @@
+package org.google.refine.filesExtension.importer;
+
+import org.openrefine.extensions.files.importer.DirectoryListingCache;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.google.refine.filesExtension.utils.TestDirectories.createTempDirectory;
+import static org.google.refine.filesExtension.utils.TestDirectories.write;
+
+public class DirectoryListingCacheTest {
+
+    @Test
+    public void testListingIsCachedUntilTheDirectoryChanges() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ListingCache");
+        Files.createDirectory(dir.toPath().resolve("b"));
+        Files.createDirectory(dir.toPath().resolve("A"));
+        write(dir, "file.txt", "not a directory");
+        DirectoryListingCache cache = new DirectoryListingCache(1000, 60_000);
+
+        List<String> listing = cache.getSubdirectories(dir.toPath());
+        Assert.assertEquals(listing, List.of("A", "b"));
+        Assert.assertSame(cache.getSubdirectories(dir.toPath()), listing);
+
+        Files.createDirectory(dir.toPath().resolve("c"));
+        // the change is reported asynchronously by the watch service
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (cache.getSubdirectories(dir.toPath()) == listing && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(cache.getSubdirectories(dir.toPath()), List.of("A", "b", "c"));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneListing() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ListingCacheConcurrent");
+        for (int i = 0; i < 200; i++) {
+            Files.createDirectory(dir.toPath().resolve("dir-" + i));
+        }
+        DirectoryListingCache cache = new DirectoryListingCache(1000, 60_000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> cache.getSubdirectories(dir.toPath()), executor));
+            }
+            List<String> first = results.get(0).get();
+            Assert.assertEquals(first.size(), 200);
+            for (CompletableFuture<List<String>> result : results) {
+                Assert.assertSame(result.get(), first);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ListingCacheBound");
+        DirectoryListingCache cache = new DirectoryListingCache(10, 60_000);
+        for (int i = 0; i < 20; i++) {
+            Path child = Files.createDirectory(dir.toPath().resolve("dir-" + i));
+            cache.getSubdirectories(child);
+        }
+        Assert.assertEquals(cache.size(), 10);
+    }
+
+    @Test
+    public void testLargeDirectoriesAreNotCached() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ListingCacheLarge");
+        for (int i = 0; i < 20; i++) {
+            Files.createDirectory(dir.toPath().resolve("dir-" + i));
+        }
+        DirectoryListingCache cache = new DirectoryListingCache(1000, 10, 60_000);
+
+        Assert.assertNull(cache.getSubdirectories(dir.toPath()));
+        Assert.assertEquals(cache.getSubdirectories(dir.toPath().resolve("dir-0")), List.of());
+        Assert.assertEquals(cache.size(), 2);
+    }
+}
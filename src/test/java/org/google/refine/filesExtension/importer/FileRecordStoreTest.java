@@ -0,0 +1,152 @@
+package org.google.refine.filesExtension.importer;
+
+import com.google.refine.util.ParsingUtilities;
+import org.openrefine.extensions.files.importer.FileRecord;
+import org.openrefine.extensions.files.importer.FileRecordStore;
+import org.openrefine.extensions.files.importer.ScanOptions;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class FileRecordStoreTest {
+
+    private static final String SHA256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    // quick fingerprints use the checksum algorithm
+    private static final String FINGERPRINT = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    private static FileRecordStore newStore() throws IOException {
+        return new FileRecordStore(ScanOptions.fromJson(ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"checksumAlgorithm\":\"sha256\",\"quickFingerprint\":true,\"detectMimeType\":true,"
+                        + "\"contentSnippet\":true,\"listArchiveEntries\":true}")));
+    }
+
+    private static FileRecord record(Path path) {
+        Path fileName = path.getFileName();
+        return new FileRecord(path, fileName == null ? path.toString() : fileName.toString(),
+                1234, 1_600_000_000_000L, 1_500_000_000_000L, "alice", "rw-r--r--");
+    }
+
+    private static void assertRecordEquals(FileRecord actual, FileRecord expected) {
+        Assert.assertEquals(actual.getPath(), expected.getPath());
+        Assert.assertEquals(actual.getFileName(), expected.getFileName());
+        Assert.assertEquals(actual.getRoot(), expected.getRoot());
+        Assert.assertEquals(actual.getSize(), expected.getSize());
+        Assert.assertEquals(actual.getLastModifiedTime(), expected.getLastModifiedTime());
+        Assert.assertEquals(actual.getCreationTime(), expected.getCreationTime());
+        Assert.assertEquals(actual.getAuthor(), expected.getAuthor());
+        Assert.assertEquals(actual.getPermissions(), expected.getPermissions());
+        Assert.assertEquals(actual.getStatus(), expected.getStatus());
+        Assert.assertEquals(actual.getChecksum(), expected.getChecksum());
+        Assert.assertEquals(actual.getQuickFingerprint(), expected.getQuickFingerprint());
+        Assert.assertEquals(actual.getMimeType(), expected.getMimeType());
+        Assert.assertEquals(actual.getContentSnippet(), expected.getContentSnippet());
+        Assert.assertEquals(actual.getArchivePath(), expected.getArchivePath());
+        Assert.assertEquals(actual.getCompressedSize(), expected.getCompressedSize());
+        Assert.assertEquals(actual.getCrc(), expected.getCrc());
+    }
+
+    @Test
+    public void testRecordsAreReadAsAdded() throws IOException {
+        Path root = Paths.get("/data/share").toAbsolutePath();
+        FileRecord full = record(root.resolve("docs/report.txt"));
+        full.setRoot(root);
+        full.setChecksum(SHA256);
+        full.setQuickFingerprint(FINGERPRINT);
+        full.setMimeType("text/plain");
+        full.setContentSnippet("Quarterly report \u2013 \u00e9t\u00e9");
+
+        FileRecord archive = record(root.resolve("docs/bundle.zip"));
+        archive.setRoot(root);
+        archive.setMimeType("application/zip");
+        FileRecord entry = record(Paths.get(archive.getPath() + "!", "notes/todo.txt"));
+        entry.setRoot(root);
+        entry.setArchivePath(archive.getPath());
+        entry.setCompressedSize(567);
+        entry.setCrc("cafe0042");
+        FileRecord entryWithoutCrc = record(Paths.get(archive.getPath() + "!", "empty.txt"));
+        entryWithoutCrc.setRoot(root);
+        entryWithoutCrc.setArchivePath(archive.getPath());
+        archive.setArchiveEntries(List.of(entry, entryWithoutCrc));
+
+        // values left unset, empty strings and an error status
+        FileRecord bare = new FileRecord(root.resolve("bare"), "bare", -1, -1, -1, "", "");
+        bare.setStatus(FileRecord.STATUS_ERROR);
+        bare.setMimeType("");
+        bare.setContentSnippet("");
+        FileRecord unset = new FileRecord(root.resolve("unset"), "unset", 0, 0, 0, null, null);
+
+        List<FileRecord> records = List.of(full, archive, entry, entryWithoutCrc, bare, unset);
+        FileRecordStore store = newStore();
+        for (FileRecord record : records) {
+            store.add(record);
+        }
+
+        Assert.assertEquals(store.size(), records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertRecordEquals(store.get(i), records.get(i));
+        }
+        Assert.assertNull(store.get(5).getAuthor());
+        Assert.assertEquals(store.get(4).getAuthor(), "");
+        Assert.assertNull(store.get(5).getMimeType());
+        Assert.assertEquals(store.get(4).getMimeType(), "");
+    }
+
+    @Test
+    public void testPathsWithoutParent() throws IOException {
+        Path fileSystemRoot = Paths.get("/").toAbsolutePath().getRoot();
+        FileRecord rootRecord = record(fileSystemRoot);
+        rootRecord.setRoot(fileSystemRoot);
+        FileRecord underRoot = record(fileSystemRoot.resolve("top.txt"));
+        underRoot.setRoot(fileSystemRoot);
+        FileRecord relative = record(Paths.get("relative.txt"));
+
+        FileRecordStore store = newStore();
+        store.add(rootRecord);
+        store.add(underRoot);
+        store.add(relative);
+
+        assertRecordEquals(store.get(0), rootRecord);
+        assertRecordEquals(store.get(1), underRoot);
+        assertRecordEquals(store.get(2), relative);
+    }
+
+    @Test
+    public void testMalformedDigestsAreStoredAsMissing() throws IOException {
+        Path dir = Paths.get("/data").toAbsolutePath();
+        FileRecord shortDigest = record(dir.resolve("short"));
+        shortDigest.setChecksum(SHA256.substring(2));
+        shortDigest.setQuickFingerprint(FINGERPRINT + "00");
+        FileRecord notHex = record(dir.resolve("not-hex"));
+        notHex.setChecksum(SHA256.replace('a', 'z'));
+        notHex.setQuickFingerprint("-" + FINGERPRINT.substring(1));
+        FileRecord noDigest = record(dir.resolve("none"));
+        noDigest.setChecksum(null);
+        FileRecord crcs = record(dir.resolve("a.zip!/entry"));
+        crcs.setArchivePath(dir.resolve("a.zip"));
+        crcs.setCrc("not a crc");
+        FileRecord longCrc = record(dir.resolve("a.zip!/other"));
+        longCrc.setArchivePath(dir.resolve("a.zip"));
+        longCrc.setCrc("123456789");
+        FileRecord signedCrc = record(dir.resolve("a.zip!/signed"));
+        signedCrc.setArchivePath(dir.resolve("a.zip"));
+        signedCrc.setCrc("-1");
+
+        FileRecordStore store = newStore();
+        for (FileRecord record : List.of(shortDigest, notHex, noDigest, crcs, longCrc, signedCrc)) {
+            store.add(record);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(store.get(i).getChecksum(), "");
+            Assert.assertNull(store.get(i).getQuickFingerprint());
+        }
+        for (int i = 3; i < 6; i++) {
+            Assert.assertNull(store.get(i).getCrc());
+            Assert.assertEquals(store.get(i).getArchivePath(), dir.resolve("a.zip"));
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package org.google.refine.filesExtension.importer;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.util.ParsingUtilities;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openrefine.extensions.files.importer.FileRecord;
+import org.openrefine.extensions.files.importer.FileScanner;
+import org.openrefine.extensions.files.importer.ScanLimits;
+import org.openrefine.extensions.files.importer.ScanOptions;
+import org.openrefine.extensions.files.importer.ScanProgress;
+import org.openrefine.extensions.files.importer.ScanStats;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.google.refine.filesExtension.utils.TestDirectories.createTempDirectory;
+import static org.google.refine.filesExtension.utils.TestDirectories.write;
+
+public class FileScannerTest {
+
+    private static File createDirectoryWithFiles(String name, int fileCount) throws IOException {
+        File dir = createTempDirectory(name);
+        for (int i = fileCount - 1; i >= 0; i--) {
+            write(dir, String.format("file-%03d.txt", i), "content " + i);
+        }
+        return dir;
+    }
+
+    private static List<String> scan(ObjectNode options) throws IOException {
+        List<String> paths = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(record -> paths.add(record.getPath().toString()));
+        }
+        return paths;
+    }
+
+    @Test
+    public void testScanOrderIsDeterministic() throws IOException {
+        File dir1 = createDirectoryWithFiles("OR_FilesExtension_Test_Scan1", 50);
+        File dir2 = createDirectoryWithFiles("OR_FilesExtension_Test_Scan2", 30);
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir1\"},{\"directory\":\"@dir2\"}],\"scanThreads\":8}"
+                        .replace("@dir1", dir1.getPath())
+                        .replace("@dir2", dir2.getPath()));
+
+        List<String> parallel = scan(options);
+        options.put("scanThreads", 1);
+        List<String> sequential = scan(options);
+
+        Assert.assertEquals(parallel.size(), 80);
+        Assert.assertEquals(parallel, sequential);
+        Assert.assertTrue(parallel.get(0).startsWith(dir1.getAbsolutePath()));
+        Assert.assertTrue(parallel.get(0).endsWith("file-000.txt"));
+        Assert.assertTrue(parallel.get(79).startsWith(dir2.getAbsolutePath()));
+        Assert.assertTrue(parallel.get(79).endsWith("file-029.txt"));
+    }
+
+    @Test
+    public void testQuickFingerprintAboveThreshold() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_QuickFingerprint");
+        byte[] content = new byte[16 * 1024];
+        write(dir, "a.bin", content);
+        // only differs outside of the sampled head, middle and tail blocks
+        content[1500] = 1;
+        write(dir, "b.bin", content);
+        write(dir, "c.txt", "small file");
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"useChecksumCache\":false}"
+                        .replace("@dir", dir.getPath()));
+        ScanOptions scanOptions = ScanOptions.fromJson(options);
+        scanOptions.setQuickFingerprintBlockSize(1024);
+        scanOptions.setQuickFingerprintThreshold(8 * 1024);
+
+        List<FileRecord> records = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(scanOptions)) {
+            scanner.scan(records::add);
+        }
+
+        Assert.assertEquals(records.size(), 3);
+        Assert.assertEquals(records.get(0).getChecksum(), "");
+        Assert.assertEquals(records.get(0).getQuickFingerprint(), records.get(1).getQuickFingerprint());
+        Assert.assertFalse(records.get(2).getChecksum().isEmpty());
+        Assert.assertNull(records.get(2).getQuickFingerprint());
+    }
+
+    @Test
+    public void testChecksumOfLargeFile() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_LargeChecksum");
+        // large enough to be read through memory-mapped windows
+        byte[] content = new byte[20 * 1024 * 1024 + 123];
+        new Random(42).nextBytes(content);
+        write(dir, "large.bin", content);
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"useChecksumCache\":false}"
+                        .replace("@dir", dir.getPath()));
+        List<FileRecord> records = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(records::add);
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            expected.append(String.format("%02x", b));
+        }
+        Assert.assertEquals(records.get(0).getChecksum(), expected.toString());
+    }
+
+    @Test
+    public void testLockedFileIsReportedWithStatus() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_LockedFile");
+        Path lockedFile = write(dir, "locked.txt", "locked content");
+        write(dir, "other.txt", "other content");
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"useChecksumCache\":false,\"lockPolicy\":\"try\",\"lockTimeoutMs\":100}"
+                        .replace("@dir", dir.getPath()));
+        List<FileRecord> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(lockedFile, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock();
+             FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            Assert.assertTrue(lock.isValid());
+            scanner.scan(records::add);
+        }
+
+        Assert.assertEquals(records.size(), 2);
+        Assert.assertEquals(records.get(0).getFileName(), "locked.txt");
+        Assert.assertEquals(records.get(0).getStatus(), FileRecord.STATUS_LOCKED);
+        Assert.assertEquals(records.get(0).getChecksum(), "");
+        Assert.assertEquals(records.get(1).getStatus(), FileRecord.STATUS_OK);
+        Assert.assertFalse(records.get(1).getChecksum().isEmpty());
+    }
+
+    @Test
+    public void testOwnerAndPermissionsMatchFileAttributes() throws IOException {
+        File dir = createDirectoryWithFiles("OR_FilesExtension_Test_Attributes", 3);
+        Path file = new File(dir, "file-001.txt").toPath();
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r-----"));
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"checksumAlgorithm\":\"none\"}"
+                        .replace("@dir", dir.getPath()));
+        List<FileRecord> records = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(records::add);
+        }
+
+        Assert.assertEquals(records.size(), 3);
+        for (FileRecord record : records) {
+            Assert.assertEquals(record.getAuthor(), Files.getOwner(record.getPath()).getName());
+            Assert.assertEquals(record.getPermissions(),
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(record.getPath())));
+        }
+        Assert.assertEquals(records.get(1).getPermissions(), "rw-r-----");
+    }
+
+    @Test
+    public void testOwnerOfFollowedLinkIsTheOwnerOfItsTarget() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_LinkOwner");
+        Path target = write(dir, "target.txt", "target");
+        Files.createSymbolicLink(dir.toPath().resolve("link.txt"), target);
+        try {
+            // the link keeps the owner of the test, the target gets another one
+            Files.setOwner(target, target.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName("nobody"));
+        } catch (IOException | UnsupportedOperationException e) {
+            throw new SkipException("Cannot change the owner of a file: " + e.getMessage());
+        }
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"checksumAlgorithm\":\"none\",\"followSymlinks\":true}"
+                        .replace("@dir", dir.getPath()));
+        List<FileRecord> records = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(records::add);
+        }
+
+        Assert.assertEquals(records.size(), 2);
+        for (FileRecord record : records) {
+            Assert.assertEquals(record.getAuthor(), "nobody", record.getFileName());
+        }
+    }
+
+    @Test
+    public void testCancelStopsScan() throws Exception {
+        File dir = createDirectoryWithFiles("OR_FilesExtension_Test_Cancel", 200);
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"useChecksumCache\":false,\"scanThreads\":2}"
+                        .replace("@dir", dir.getPath()));
+        List<FileRecord> records = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(record -> {
+                records.add(record);
+                if (records.size() == 10) {
+                    scanner.cancel();
+                }
+            });
+            Assert.fail("A cancelled scan must not complete normally");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        Assert.assertEquals(records.size(), 10);
+    }
+
+    @Test
+    public void testProgressIsReported() throws IOException {
+        File dir = createDirectoryWithFiles("OR_FilesExtension_Test_Progress", 20);
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"useChecksumCache\":false}"
+                        .replace("@dir", dir.getPath()));
+        ScanProgress progress = new ScanProgress();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options), progress)) {
+            scanner.scan(record -> { });
+        }
+        Assert.assertEquals(progress.getFilesSeen(), 20);
+        Assert.assertEquals(progress.getFilesDone(), 20);
+        Assert.assertEquals(progress.getPercent(), 100);
+        Assert.assertEquals(progress.getBytesHashed(), 10 * "content 0".length() + 10 * "content 10".length());
+        Assert.assertEquals(progress.getCurrentDirectory(), dir.getPath());
+    }
+
+    @Test
+    public void testStatsAreRecordedPerPhase() throws IOException {
+        File dir = createDirectoryWithFiles("OR_FilesExtension_Test_Stats", 20);
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"useChecksumCache\":false}"
+                        .replace("@dir", dir.getPath()));
+        ScanStats stats;
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(record -> { });
+            stats = scanner.getStats();
+        }
+        Assert.assertEquals(stats.getFiles(), 20);
+        Assert.assertEquals(stats.getDirectories(), 1);
+        Assert.assertEquals(stats.getCount(ScanStats.Phase.LISTING), 1);
+        // the root and its entries
+        Assert.assertEquals(stats.getCount(ScanStats.Phase.ATTRIBUTES), 21);
+        Assert.assertEquals(stats.getCount(ScanStats.Phase.OWNER), 20);
+        Assert.assertEquals(stats.getCount(ScanStats.Phase.HASHING), 20);
+        Assert.assertEquals(stats.getCount(ScanStats.Phase.LOADING), 20);
+        Assert.assertEquals(stats.getCount(ScanStats.Phase.ARCHIVE), 0);
+        Assert.assertTrue(stats.getNanos(ScanStats.Phase.HASHING) > 0);
+        Assert.assertEquals(stats.getSlowestDirectories(), List.of(dir.getPath()));
+
+        ObjectNode json = stats.toJson();
+        Assert.assertEquals(json.get("bytesRead").asLong(), 10 * "content 0".length() + 10 * "content 10".length());
+        Assert.assertEquals(json.get("phases").get("hashing").get("count").asLong(), 20);
+        Assert.assertTrue(json.get("phases").get("hashing").has("p99Us"));
+        Assert.assertEquals(json.get("errors").size(), 0);
+        Assert.assertEquals(json.get("slowestDirectories").get(0).get("entries").asInt(), 20);
+    }
+
+    @Test
+    public void testStatsCountErrorsByType() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_StatsErrors");
+        // not a zip file, so it cannot be listed
+        write(dir, "broken.zip", "not a zip file");
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"listArchiveEntries\":true}"
+                        .replace("@dir", dir.getPath()));
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(record -> { });
+            Assert.assertEquals(scanner.getStats().getCount(ScanStats.Phase.ARCHIVE), 1);
+            Assert.assertEquals(scanner.getStats().toJson().get("errors").size(), 1);
+        }
+    }
+
+    @Test
+    public void testReadBandwidthIsLimited() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ReadLimit");
+        byte[] data = new byte[256 * 1024];
+        for (int i = 0; i < 4; i++) {
+            write(dir, "file-" + i + ".bin", data);
+        }
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"useChecksumCache\":false,\"readMBPerSecond\":1}"
+                        .replace("@dir", dir.getPath()));
+        long start = System.nanoTime();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(record -> { });
+            // 1 MB at 1 MB/s, less the burst allowed at the start and the last read, which is not waited for
+            Assert.assertTrue(System.nanoTime() - start > 500_000_000L);
+            Assert.assertTrue(scanner.getStats().toJson().get("throttleWaitMs").asLong() > 300);
+        }
+    }
+
+    @Test
+    public void testScanLimitsCanBeChanged() throws IOException {
+        File dir = createDirectoryWithFiles("OR_FilesExtension_Test_UpdateLimits", 3);
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"metadataConcurrency\":2}"
+                        .replace("@dir", dir.getPath()));
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(record -> { });
+            ObjectNode store = (ObjectNode) scanner.getThrottle().toJson().get(0);
+            Assert.assertEquals(store.get("metadataConcurrency").asInt(), 2);
+            Assert.assertEquals(store.get("readMBPerSecond").asInt(), 0);
+
+            scanner.getThrottle().update(ScanLimits.UNLIMITED,
+                    Map.of(dir.toPath(), new ScanLimits(4, 100, 1, 8 * 1024 * 1024)));
+            store = (ObjectNode) scanner.getThrottle().toJson().get(0);
+            Assert.assertEquals(store.get("metadataConcurrency").asInt(), 4);
+            Assert.assertEquals(store.get("metadataOpsPerSecond").asInt(), 100);
+            Assert.assertEquals(store.get("readConcurrency").asInt(), 1);
+            Assert.assertEquals(store.get("readMBPerSecond").asInt(), 8);
+        }
+    }
+
+    private static File createTree(String name) throws IOException {
+        File dir = createTempDirectory(name);
+        write(dir, "top.txt", "top");
+        write(dir, ".hidden", "hidden");
+        write(dir, "a/one.csv", "one");
+        write(dir, "a/b/two.txt", "two");
+        write(dir, "a/b/c/three.csv", "three");
+        write(dir, "build/out.csv", "out");
+        return dir;
+    }
+
+    private static List<String> scanRelative(File dir, String extraOptions) throws IOException {
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                ("{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"checksumAlgorithm\":\"none\"" + extraOptions + "}")
+                        .replace("@dir", dir.getPath()));
+        List<String> paths = new ArrayList<>();
+        for (String path : scan(options)) {
+            paths.add(dir.toPath().toAbsolutePath().relativize(Path.of(path)).toString().replace(File.separatorChar, '/'));
+        }
+        return paths;
+    }
+
+    @Test
+    public void testMaxDepth() throws IOException {
+        File dir = createTree("OR_FilesExtension_Test_Depth");
+
+        Assert.assertEquals(scanRelative(dir, ""), List.of(".hidden", "top.txt"));
+        Assert.assertEquals(scanRelative(dir, ",\"maxDepth\":2"), List.of(".hidden", "a/one.csv", "build/out.csv", "top.txt"));
+        Assert.assertEquals(scanRelative(dir, ",\"maxDepth\":0"),
+                List.of(".hidden", "a/b/c/three.csv", "a/b/two.txt", "a/one.csv", "build/out.csv", "top.txt"));
+    }
+
+    @Test
+    public void testHiddenFilesAreListedByDefault() throws IOException {
+        File dir = createTree("OR_FilesExtension_Test_Hidden");
+
+        Assert.assertEquals(scanRelative(dir, "").get(0), ".hidden");
+        Assert.assertEquals(scanRelative(dir, ",\"skipHidden\":false").get(0), ".hidden");
+        Assert.assertEquals(scanRelative(dir, ",\"skipHidden\":true"), List.of("top.txt"));
+    }
+
+    @Test
+    public void testIncludeAndExcludeGlobs() throws IOException {
+        File dir = createTree("OR_FilesExtension_Test_Globs");
+
+        Assert.assertEquals(scanRelative(dir, ",\"maxDepth\":0,\"includeGlobs\":\"*.csv\",\"excludeGlobs\":[\"build\"]"),
+                List.of("a/b/c/three.csv", "a/one.csv"));
+        Assert.assertEquals(scanRelative(dir, ",\"maxDepth\":0,\"excludeGlobs\":\"a/b, *.csv\""), List.of(".hidden", "top.txt"));
+    }
+
+    @Test
+    public void testSymlinkLoopIsNotFollowed() throws IOException {
+        File dir = createTree("OR_FilesExtension_Test_Symlinks");
+        Files.createSymbolicLink(dir.toPath().resolve("a/b/up"), dir.toPath().resolve("a"));
+
+        List<String> followed = scanRelative(dir, ",\"maxDepth\":0,\"followSymlinks\":true");
+        Assert.assertEquals(followed, List.of(".hidden", "a/b/c/three.csv", "a/b/two.txt", "a/one.csv", "build/out.csv", "top.txt"));
+
+        List<String> notFollowed = scanRelative(dir, ",\"maxDepth\":0");
+        Assert.assertTrue(notFollowed.contains("a/b/up"));
+    }
+
+    private static void copyTestFile(String fileName, File dir) throws IOException {
+        Files.copy(Path.of(ClassLoader.getSystemResource(fileName).getPath()), dir.toPath().resolve(fileName));
+    }
+
+    private static void writeTar(OutputStream output) throws IOException {
+        byte[] content = "tar entry content".getBytes(StandardCharsets.UTF_8);
+        try (TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(output)) {
+            TarArchiveEntry entry = new TarArchiveEntry("docs/notes.txt");
+            entry.setSize(content.length);
+            entry.setMode(0100640);
+            entry.setUserName("alice");
+            entry.setModTime(1_600_000_000_000L);
+            tarOutput.putArchiveEntry(entry);
+            tarOutput.write(content);
+            tarOutput.closeArchiveEntry();
+        }
+    }
+
+    @Test
+    public void testArchiveEntriesAreListed() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_Archives");
+        copyTestFile("archive.zip", dir);
+        copyTestFile("persons.csv.gz", dir);
+        writeTar(Files.newOutputStream(dir.toPath().resolve("bundle.tar")));
+        writeTar(new GZIPOutputStream(Files.newOutputStream(dir.toPath().resolve("bundle.tar.gz"))));
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"listArchiveEntries\":true}"
+                        .replace("@dir", dir.getPath()));
+        List<FileRecord> records = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scanner.scan(records::add);
+        }
+
+        List<String> names = new ArrayList<>();
+        for (FileRecord record : records) {
+            names.add(dir.toPath().toAbsolutePath().relativize(record.getPath()).toString().replace(File.separatorChar, '/'));
+        }
+        // entries follow their archive
+        Assert.assertEquals(names, List.of(
+                "archive.zip", "archive.zip!/movies-condensed.tsv", "archive.zip!/movies.tsv",
+                "bundle.tar", "bundle.tar!/docs/notes.txt",
+                "bundle.tar.gz", "bundle.tar.gz!/docs/notes.txt",
+                "persons.csv.gz", "persons.csv.gz!/persons.csv"));
+
+        FileRecord zipEntry = records.get(2);
+        Assert.assertEquals(zipEntry.getArchivePath(), records.get(0).getPath());
+        Assert.assertEquals(zipEntry.getFileName(), "movies.tsv");
+        Assert.assertEquals(zipEntry.getSize(), 7971);
+        Assert.assertTrue(zipEntry.getCompressedSize() > 0 && zipEntry.getCompressedSize() < 7971);
+        Assert.assertTrue(zipEntry.getCrc().matches("[0-9a-f]{8}"));
+        Assert.assertEquals(zipEntry.getChecksum(), "");
+
+        for (FileRecord tarEntry : List.of(records.get(4), records.get(6))) {
+            Assert.assertEquals(tarEntry.getSize(), 17);
+            Assert.assertEquals(tarEntry.getLastModifiedTime(), 1_600_000_000_000L);
+            Assert.assertEquals(tarEntry.getAuthor(), "alice");
+            Assert.assertEquals(tarEntry.getPermissions(), "rw-r-----");
+        }
+
+        FileRecord gzipEntry = records.get(8);
+        Assert.assertEquals(gzipEntry.getSize(), 55);
+        Assert.assertEquals(gzipEntry.getCrc(), String.format("%08x", 1177046955L));
+        Assert.assertEquals(gzipEntry.getCompressedSize(), records.get(7).getSize());
+    }
+
+    @Test
+    public void testArchivesAreNotReadWithoutContents() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_ArchivesPreview");
+        copyTestFile("archive.zip", dir);
+        writeTar(new GZIPOutputStream(Files.newOutputStream(dir.toPath().resolve("bundle.tar.gz"))));
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"listArchiveEntries\":true}"
+                        .replace("@dir", dir.getPath()));
+        // as in the preview
+        ScanOptions scanOptions = ScanOptions.fromJson(options);
+        scanOptions.setReadContents(false);
+        List<FileRecord> records = new ArrayList<>();
+        try (FileScanner scanner = new FileScanner(scanOptions)) {
+            scanner.scan(records::add);
+            Assert.assertEquals(scanner.getStats().toJson().get("phases").get("archive").get("count").asLong(), 0);
+        }
+        Assert.assertEquals(records.size(), 2);
+    }
+
+    @Test
+    public void testMimeTypeIsDetectedFromContent() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_MimeTypes");
+        copyTestFile("archive.zip", dir);
+        copyTestFile("dates.xls", dir);
+        copyTestFile("euc-jp.html", dir);
+        copyTestFile("birds.csv", dir);
+        // misnamed and extensionless files
+        write(dir, "image.txt", new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0 });
+        write(dir, "sound", new byte[] { 'R', 'I', 'F', 'F', 1, 2, 3, 4, 'W', 'A', 'V', 'E', 'f', 'm', 't' });
+        writeTar(Files.newOutputStream(dir.toPath().resolve("bundle")));
+        write(dir, "random.bin", new byte[] { 1, 2, 0, 3, 4 });
+        write(dir, "empty.txt", "");
+        // text with NUL bytes, and text starting like short binary signatures
+        write(dir, "utf16le.txt", "\uFEFFhello".getBytes(StandardCharsets.UTF_16LE));
+        write(dir, "utf16be.txt", "\uFEFFhello".getBytes(StandardCharsets.UTF_16BE));
+        write(dir, "cars.txt", "BMW and Audi");
+        write(dir, "places.txt", "MZ is Mozambique");
+        write(dir, "tags.txt", "ID3 tags of the album");
+        write(dir, "compressors.txt", "BZh9 is the largest bzip2 block size");
+        write(dir, "formats.txt", "OggS pages and fLaC frames");
+        write(dir, "codecs.txt", "fLaC, Vorbis and Opus");
+        write(dir, "pi.txt", "BZh91AY&SY is not enough for a bzip2 file");
+        write(dir, "picture", new byte[] { 'B', 'M', 0x3a, 0, 0, 0, 0, 0, 0, 0, 0x36, 0, 0, 0 });
+        write(dir, "program", new byte[] { 'M', 'Z', (byte) 0x90, 0, 3, 0, 0, 0, 4, 0, 0, 0, (byte) 0xff, (byte) 0xff });
+        write(dir, "song", new byte[] { 'I', 'D', '3', 3, 0, 0, 0, 0, 0x0f, 0x76 });
+        write(dir, "compressed", new byte[] { 'B', 'Z', 'h', '9', 0x31, 0x41, 0x59, 0x26, 0x53, 0x59, (byte) 0xd2, 0x7c, 0, 1 });
+        write(dir, "vorbis", new byte[] { 'O', 'g', 'g', 'S', 0, 2, 0, 0, 0, 0, 0, 0, 0, 0 });
+        write(dir, "lossless", new byte[] { 'f', 'L', 'a', 'C', (byte) 0x80, 0, 0, 0x22, 0x10, 0, 0x10, 0 });
+
+        for (String checksumAlgorithm : List.of("sha256", "none")) {
+            ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                    "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"detectMimeType\":true,\"contentSnippet\":true,\"useChecksumCache\":false,\"checksumAlgorithm\":\"@algorithm\"}"
+                            .replace("@dir", dir.getPath())
+                            .replace("@algorithm", checksumAlgorithm));
+            Map<String, String> mimeTypes = new HashMap<>();
+            Map<String, String> snippets = new HashMap<>();
+            try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+                scanner.scan(record -> {
+                    mimeTypes.put(record.getFileName(), record.getMimeType());
+                    snippets.put(record.getFileName(), record.getContentSnippet());
+                });
+            }
+
+            Assert.assertEquals(mimeTypes.get("archive.zip"), "application/zip", checksumAlgorithm);
+            Assert.assertEquals(mimeTypes.get("dates.xls"), "application/x-ole-storage");
+            Assert.assertEquals(mimeTypes.get("euc-jp.html"), "text/html");
+            Assert.assertEquals(mimeTypes.get("birds.csv"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("image.txt"), "image/png");
+            Assert.assertEquals(mimeTypes.get("sound"), "audio/wav");
+            Assert.assertEquals(mimeTypes.get("bundle"), "application/x-tar");
+            Assert.assertEquals(mimeTypes.get("random.bin"), "application/octet-stream");
+            Assert.assertNull(mimeTypes.get("empty.txt"));
+            Assert.assertEquals(mimeTypes.get("utf16le.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("utf16be.txt"), "text/plain");
+            Assert.assertEquals(snippets.get("utf16le.txt"), "hello");
+            Assert.assertEquals(snippets.get("utf16be.txt"), "hello");
+            Assert.assertEquals(mimeTypes.get("cars.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("places.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("tags.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("compressors.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("formats.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("codecs.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("pi.txt"), "text/plain");
+            Assert.assertEquals(mimeTypes.get("song"), "audio/mpeg");
+            Assert.assertEquals(mimeTypes.get("compressed"), "application/x-bzip2");
+            Assert.assertEquals(mimeTypes.get("vorbis"), "audio/ogg");
+            Assert.assertEquals(mimeTypes.get("lossless"), "audio/flac");
+            Assert.assertEquals(mimeTypes.get("picture"), "image/bmp");
+            Assert.assertEquals(mimeTypes.get("program"), "application/vnd.microsoft.portable-executable");
+        }
+    }
+
+    @Test
+    public void testHeaderIsReadPastSmallQuickFingerprintBlocks() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_SmallBlocks");
+        // the type of a tar file is only known from its 257th byte
+        writeTar(Files.newOutputStream(dir.toPath().resolve("bundle")));
+        String text = "A line of text long enough to need more than one block.\n".repeat(20);
+        write(dir, "notes.txt", text);
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                ("{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"detectMimeType\":true,\"contentSnippet\":true,"
+                        + "\"contentSnippetLength\":1000,\"quickFingerprint\":true,\"checksumAlgorithm\":\"none\",\"useChecksumCache\":false}")
+                        .replace("@dir", dir.getPath()));
+        ScanOptions scanOptions = ScanOptions.fromJson(options);
+        scanOptions.setQuickFingerprintBlockSize(16);
+        Map<String, FileRecord> records = new HashMap<>();
+        try (FileScanner scanner = new FileScanner(scanOptions)) {
+            scanner.scan(record -> records.put(record.getFileName(), record));
+        }
+
+        Assert.assertNotNull(records.get("bundle").getQuickFingerprint());
+        Assert.assertEquals(records.get("bundle").getMimeType(), "application/x-tar");
+        Assert.assertEquals(records.get("notes.txt").getMimeType(), "text/plain");
+        Assert.assertEquals(records.get("notes.txt").getContentSnippet(), text.substring(0, 1000));
+    }
+
+    @Test
+    public void testContentSnippetDecodesTextFiles() throws IOException {
+        File dir = createTempDirectory("OR_FilesExtension_Test_Snippets");
+        copyTestFile("euc-jp.txt", dir);
+        copyTestFile("birds.csv", dir);
+        copyTestFile("dates.xls", dir);
+        write(dir, "utf16.txt", "\uFEFFhello".getBytes(StandardCharsets.UTF_16LE));
+
+        for (String checksumAlgorithm : List.of("sha256", "none")) {
+            ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                    "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"contentSnippet\":true,\"contentSnippetLength\":12,\"useChecksumCache\":false,\"checksumAlgorithm\":\"@algorithm\"}"
+                            .replace("@dir", dir.getPath())
+                            .replace("@algorithm", checksumAlgorithm));
+            Map<String, String> snippets = new HashMap<>();
+            try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+                scanner.scan(record -> snippets.put(record.getFileName(), record.getContentSnippet()));
+            }
+
+            Assert.assertEquals(snippets.get("euc-jp.txt"), "mixi(\u30df\u30af\u30b7\u30a3)\u306f\u3001", checksumAlgorithm);
+            Assert.assertEquals(snippets.get("birds.csv"), "Bird,Locatio");
+            Assert.assertEquals(snippets.get("utf16.txt"), "hello");
+            Assert.assertEquals(snippets.get("dates.xls"), "");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.google.refine.filesExtension.importer;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.util.ParsingUtilities;
+import org.openrefine.extensions.files.importer.FileScanner;
+import org.openrefine.extensions.files.importer.FilesImporter;
+import org.openrefine.extensions.files.importer.ScanOptions;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.google.refine.filesExtension.utils.TestDirectories.createTempDirectory;
+import static org.google.refine.filesExtension.utils.TestDirectories.write;
+
+public class FilesDiffTest {
+
+    /** Change type and previous path by relative path */
+    private static Map<String, String> diff(File first, File second, boolean readContents) throws Exception {
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@first\"},{\"directory\":\"@second\"}],\"maxDepth\":0,\"diffMode\":true}"
+                        .replace("@first", first.getPath())
+                        .replace("@second", second.getPath()));
+        ScanOptions scanOptions = ScanOptions.fromJson(options);
+        scanOptions.setReadContents(readContents);
+
+        Project project = new Project();
+        try (FileScanner scanner = new FileScanner(scanOptions)) {
+            FilesImporter.loadData(project, scanner);
+        }
+        Assert.assertEquals(project.columnModel.columns.get(0).getName(), "changeType");
+        int previousPathCell = project.columnModel.getColumnByName("previousFilePath").getCellIndex();
+        Map<String, String> changes = new HashMap<>();
+        for (Row row : project.rows) {
+            Object previousPath = row.getCellValue(previousPathCell);
+            changes.put(row.getCellValue(1).toString(),
+                    row.getCellValue(0) + (previousPath == null ? "" : " " + first.toPath().relativize(Path.of(previousPath.toString()))));
+        }
+        return changes;
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        File first = createTempDirectory("OR_FilesExtension_Test_DiffFirst");
+        File second = createTempDirectory("OR_FilesExtension_Test_DiffSecond");
+        write(first, "same.txt", "same");
+        write(second, "same.txt", "same");
+        write(first, "modified.txt", "before");
+        write(second, "modified.txt", "after!");
+        write(first, "old/moved.txt", "moved content");
+        write(second, "new/moved.txt", "moved content");
+        write(first, "removed.txt", "removed");
+        write(second, "added.txt", "added");
+        // empty files all look alike, so they are not paired as moves
+        write(first, "empty-before.txt", "");
+        write(second, "empty-after.txt", "");
+
+        Map<String, String> changes = diff(first, second, true);
+
+        Assert.assertEquals(changes, Map.of(
+                "modified.txt", "modified modified.txt",
+                "new/moved.txt", "moved old/moved.txt",
+                "added.txt", "added",
+                "empty-after.txt", "added",
+                "removed.txt", "removed",
+                "empty-before.txt", "removed"));
+    }
+
+    @Test
+    public void testDiffWithoutContents() throws Exception {
+        File first = createTempDirectory("OR_FilesExtension_Test_DiffFirst");
+        File second = createTempDirectory("OR_FilesExtension_Test_DiffSecond");
+        write(first, "a/report.txt", "report");
+        write(second, "b/report.txt", "report");
+        Files.setLastModifiedTime(second.toPath().resolve("b/report.txt"),
+                Files.getLastModifiedTime(first.toPath().resolve("a/report.txt")));
+
+        // without checksums, moves are matched on name, size and modification time
+        Assert.assertEquals(diff(first, second, false), Map.of("b/report.txt", "moved a/report.txt"));
+    }
+}
@@ -0,0 +1,76 @@
+package org.google.refine.filesExtension.importer;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.util.ParsingUtilities;
+import org.openrefine.extensions.files.importer.FilesImporter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.google.refine.filesExtension.utils.TestDirectories.createTempDirectory;
+import static org.google.refine.filesExtension.utils.TestDirectories.write;
+
+public class FilesDuplicatesTest {
+
+    private static final int LARGE_SIZE = 300_000;
+
+    private static byte[] largeContent(int changedOffset) {
+        byte[] content = new byte[LARGE_SIZE];
+        Arrays.fill(content, (byte) 'x');
+        if (changedOffset >= 0) {
+            content[changedOffset] = 'y';
+        }
+        return content;
+    }
+
+    @Test
+    public void testDuplicateGroups() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_Duplicates");
+        write(dir, "large-1.bin", largeContent(-1));
+        write(dir, "large-2.bin", largeContent(-1));
+        // differs outside of the sampled blocks: only the full checksum tells it apart
+        write(dir, "large-3.bin", largeContent(90_000));
+        // differs in the first block: dropped after the quick fingerprint
+        write(dir, "large-4.bin", largeContent(0));
+        write(dir, "small-1.txt", "small");
+        write(dir, "small-2.txt", "small");
+        write(dir, "unique.txt", "a unique size");
+        write(dir, "empty-1.txt", "");
+        write(dir, "empty-2.txt", "");
+
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}],\"duplicatesMode\":true,\"useChecksumCache\":false}"
+                        .replace("@dir", dir.getPath()));
+        Project project = new Project();
+        FilesImporter.loadData(project, options);
+
+        int checksumCell = project.columnModel.getColumnByName("sha256").getCellIndex();
+        int groupCell = project.columnModel.getColumnByName("duplicateGroup").getCellIndex();
+        int groupSizeCell = project.columnModel.getColumnByName("duplicateGroupSize").getCellIndex();
+        Map<String, Row> rows = new HashMap<>();
+        for (Row row : project.rows) {
+            rows.put(row.getCellValue(0).toString(), row);
+        }
+        Assert.assertEquals(rows.size(), 9);
+
+        Assert.assertEquals(rows.get("large-1.bin").getCellValue(groupCell), 1);
+        Assert.assertEquals(rows.get("large-2.bin").getCellValue(groupCell), 1);
+        Assert.assertEquals(rows.get("large-1.bin").getCellValue(groupSizeCell), 2);
+        Assert.assertEquals(rows.get("small-1.txt").getCellValue(groupCell), 2);
+        Assert.assertEquals(rows.get("small-2.txt").getCellValue(groupSizeCell), 2);
+        for (String fileName : new String[] { "large-3.bin", "large-4.bin", "unique.txt", "empty-1.txt", "empty-2.txt" }) {
+            Assert.assertNull(rows.get(fileName).getCellValue(groupCell), fileName);
+        }
+
+        // only the files which could still be duplicates were fully read
+        Assert.assertNotNull(rows.get("large-3.bin").getCellValue(checksumCell));
+        Assert.assertNull(rows.get("large-4.bin").getCellValue(checksumCell));
+        Assert.assertNull(rows.get("unique.txt").getCellValue(checksumCell));
+    }
+}
@@ -1,6 +1,7 @@
 package org.google.refine.filesExtension.importer;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.refine.ProjectManager;
 import com.google.refine.ProjectMetadata;
@@ -19,21 +20,34 @@ import org.mockito.MockitoAnnotations;
 import org.google.refine.filesExtension.utils.RefineServletStub;
 import org.openrefine.extensions.files.importer.FilesImporter;
 import org.openrefine.extensions.files.importer.FilesImportingController;
+import org.openrefine.extensions.files.importer.ScanJob;
+import org.openrefine.extensions.files.importer.ScanSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.*;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 
+import static org.google.refine.filesExtension.utils.TestDirectories.createTempDirectory;
+import static org.google.refine.filesExtension.utils.TestDirectories.deleteTree;
+import static org.google.refine.filesExtension.utils.TestDirectories.write;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.openrefine.extensions.files.importer.FilesImporter.restrictedDirectories;
 
@@ -59,14 +73,6 @@ public class FilesImportingControllerTest {
     // System under test
     private FilesImportingController SUT = null;
 
-    public static File createTempDirectory(String name)
-            throws IOException {
-        File dir = File.createTempFile(name, "");
-        dir.delete();
-        dir.mkdir();
-        return dir;
-    }
-
     protected ButterflyModule getCoreModule() {
         ButterflyModule coreModule = mock(ButterflyModule.class);
         when(coreModule.getName()).thenReturn("core");
@@ -81,7 +87,7 @@ public class FilesImportingControllerTest {
     @BeforeTest
     public void setUp() throws IOException, ModelException {
 
-        MockitoAnnotations.initMocks(this);
+        MockitoAnnotations.openMocks(this);
 
         File dir = createTempDirectory("OR_FilesExtension_Test_WorkspaceDir");
         FileProjectManager.initialize(dir);
@@ -114,17 +120,7 @@ public class FilesImportingControllerTest {
         PrintWriter pw = new PrintWriter(sw);
         try {
 
-            // Setup temp directory and add files
-            File tempDir = createTempDirectory("openrefine-files-ext-test");
-
-            copyFileToTestDir("birds", ".csv", tempDir);
-            copyFileToTestDir("movies", ".tsv", tempDir);
-            copyFileToTestDir("euc-jp", ".html", tempDir);
-            copyFileToTestDir("dates", ".xls", tempDir);
-            copyFileToTestDir("persons.csv", ".gz", tempDir);
-            copyFileToTestDir("archive", ".zip", tempDir);
-
-            String testDirPath = tempDir.getPath();
+            String testDirPath = createTestDirectoryWithFiles().getPath();
 
             String localDirectoryPath = "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"fileContentColumn\":0}".replace("@localdirectorypath", testDirPath);
 
@@ -134,11 +130,16 @@ public class FilesImportingControllerTest {
             when(request.getParameter("options")).thenReturn(localDirectoryPath);
 
             SUT.doPost(request, response);
+            awaitScan();
 
             Assert.assertEquals(job.project.rows.size(), 6);
+            Assert.assertTrue(job.getOrCreateDefaultConfig().get("hasData").asBoolean());
+            Assert.assertEquals(job.getOrCreateDefaultConfig().get("scanProgress").get("filesDone").asLong(), 6);
 
             for (Row row : job.project.rows) {
                 validateLocalDirectoryTestResults(row);
+                // the preview does not read file contents
+                Assert.assertNull(row.getCellValue(8));
             }
         }
         catch (Exception e) {
@@ -146,38 +147,335 @@ public class FilesImportingControllerTest {
         }
     }
 
+    @Test
+    public void testPreviewLimit() throws Exception {
+        String options = "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"previewLimit\":2}"
+                .replace("@localdirectorypath", createTestDirectoryWithFiles().getPath());
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=local-directory-preview");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(options);
+
+        SUT.doPost(request, response);
+        awaitScan();
+
+        Assert.assertEquals(job.project.rows.size(), 2);
+    }
+
+    @Test
+    public void testCreateProjectScansFileContents() throws Exception {
+        String options = "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"projectName\":\"files\",\"previewLimit\":2}"
+                .replace("@localdirectorypath", createTestDirectoryWithFiles().getPath());
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=create-project");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(options);
+
+        SUT.doPost(request, response);
+        awaitScan();
+
+        Assert.assertEquals(job.getOrCreateDefaultConfig().get("state").asText(), "created-project");
+        Assert.assertEquals(job.getOrCreateDefaultConfig().get("projectID").asLong(), job.project.id);
+        Assert.assertEquals(job.project.rows.size(), 6);
+        for (Row row : job.project.rows) {
+            validateLocalDirectoryTestResults(row);
+            Assert.assertNotNull(row.getCellValue(8));
+        }
+    }
+
+    @Test
+    public void testFinalProgressIsNotOverwritten() throws Exception {
+        File dir = createTestDirectoryWithFiles();
+        // takes a few seconds to read at the limited bandwidth
+        write(dir, "large.bin", new byte[4 * 1024 * 1024]);
+        String options = "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"readMBPerSecond\":1}"
+                .replace("@localdirectorypath", dir.getPath());
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=local-directory-preview");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(options);
+        SUT.doPost(request, response);
+        awaitScan();
+        // let any progress update scheduled around the end of the scan run
+        Thread.sleep(1200);
+        Assert.assertTrue(job.getOrCreateDefaultConfig().get("scanProgress").get("done").asBoolean());
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=create-project");
+        SUT.doPost(request, response);
+        // wait for a few progress updates of the throttled scan before cancelling it
+        Thread.sleep(1200);
+        Assert.assertTrue(ScanJob.cancel(job.id));
+        Thread.sleep(1200);
+        JsonNode scanProgress = job.getOrCreateDefaultConfig().get("scanProgress");
+        Assert.assertTrue(scanProgress.get("done").asBoolean());
+        Assert.assertTrue(scanProgress.get("cancelled").asBoolean());
+    }
+
+    @Test
+    public void testReadLimitsApplyToProjectCreation() throws Exception {
+        File dir = createTestDirectoryWithFiles();
+        // takes 8 seconds to read at the limited bandwidth
+        write(dir, "large.bin", new byte[8 * 1024 * 1024]);
+        String options = "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"projectName\":\"files\",\"readMBPerSecond\":1}"
+                .replace("@localdirectorypath", dir.getPath());
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=create-project");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(options);
+        long start = System.nanoTime();
+        SUT.doPost(request, response);
+        Thread.sleep(500);
+
+        StringWriter sw = new StringWriter();
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=update-scan-limits");
+        when(response.getWriter()).thenReturn(new PrintWriter(sw));
+        when(request.getParameter("options")).thenReturn(options.replace("\"readMBPerSecond\":1", "\"readMBPerSecond\":0"));
+        SUT.doPost(request, response);
+        awaitScan();
+
+        JsonNode stores = ParsingUtilities.mapper.readTree(sw.toString()).get("stores");
+        Assert.assertEquals(stores.get(0).get("readMBPerSecond").asInt(), 0);
+        Assert.assertEquals(job.getOrCreateDefaultConfig().get("state").asText(), "created-project");
+        Assert.assertTrue(System.nanoTime() - start < 6_000_000_000L);
+    }
+
+    @Test
+    public void testScanStats() throws Exception {
+        String options = "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}]}"
+                .replace("@localdirectorypath", createTestDirectoryWithFiles().getPath());
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=local-directory-preview");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(options);
+        SUT.doPost(request, response);
+        awaitScan();
+
+        Assert.assertEquals(job.getOrCreateDefaultConfig().get("scanStats").get("files").asLong(), 6);
+
+        StringWriter sw = new StringWriter();
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=scan-stats");
+        when(response.getWriter()).thenReturn(new PrintWriter(sw));
+        SUT.doPost(request, response);
+
+        JsonNode result = ParsingUtilities.mapper.readTree(sw.toString());
+        Assert.assertEquals(result.get("status").asText(), "ok");
+        JsonNode stats = result.get("scanStats");
+        Assert.assertEquals(stats.get("files").asLong(), 6);
+        Assert.assertEquals(stats.get("phases").get("attributes").get("count").asLong(), 7);
+        // the preview does not read file contents
+        Assert.assertEquals(stats.get("phases").get("hashing").get("count").asLong(), 0);
+    }
+
+    @Test
+    public void testProjectIsCreatedFromSnapshot() throws Exception {
+        File dir = createTestDirectoryWithFiles();
+        String options = ("{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"projectName\":\"files\","
+                + "\"saveSnapshot\":true,\"quickFingerprint\":true,\"detectMimeType\":true,\"contentSnippet\":true,"
+                + "\"listArchiveEntries\":true,\"maxDepth\":3,\"includeGlobs\":\"*.*\",\"excludeGlobs\":\"*.bak\","
+                + "\"skipHidden\":true,\"followSymlinks\":true,\"quickFingerprintBlockSizeKB\":16,"
+                + "\"quickFingerprintThresholdMB\":5}")
+                .replace("@localdirectorypath", dir.getPath());
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=create-project");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(options);
+        SUT.doPost(request, response);
+        awaitScan();
+        Project scanned = job.project;
+        Assert.assertTrue(scanned.rows.size() > 6);
+
+        StringWriter sw = new StringWriter();
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=list-snapshots");
+        when(response.getWriter()).thenReturn(new PrintWriter(sw));
+        SUT.doPost(request, response);
+        JsonNode snapshot = null;
+        for (JsonNode listed : ParsingUtilities.mapper.readTree(sw.toString()).get("snapshots")) {
+            if (listed.get("id").asLong() == scanned.id) {
+                snapshot = listed;
+            }
+        }
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals(snapshot.get("rows").asInt(), scanned.rows.size());
+        Assert.assertEquals(snapshot.get("directories").get(0).asText(), dir.getPath());
+
+        // the project is created from the snapshot alone, with the columns of the scan
+        deleteTree(dir);
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=create-project");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(
+                "{\"directoryJsonValue\":[],\"projectName\":\"files\",\"maxDepth\":1,\"skipHidden\":false,"
+                        + "\"snapshotId\":\"" + scanned.id + "\"}");
+        SUT.doPost(request, response);
+        awaitScan();
+
+        Project loaded = job.project;
+        Assert.assertEquals(job.getOrCreateDefaultConfig().get("state").asText(), "created-project");
+        Assert.assertEquals(loaded.columnModel.getColumnNames(), scanned.columnModel.getColumnNames());
+        Assert.assertEquals(loaded.rows.size(), scanned.rows.size());
+        Assert.assertNotNull(loaded.rows.get(0).getCellValue(8));
+        for (int i = 0; i < scanned.rows.size(); i++) {
+            for (int cell = 0; cell < scanned.columnModel.columns.size(); cell++) {
+                Assert.assertEquals(loaded.rows.get(i).getCellValue(cell), scanned.rows.get(i).getCellValue(cell));
+            }
+        }
+        // a refresh scans the directories of the snapshot, with the options of its scan
+        JsonNode importOptions = ProjectManager.singleton.getProjectMetadata(loaded.id).getImportOptionMetadata().get(0);
+        Assert.assertEquals(importOptions.get("directoryJsonValue").get(0).get("directory").asText(), dir.getPath());
+        Assert.assertEquals(importOptions.get("maxDepth").asInt(), 3);
+        Assert.assertEquals(importOptions.get("includeGlobs").get(0).asText(), "*.*");
+        Assert.assertEquals(importOptions.get("excludeGlobs").get(0).asText(), "*.bak");
+        Assert.assertTrue(importOptions.get("skipHidden").asBoolean());
+        Assert.assertTrue(importOptions.get("followSymlinks").asBoolean());
+        Assert.assertTrue(importOptions.get("quickFingerprint").asBoolean());
+        Assert.assertEquals(importOptions.get("quickFingerprintBlockSizeKB").asInt(), 16);
+        Assert.assertEquals(importOptions.get("quickFingerprintThresholdMB").asInt(), 5);
+        Assert.assertEquals(importOptions.get("checksumAlgorithm").asText(), "sha256");
+        Assert.assertTrue(importOptions.get("listArchiveEntries").asBoolean());
+    }
+
+    @Test
+    public void testSnapshotIsComparedWithDirectory() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_DiffSnapshot");
+        write(dir, "same.txt", "same");
+        write(dir, "modified.txt", "before");
+        write(dir, "old/moved.txt", "moved content");
+        write(dir, "removed.txt", "removed");
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=create-project");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(
+                "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"projectName\":\"files\",\"maxDepth\":0,\"saveSnapshot\":true}"
+                        .replace("@localdirectorypath", dir.getPath()));
+        SUT.doPost(request, response);
+        awaitScan();
+        long snapshotId = job.project.id;
+
+        write(dir, "modified.txt", "after!");
+        Files.move(dir.toPath().resolve("old/moved.txt"), Files.createDirectories(dir.toPath().resolve("new")).resolve("moved.txt"));
+        Files.delete(dir.toPath().resolve("removed.txt"));
+        write(dir, "added.txt", "added");
+
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(
+                ("{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"projectName\":\"diff\",\"maxDepth\":0,\"diffMode\":true,"
+                        + "\"snapshotId\":\"" + snapshotId + "\"}")
+                        .replace("@localdirectorypath", dir.getPath()));
+        SUT.doPost(request, response);
+        awaitScan();
+
+        Project diff = job.project;
+        Assert.assertEquals(job.getOrCreateDefaultConfig().get("state").asText(), "created-project");
+        Assert.assertEquals(diff.columnModel.columns.get(0).getName(), "changeType");
+        Map<String, String> changes = new HashMap<>();
+        for (Row row : diff.rows) {
+            changes.put(row.getCellValue(1).toString(), row.getCellValue(0).toString());
+        }
+        Assert.assertEquals(changes, Map.of(
+                "modified.txt", "modified",
+                "new/moved.txt", "moved",
+                "added.txt", "added",
+                "removed.txt", "removed"));
+    }
+
+    @Test
+    public void testSnapshotsAreRemoved() throws Exception {
+        File dir = createTestDirectoryWithFiles();
+        File snapshotDir = new File(((FileProjectManager) ProjectManager.singleton).getWorkspaceDir(), "files-extension/snapshots");
+        String options = "{\"directoryJsonValue\":[{\"directory\":\"@localdirectorypath\"}],\"projectName\":\"files\",\"saveSnapshot\":true}"
+                .replace("@localdirectorypath", dir.getPath());
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&jobID=1&subCommand=create-project");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(request.getParameter("options")).thenReturn(options);
+
+        // the snapshot of a deleted project is removed once it is no longer being created
+        SUT.doPost(request, response);
+        awaitScan();
+        File deleted = new File(snapshotDir, job.project.id + ".snapshot");
+        Assert.assertTrue(deleted.isFile());
+        ProjectManager.singleton.deleteProject(job.project.id);
+        ScanSnapshot.list();
+        Assert.assertTrue(deleted.isFile());
+        Assert.assertTrue(deleted.setLastModified(System.currentTimeMillis() - 120_000));
+        ScanSnapshot.list();
+        Assert.assertFalse(deleted.exists());
+
+        // only the most recent snapshots are kept
+        ProjectManager.singleton.getPreferenceStore().put(ScanSnapshot.MAX_COUNT_PREFERENCE, 1);
+        try {
+            SUT.doPost(request, response);
+            awaitScan();
+            File older = new File(snapshotDir, job.project.id + ".snapshot");
+            Assert.assertTrue(older.isFile());
+            Assert.assertTrue(older.setLastModified(System.currentTimeMillis() - 1000));
+            SUT.doPost(request, response);
+            awaitScan();
+            Assert.assertTrue(new File(snapshotDir, job.project.id + ".snapshot").isFile());
+            Assert.assertFalse(older.exists());
+            Assert.assertEquals(ScanSnapshot.list().size(), 1);
+        } finally {
+            ProjectManager.singleton.getPreferenceStore().put(ScanSnapshot.MAX_COUNT_PREFERENCE, ScanSnapshot.DEFAULT_MAX_COUNT);
+        }
+    }
+
+    private void awaitScan() throws InterruptedException {
+        ScanJob scanJob = ScanJob.get(job.id);
+        if (scanJob != null) {
+            scanJob.await();
+        }
+    }
+
+    private File createTestDirectoryWithFiles() throws IOException {
+        File tempDir = createTempDirectory("openrefine-files-ext-test");
+
+        copyFileToTestDir("birds", ".csv", tempDir);
+        copyFileToTestDir("movies", ".tsv", tempDir);
+        copyFileToTestDir("euc-jp", ".html", tempDir);
+        copyFileToTestDir("dates", ".xls", tempDir);
+        copyFileToTestDir("persons.csv", ".gz", tempDir);
+        copyFileToTestDir("archive", ".zip", tempDir);
+        return tempDir;
+    }
+
     private void validateLocalDirectoryTestResults(Row row) {
         String fileCellValue = row.getCellValue(0).toString();
+        Assert.assertTrue(row.getCellValue(1) instanceof Long);
+        Assert.assertTrue(row.getCellValue(3) instanceof OffsetDateTime);
 
         if ( fileCellValue.startsWith("birds")) {
             Assert.assertEquals(row.getCellValue(2).toString(), "csv");
             Assert.assertNotNull(row.getCellValue(7));
-            Assert.assertNotNull(row.getCellValue(8));
         }
         else if ( fileCellValue.startsWith("movies")) {
             Assert.assertEquals(row.getCellValue(2).toString(), "tsv");
             Assert.assertNotNull(row.getCellValue(7));
-            Assert.assertNotNull(row.getCellValue(8));
         }
         else if ( fileCellValue.startsWith("dates")) {
             Assert.assertEquals(row.getCellValue(2).toString(), "xls");
             Assert.assertNotNull(row.getCellValue(7));
-            Assert.assertNotNull(row.getCellValue(8));
         }
         else if ( fileCellValue.startsWith("euc-jp")) {
             Assert.assertEquals(row.getCellValue(2).toString(), "html");
             Assert.assertNotNull(row.getCellValue(7));
-            Assert.assertNotNull(row.getCellValue(8));
         }
         else if ( fileCellValue.startsWith("archive")) {
             Assert.assertEquals(row.getCellValue(2).toString(), "zip");
             Assert.assertNotNull(row.getCellValue(7));
-            Assert.assertNotNull(row.getCellValue(8));
         }
         else if ( fileCellValue.startsWith("persons")) {
             Assert.assertEquals(row.getCellValue(2).toString(), "gz");
             Assert.assertNotNull(row.getCellValue(7));
-            Assert.assertNotNull(row.getCellValue(8));
         }
         else {
             Assert.fail("Test failed : unknown record - " + row.toString());
@@ -206,7 +504,7 @@ public class FilesImportingControllerTest {
             SUT.doPost(request, response);
 
             ObjectMapper objectMapper = new ObjectMapper();
-            List<String> fileSystemDetails = objectMapper.readValue(sw.getBuffer().toString(), List.class);
+            List<String> fileSystemDetails = objectMapper.readValue(sw.getBuffer().toString(), new TypeReference<List<String>>() {});
             Assert.assertTrue(fileSystemDetails.size() > 0);
             fileSystemDetails.forEach(fileSystemRecord -> {
                 String directoryName = fileSystemRecord.startsWith(File.separator)
@@ -220,10 +518,29 @@ public class FilesImportingControllerTest {
         }
     }
 
+    /** Output stream of the mocked response, collecting what is written to it */
+    private ByteArrayOutputStream mockResponseOutputStream() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                bytes.write(b);
+            }
+        });
+        return bytes;
+    }
+
     @Test
     public void testDirectoryHierarchy() throws IOException, ServletException {
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
         String dirPath;
         try {
             File dir = createTempDirectory("OR_FilesExtension_Test_DirectoryList");
@@ -231,13 +548,12 @@ public class FilesImportingControllerTest {
 
             when(request.getQueryString()).thenReturn(
                     "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&subCommand=directory-hierarchy&dirPath=".concat(dirPath));
-            when(response.getWriter()).thenReturn(pw);
+            ByteArrayOutputStream output = mockResponseOutputStream();
 
             SUT.doPost(request, response);
 
             ObjectMapper objectMapper = new ObjectMapper();
-            String outputJson = objectMapper.readValue(sw.getBuffer().toString(), String.class);
-            Map<String, Object> directoryList = objectMapper.readValue(outputJson, new TypeReference<Map<String, Object>>() {});
+            Map<String, Object> directoryList = objectMapper.readValue(output.toByteArray(), new TypeReference<Map<String, Object>>() {});
 
             Assert.assertTrue(directoryList.size() > 0);
             Assert.assertTrue(directoryList.get("name").toString().contains("OR_FilesExtension_Test_DirectoryList"));
@@ -246,7 +562,97 @@ public class FilesImportingControllerTest {
             Assert.fail("Failed - testDirectoryHierarchy -" +e.getMessage());
         }
     }
-    
-}
 
+    private Map<String, Object> getDirectoryHierarchy(String queryParameters) throws Exception {
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&subCommand=directory-hierarchy&" + queryParameters);
+        ByteArrayOutputStream output = mockResponseOutputStream();
+
+        SUT.doPost(request, response);
+
+        return new ObjectMapper().readValue(output.toByteArray(), new TypeReference<Map<String, Object>>() {});
+    }
+
+    @Test
+    public void testDirectoryHierarchyIsGzipped() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_GzipHierarchy");
+        new File(dir, "child").mkdir();
+
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&subCommand=directory-hierarchy&dirPath=" + dir.getPath());
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        ByteArrayOutputStream output = mockResponseOutputStream();
+        try {
+            SUT.doPost(request, response);
+        } finally {
+            when(request.getHeader("Accept-Encoding")).thenReturn(null);
+        }
 
+        verify(response).setHeader("Content-Encoding", "gzip");
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            Map<String, Object> directoryList = new ObjectMapper().readValue(input, new TypeReference<Map<String, Object>>() {});
+            Assert.assertEquals(((List<?>) directoryList.get("children")).size(), 1);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDirectoryHierarchyIsLazyAndPaged() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_LazyHierarchy");
+        for (String name : new String[] { "e", "D", "c", "b", "a" }) {
+            new File(dir, name).mkdir();
+        }
+        new File(dir, "a/nested/deeper").mkdirs();
+        new File(dir, "file.txt").createNewFile();
+
+        Map<String, Object> root = getDirectoryHierarchy("pageSize=2&dirPath=" + dir.getPath());
+        List<Map<String, Object>> children = (List<Map<String, Object>>) root.get("children");
+        Assert.assertEquals(root.get("hasChildren"), true);
+        Assert.assertEquals(children.size(), 2);
+        Assert.assertEquals(children.get(0).get("name"), "a");
+        Assert.assertEquals(children.get(0).get("hasChildren"), true);
+        // only one level is listed
+        Assert.assertNull(children.get(0).get("children"));
+        Assert.assertEquals(children.get(1).get("hasChildren"), false);
+        Assert.assertEquals(root.get("nextCursor"), "b");
+
+        Map<String, Object> page = getDirectoryHierarchy("pageSize=2&cursor=b&dirPath=" + dir.getPath());
+        children = (List<Map<String, Object>>) page.get("children");
+        Assert.assertEquals(children.get(0).get("name"), "c");
+        Assert.assertEquals(children.get(1).get("name"), "D");
+        Assert.assertEquals(page.get("nextCursor"), "D");
+
+        Map<String, Object> lastPage = getDirectoryHierarchy("pageSize=2&cursor=D&dirPath=" + dir.getPath());
+        Assert.assertEquals(((List<Object>) lastPage.get("children")).size(), 1);
+        Assert.assertNull(lastPage.get("nextCursor"));
+
+        Map<String, Object> twoLevels = getDirectoryHierarchy("levels=2&dirPath=" + dir.getPath());
+        Map<String, Object> first = ((List<Map<String, Object>>) twoLevels.get("children")).get(0);
+        Map<String, Object> nested = ((List<Map<String, Object>>) first.get("children")).get(0);
+        Assert.assertEquals(nested.get("name"), "nested");
+        Assert.assertEquals(nested.get("hasChildren"), true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDirectoryHierarchyParametersAreChecked() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_HierarchyParameters");
+        new File(dir, "a/nested").mkdirs();
+        new File(dir, "b").mkdir();
+
+        // out of range values are brought within bounds
+        Map<String, Object> root = getDirectoryHierarchy("pageSize=0&levels=-3&dirPath=" + dir.getPath());
+        List<Map<String, Object>> children = (List<Map<String, Object>>) root.get("children");
+        Assert.assertEquals(children.size(), 1);
+        Assert.assertNull(children.get(0).get("children"));
+        Assert.assertEquals(root.get("nextCursor"), "a");
+
+        StringWriter sw = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(sw));
+        when(request.getQueryString()).thenReturn(
+                "http://127.0.0.1:3333/command/core/importing-controller?controller=files%2Ffiles-importing-controller&subCommand=directory-hierarchy&pageSize=many&dirPath="
+                        + dir.getPath());
+        SUT.doPost(request, response);
+        Assert.assertEquals(ParsingUtilities.mapper.readTree(sw.toString()).get("status").asText(), "error");
+    }
+}
@@ -0,0 +1,146 @@
+package org.google.refine.filesExtension.importer;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.util.ParsingUtilities;
+import org.openrefine.extensions.files.importer.FileScanner;
+import org.openrefine.extensions.files.importer.FilesImporter;
+import org.openrefine.extensions.files.importer.FilesRefresher;
+import org.openrefine.extensions.files.importer.ScanOptions;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.google.refine.filesExtension.utils.TestDirectories.createTempDirectory;
+import static org.google.refine.filesExtension.utils.TestDirectories.write;
+
+public class FilesRefresherTest {
+
+    private static final int PATH_CELL = 6;
+    private static final int CHECKSUM_CELL = 8;
+
+    private static Map<String, Row> rowsByFileName(List<Row> projectRows) {
+        Map<String, Row> rows = new HashMap<>();
+        for (Row row : projectRows) {
+            rows.put(row.getCellValue(0).toString(), row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testRefreshOnlyReadsChangedFiles() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_Refresh");
+        Path kept = write(dir, "kept.txt", "kept");
+        Path touched = write(dir, "touched.txt", "same");
+        Path modified = write(dir, "modified.txt", "before");
+        Path removed = write(dir, "removed.txt", "removed");
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}]}".replace("@dir", dir.getPath()));
+
+        Project project = new Project();
+        FilesImporter.loadData(project, options);
+        Assert.assertEquals(project.rows.size(), 4);
+        String touchedChecksum = rowsByFileName(project.rows).get("touched.txt").getCellValue(CHECKSUM_CELL).toString();
+
+        // same size and modification time: the content is trusted to be unchanged
+        FileTime touchedTime = Files.getLastModifiedTime(touched);
+        Files.writeString(touched, "diff");
+        Files.setLastModifiedTime(touched, touchedTime);
+        Files.writeString(modified, "after, and longer");
+        Files.setLastModifiedTime(modified, FileTime.fromMillis(Files.getLastModifiedTime(modified).toMillis() + 5000));
+        Files.delete(removed);
+        write(dir, "added.txt", "added");
+
+        Assert.assertTrue(FilesRefresher.isRefreshable(options));
+        FilesRefresher.Result result;
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            result = FilesRefresher.refresh(project, scanner);
+        }
+
+        Assert.assertEquals(result.added, 1);
+        Assert.assertEquals(result.changed, 1);
+        Assert.assertEquals(result.unchanged, 2);
+        Assert.assertEquals(result.removed, 1);
+        Map<String, Row> rows = rowsByFileName(result.rows);
+        Assert.assertEquals(rows.keySet(), Set.of("added.txt", "kept.txt", "modified.txt", "touched.txt"));
+        Assert.assertEquals(rows.get("touched.txt").getCellValue(CHECKSUM_CELL), touchedChecksum);
+        Assert.assertEquals(rows.get("kept.txt").getCellValue(PATH_CELL), kept.toAbsolutePath().toString());
+        Assert.assertNotNull(rows.get("added.txt").getCellValue(CHECKSUM_CELL));
+        Assert.assertNotEquals(rows.get("modified.txt").getCellValue(CHECKSUM_CELL),
+                rowsByFileName(project.rows).get("modified.txt").getCellValue(CHECKSUM_CELL));
+        // the project itself is only changed when the result is applied
+        Assert.assertEquals(project.rows.size(), 4);
+    }
+
+    @Test
+    public void testEditsMadeDuringTheScanAreKept() throws Exception {
+        File dir = createTempDirectory("OR_FilesExtension_Test_RefreshEdits");
+        write(dir, "edited.txt", "edited");
+        write(dir, "deleted.txt", "deleted");
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                "{\"directoryJsonValue\":[{\"directory\":\"@dir\"}]}".replace("@dir", dir.getPath()));
+        Project project = new Project();
+        FilesImporter.loadData(project, options);
+        Row deleted = rowsByFileName(project.rows).get("deleted.txt");
+        Object deletedChecksum = deleted.getCellValue(CHECKSUM_CELL);
+
+        FilesRefresher.Scan scan;
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            scan = FilesRefresher.scan(project, scanner, () -> { });
+        }
+        Assert.assertEquals(scan.size(), 2);
+        // the user edits a cell and deletes a row before the refresh is applied
+        rowsByFileName(project.rows).get("edited.txt").setCell(CHECKSUM_CELL, new Cell("checked by hand", null));
+        project.rows.remove(deleted);
+
+        FilesRefresher.Result result = FilesRefresher.buildRows(project, scan);
+        Assert.assertEquals(result.unchanged, 1);
+        Assert.assertEquals(result.added, 1);
+        Map<String, Row> rows = rowsByFileName(result.rows);
+        Assert.assertEquals(rows.get("edited.txt").getCellValue(CHECKSUM_CELL), "checked by hand");
+        // the file was not read again, its row gets the checksum it had when the scan started
+        Assert.assertEquals(rows.get("deleted.txt").getCellValue(CHECKSUM_CELL), deletedChecksum);
+    }
+
+    private static void assertRefreshIsRefused(String modeOption) throws Exception {
+        File first = createTempDirectory("OR_FilesExtension_Test_RefreshModeFirst");
+        File second = createTempDirectory("OR_FilesExtension_Test_RefreshModeSecond");
+        write(first, "same.txt", "same");
+        write(second, "same.txt", "same");
+        ObjectNode options = ParsingUtilities.evaluateJsonStringToObjectNode(
+                ("{\"directoryJsonValue\":[{\"directory\":\"@first\"},{\"directory\":\"@second\"}],\"@mode\":true}")
+                        .replace("@first", first.getPath()).replace("@second", second.getPath()).replace("@mode", modeOption));
+        Project project = new Project();
+        FilesImporter.loadData(project, options);
+        List<Row> rows = List.copyOf(project.rows);
+
+        Assert.assertFalse(FilesRefresher.isRefreshable(options));
+        try (FileScanner scanner = new FileScanner(ScanOptions.fromJson(options))) {
+            FilesRefresher.refresh(project, scanner);
+            Assert.fail("A " + modeOption + " project must not be refreshed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertEquals(project.rows, rows);
+    }
+
+    @Test
+    public void testDiffProjectIsNotRefreshed() throws Exception {
+        assertRefreshIsRefused("diffMode");
+    }
+
+    @Test
+    public void testDuplicatesProjectIsNotRefreshed() throws Exception {
+        assertRefreshIsRefused("duplicatesMode");
+    }
+}
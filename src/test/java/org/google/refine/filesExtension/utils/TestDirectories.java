@@ -0,0 +1,61 @@
+package org.google.refine.filesExtension.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Temporary directories and files the tests scan. Directories are deleted with
+ * their contents when the tests end.
+ */
+public class TestDirectories {
+
+    private static final List<File> created = new ArrayList<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(TestDirectories::deleteCreated));
+    }
+
+    public static File createTempDirectory(String name) throws IOException {
+        File dir = Files.createTempDirectory(name).toFile();
+        synchronized (created) {
+            created.add(dir);
+        }
+        return dir;
+    }
+
+    /** Writes a file below the directory, creating its parent directories */
+    public static Path write(File dir, String relativePath, String content) throws IOException {
+        Path file = createParent(dir, relativePath);
+        return Files.writeString(file, content);
+    }
+
+    /** Writes a file below the directory, creating its parent directories */
+    public static Path write(File dir, String relativePath, byte[] content) throws IOException {
+        Path file = createParent(dir, relativePath);
+        return Files.write(file, content);
+    }
+
+    private static Path createParent(File dir, String relativePath) throws IOException {
+        Path file = dir.toPath().resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        return file;
+    }
+
+    public static void deleteTree(File dir) throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static void deleteCreated() {
+        synchronized (created) {
+            for (File dir : created) {
+                FileUtils.deleteQuietly(dir);
+            }
+        }
+    }
+}